@@ -0,0 +1,62 @@
+#!/bin/sh
+# Compara el modo de hilos de plataforma con el de hilos virtuales.
+#
+# Arranca la aplicación en cada modo, hace login con el usuario de ejemplo
+# del perfil dev y lanza wrk contra el listado de tareas con niveles de
+# concurrencia crecientes. Para cada nivel se muestran las peticiones por
+# segundo, la latencia p99 y los errores (503 del limitador, timeouts).
+#
+# Uso: scripts/benchmark-hilos.sh [duracion] [conexiones...]
+# Requiere: wrk, curl y el jar generado con mvn package.
+
+set -e
+
+DURACION=${1:-30s}
+shift || true
+CONEXIONES=${*:-"50 200 800 2000"}
+JAR=$(ls target/*.jar | head -n 1)
+PUERTO=8080
+URL="http://localhost:$PUERTO"
+
+espera_arranque() {
+    for i in $(seq 1 60); do
+        if curl -s -o /dev/null "$URL/actuator/health"; then
+            return 0
+        fi
+        sleep 1
+    done
+    echo "La aplicación no ha arrancado" >&2
+    exit 1
+}
+
+ejecuta_modo() {
+    MODO=$1
+    VIRTUALES=$2
+    echo "== Modo $MODO"
+
+    # Desactivamos el limitador para medir la concurrencia máxima real
+    java -jar "$JAR" --servidor.hilos-virtuales="$VIRTUALES" --limitador.habilitado=false \
+        --logging.level.root=warn --logging.level.madstodolist=warn \
+        --spring.jpa.show-sql=false > "/tmp/benchmark-$MODO.log" 2>&1 &
+    PID=$!
+    espera_arranque
+
+    COOKIES=$(mktemp)
+    curl -s -c "$COOKIES" -o /dev/null -d "eMail=user@ua&password=123" "$URL/login"
+    SESION=$(awk '/JSESSIONID/ {print $7}' "$COOKIES")
+
+    for C in $CONEXIONES; do
+        echo "-- $C conexiones"
+        wrk -t 4 -c "$C" -d "$DURACION" --latency -H "Cookie: JSESSIONID=$SESION" "$URL/usuarios/1/tareas" \
+            | grep -E "Requests/sec|99%|Non-2xx|Socket errors"
+    done
+
+    curl -s "$URL/actuator/metrics/jvm.threads.peak" | sed 's/^/   /'
+    echo
+    kill "$PID"
+    wait "$PID" 2>/dev/null || true
+    rm -f "$COOKIES"
+}
+
+ejecuta_modo plataforma false
+ejecuta_modo virtuales true
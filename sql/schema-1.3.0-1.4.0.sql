@@ -0,0 +1,25 @@
+ALTER TABLE public.usuarios ADD COLUMN version_tareas bigint DEFAULT 0 NOT NULL;
+ALTER TABLE public.tareas ADD COLUMN version bigint DEFAULT 0 NOT NULL;
+ALTER TABLE public.tareas ADD COLUMN secuencia bigint DEFAULT 0 NOT NULL;
+ALTER TABLE public.usuarios ADD COLUMN secuencia_compactada bigint DEFAULT 0 NOT NULL;
+CREATE INDEX idx_tareas_usuario_secuencia ON public.tareas (usuario_id, secuencia);
+CREATE TABLE public.tareas_borradas (
+    id bigint NOT NULL PRIMARY KEY,
+    usuario_id bigint NOT NULL,
+    secuencia bigint NOT NULL,
+    fecha timestamp without time zone NOT NULL
+);
+CREATE INDEX idx_tareas_borradas_usuario_secuencia ON public.tareas_borradas (usuario_id, secuencia);
+-- La compactación busca por fecha sin filtrar por usuario: la fecha va primero
+CREATE INDEX idx_tareas_borradas_fecha_usuario ON public.tareas_borradas (fecha, usuario_id);
+ALTER TABLE public.tareas ADD COLUMN estado character varying(16) DEFAULT 'PENDIENTE' NOT NULL;
+ALTER TABLE public.tareas ADD COLUMN fecha_creacion timestamp without time zone;
+ALTER TABLE public.tareas ADD COLUMN fecha_modificacion timestamp without time zone;
+ALTER TABLE public.tareas ADD COLUMN fecha_completada timestamp without time zone;
+CREATE INDEX idx_tareas_usuario_estado_id ON public.tareas (usuario_id, estado, id);
+CREATE INDEX idx_tareas_usuario_id ON public.tareas (usuario_id, id);
+ALTER TABLE public.usuarios ADD COLUMN activo boolean DEFAULT true NOT NULL;
+ALTER TABLE public.tareas ADD COLUMN borrada boolean DEFAULT false NOT NULL;
+-- Índice parcial: sólo contiene las tareas borradas pendientes de purgar
+CREATE INDEX idx_tareas_borrada_id ON public.tareas (id) WHERE borrada;
+CREATE INDEX idx_tareas_estado_modificacion ON public.tareas (estado, fecha_modificacion);
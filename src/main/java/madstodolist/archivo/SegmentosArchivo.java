@@ -0,0 +1,333 @@
+package madstodolist.archivo;
+
+import madstodolist.eventos.TareaEvento;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.function.BiConsumer;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+// Ficheros de segmentos del archivo de tareas en el disco local.
+//
+// Cada usuario tiene su directorio con segmentos numerados (000001.seg,
+// 000002.seg...) a los que sólo se añade al final. Cada escritura añade un
+// miembro gzip con una línea por registro, precedido de su longitud. Cuando
+// el último segmento pasa del tamaño máximo se empieza otro.
+//
+// Si se corta una escritura a medias, al leer se descarta el miembro
+// incompleto del final y se conserva todo lo anterior.
+//
+// anade devuelve la Posicion del miembro escrito, con la que leeMiembro lo
+// vuelve a leer sin descomprimir el resto del archivo.
+@Component
+public class SegmentosArchivo {
+
+    Logger logger = LoggerFactory.getLogger(SegmentosArchivo.class);
+
+    private static final String EXTENSION = ".seg";
+
+    // Cerrojos por franja de usuarios: las lecturas de un usuario no
+    // esperan a las escrituras de otros
+    private static final int FRANJAS = 64;
+    private final ReadWriteLock[] cerrojos = new ReadWriteLock[FRANJAS];
+
+    private final Path directorio;
+    private final long tamanoSegmento;
+    private final boolean fsync;
+
+    public SegmentosArchivo(@Value("${archivo.directorio:archivo}") String directorio,
+                            @Value("${archivo.tamano-segmento:4194304}") long tamanoSegmento,
+                            @Value("${archivo.fsync:true}") boolean fsync) {
+        this.directorio = Paths.get(directorio);
+        this.tamanoSegmento = tamanoSegmento;
+        this.fsync = fsync;
+        for (int i = 0; i < FRANJAS; i++) {
+            cerrojos[i] = new ReentrantReadWriteLock();
+        }
+    }
+
+    // Segmento y desplazamiento dentro de él en que empieza un miembro
+    public static final class Posicion {
+        private final int segmento;
+        private final long desplazamiento;
+
+        public Posicion(int segmento, long desplazamiento) {
+            this.segmento = segmento;
+            this.desplazamiento = desplazamiento;
+        }
+
+        public int getSegmento() {
+            return segmento;
+        }
+
+        public long getDesplazamiento() {
+            return desplazamiento;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Posicion)) return false;
+            Posicion otra = (Posicion) o;
+            return segmento == otra.segmento && desplazamiento == otra.desplazamiento;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * segmento + Long.hashCode(desplazamiento);
+        }
+    }
+
+    // Añade las líneas al último segmento del usuario como un nuevo miembro
+    // gzip y devuelve su posición (null si no hay líneas). Al volver ya
+    // están en disco si archivo.fsync está activo.
+    public Posicion anade(Long usuarioId, List<String> lineas) {
+        if (lineas.isEmpty()) {
+            return null;
+        }
+        byte[] miembro = comprime(lineas);
+        ReadWriteLock cerrojo = cerrojo(usuarioId);
+        cerrojo.writeLock().lock();
+        try {
+            Path dir = directorio.resolve(String.valueOf(usuarioId));
+            Files.createDirectories(dir);
+            List<Path> segmentos = segmentos(dir);
+            Path ultimo = segmentos.isEmpty() ? null : segmentos.get(segmentos.size() - 1);
+            int numero = ultimo == null ? 0 : numeroSegmento(ultimo);
+            if (ultimo == null || Files.size(ultimo) >= tamanoSegmento) {
+                numero++;
+                ultimo = dir.resolve(nombreSegmento(numero));
+            }
+            try (FileChannel canal = FileChannel.open(ultimo, StandardOpenOption.CREATE,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                // Si una escritura anterior se cortó a medias se escribe
+                // encima de lo que dejó
+                long tamanoAnterior = finMiembrosCompletos(canal);
+                try {
+                    ByteBuffer buffer = ByteBuffer.wrap(miembro);
+                    while (buffer.hasRemaining()) {
+                        canal.write(buffer, tamanoAnterior + buffer.position());
+                    }
+                    canal.truncate(tamanoAnterior + miembro.length);
+                    if (fsync) {
+                        canal.force(true);
+                    }
+                } catch (IOException e) {
+                    // No se deja un miembro a medias delante de los siguientes
+                    canal.truncate(tamanoAnterior);
+                    throw e;
+                }
+                return new Posicion(numero, tamanoAnterior);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Error escribiendo el archivo del usuario " + usuarioId, e);
+        } finally {
+            cerrojo.writeLock().unlock();
+        }
+    }
+
+    // Todas las líneas del usuario en el orden en que se añadieron
+    public List<String> lee(Long usuarioId) {
+        List<String> lineas = new ArrayList<>();
+        recorre(usuarioId, (posicion, delMiembro) -> lineas.addAll(delMiembro));
+        return lineas;
+    }
+
+    // Pasa al consumidor cada miembro del usuario, en orden, con su
+    // posición. Sólo se tiene en memoria un miembro cada vez.
+    public void recorre(Long usuarioId, BiConsumer<Posicion, List<String>> consumidor) {
+        ReadWriteLock cerrojo = cerrojo(usuarioId);
+        cerrojo.readLock().lock();
+        try {
+            Path dir = directorio.resolve(String.valueOf(usuarioId));
+            if (!Files.isDirectory(dir)) {
+                return;
+            }
+            for (Path segmento : segmentos(dir)) {
+                recorreSegmento(segmento, consumidor);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Error leyendo el archivo del usuario " + usuarioId, e);
+        } finally {
+            cerrojo.readLock().unlock();
+        }
+    }
+
+    // Líneas del miembro que empieza en la posición indicada
+    public List<String> leeMiembro(Long usuarioId, Posicion posicion) {
+        ReadWriteLock cerrojo = cerrojo(usuarioId);
+        cerrojo.readLock().lock();
+        Path segmento = directorio.resolve(String.valueOf(usuarioId)).resolve(nombreSegmento(posicion.segmento));
+        try (FileChannel canal = FileChannel.open(segmento, StandardOpenOption.READ)) {
+            ByteBuffer cabecera = ByteBuffer.allocate(4);
+            leeCompleto(canal, cabecera, posicion.desplazamiento);
+            int longitud = cabecera.getInt(0);
+            if (longitud < 0 || posicion.desplazamiento + 4 + longitud > canal.size()) {
+                throw new IOException("No hay un miembro completo en " + segmento + ":" + posicion.desplazamiento);
+            }
+            ByteBuffer miembro = ByteBuffer.allocate(longitud);
+            leeCompleto(canal, miembro, posicion.desplazamiento + 4);
+            return descomprime(miembro.array());
+        } catch (IOException e) {
+            throw new UncheckedIOException("Error leyendo el archivo del usuario " + usuarioId, e);
+        } finally {
+            cerrojo.readLock().unlock();
+        }
+    }
+
+    public void borra(Long usuarioId) {
+        ReadWriteLock cerrojo = cerrojo(usuarioId);
+        cerrojo.writeLock().lock();
+        try {
+            Path dir = directorio.resolve(String.valueOf(usuarioId));
+            if (!Files.isDirectory(dir)) {
+                return;
+            }
+            for (Path segmento : segmentos(dir)) {
+                Files.delete(segmento);
+            }
+            Files.delete(dir);
+        } catch (IOException e) {
+            logger.warn("No se ha podido borrar el archivo del usuario " + usuarioId + ": " + e.getMessage());
+        } finally {
+            cerrojo.writeLock().unlock();
+        }
+    }
+
+    // Al eliminar por completo una cuenta se borra también su archivo
+    @TransactionalEventListener(fallbackExecution = true)
+    public void alCambiarTarea(TareaEvento evento) {
+        if (evento.getTipo() == TareaEvento.Tipo.PURGADAS) {
+            borra(evento.getUsuarioId());
+        }
+    }
+
+    private void recorreSegmento(Path segmento, BiConsumer<Posicion, List<String>> consumidor) throws IOException {
+        int numero = numeroSegmento(segmento);
+        long tamano = Files.size(segmento);
+        long posicion = 0;
+        try (DataInputStream entrada = new DataInputStream(new BufferedInputStream(Files.newInputStream(segmento)))) {
+            while (tamano - posicion >= 4) {
+                int longitud = entrada.readInt();
+                long restante = tamano - posicion - 4;
+                if (longitud < 0 || longitud > restante) {
+                    // Escritura cortada a medias al final del segmento
+                    logger.warn("Segmento " + segmento + " incompleto, se ignoran sus últimos " + restante + " bytes");
+                    return;
+                }
+                byte[] miembro = new byte[longitud];
+                entrada.readFully(miembro);
+                consumidor.accept(new Posicion(numero, posicion), descomprime(miembro));
+                posicion += 4 + longitud;
+            }
+        }
+    }
+
+    private static List<String> descomprime(byte[] miembro) throws IOException {
+        List<String> lineas = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new GZIPInputStream(new ByteArrayInputStream(miembro)), StandardCharsets.UTF_8))) {
+            String linea;
+            while ((linea = reader.readLine()) != null) {
+                lineas.add(linea);
+            }
+        }
+        return lineas;
+    }
+
+    private static void leeCompleto(FileChannel canal, ByteBuffer buffer, long posicion) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (canal.read(buffer, posicion + buffer.position()) < 0) {
+                throw new IOException("Fin de segmento inesperado");
+            }
+        }
+    }
+
+    // Recorre las cabeceras de los miembros sin descomprimirlos
+    private static long finMiembrosCompletos(FileChannel canal) throws IOException {
+        long tamano = canal.size();
+        long posicion = 0;
+        ByteBuffer cabecera = ByteBuffer.allocate(4);
+        while (posicion + 4 <= tamano) {
+            cabecera.clear();
+            while (cabecera.hasRemaining()) {
+                canal.read(cabecera, posicion + cabecera.position());
+            }
+            int longitud = cabecera.getInt(0);
+            if (longitud < 0 || posicion + 4 + longitud > tamano) {
+                break;
+            }
+            posicion += 4 + longitud;
+        }
+        return posicion;
+    }
+
+    // Longitud del miembro (4 bytes) seguida del miembro gzip
+    private static byte[] comprime(List<String> lineas) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        bytes.write(0);
+        bytes.write(0);
+        bytes.write(0);
+        bytes.write(0);
+        try (Writer writer = new OutputStreamWriter(new GZIPOutputStream(bytes), StandardCharsets.UTF_8)) {
+            for (String linea : lineas) {
+                writer.write(linea);
+                writer.write('\n');
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        byte[] miembro = bytes.toByteArray();
+        ByteBuffer.wrap(miembro).putInt(miembro.length - 4);
+        return miembro;
+    }
+
+    private static String nombreSegmento(int numero) {
+        return String.format("%06d", numero) + EXTENSION;
+    }
+
+    private static int numeroSegmento(Path segmento) {
+        String nombre = segmento.getFileName().toString();
+        return Integer.parseInt(nombre.substring(0, nombre.length() - EXTENSION.length()));
+    }
+
+    private static List<Path> segmentos(Path dir) throws IOException {
+        try (Stream<Path> ficheros = Files.list(dir)) {
+            return ficheros.filter(f -> f.getFileName().toString().endsWith(EXTENSION))
+                    .sorted(Comparator.comparing(f -> f.getFileName().toString()))
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private ReadWriteLock cerrojo(Long usuarioId) {
+        return cerrojos[(int) (usuarioId % FRANJAS)];
+    }
+}
@@ -0,0 +1,273 @@
+package madstodolist.auditoria;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import madstodolist.dto.TareaData;
+import madstodolist.eventos.TareaEvento;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.CRC32;
+
+// Log de auditoría de los logins y de los cambios en las tareas, escrito
+// en ficheros en lugar de en la BD.
+//
+// Los hilos de las peticiones sólo dejan el registro en una ColaAuditoria
+// (sin cerrojos ni objetos nuevos) y un único hilo lo copia al segmento
+// actual, un fichero de tamaño fijo mapeado en memoria (FormatoAuditoria).
+// Cuando se llena se empieza el siguiente. Al arrancar siempre se abre un
+// segmento nuevo.
+//
+// Cuándo se fuerzan los datos a disco lo decide auditoria.fsync:
+//  - SIEMPRE: tras cada tanda de registros escrita (las que llegan a la
+//    vez se fuerzan juntas)
+//  - PERIODICO: como mucho cada auditoria.fsync-ms
+//  - NUNCA: lo decide el sistema operativo; sobrevive a una caída de la
+//    aplicación pero no a una del sistema
+// Si la cola está llena el registro se descarta y se cuenta en la métrica
+// auditoria.descartados, para no frenar nunca las peticiones.
+//
+// Los ficheros se leen con LectorAuditoria, también con la aplicación parada.
+@Component
+public class Auditoria {
+
+    Logger logger = LoggerFactory.getLogger(Auditoria.class);
+
+    public enum PoliticaFsync {SIEMPRE, PERIODICO, NUNCA}
+
+    // Tiempo máximo que duerme el hilo escritor sin registros nuevos
+    private static final long ESPERA_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final boolean habilitada;
+    private final Path directorio;
+    private final long tamanoSegmento;
+    private final PoliticaFsync politicaFsync;
+    private final long fsyncNanos;
+    private final ColaAuditoria cola;
+
+    private final AtomicLong encolados = new AtomicLong();
+    private final AtomicLong escritos = new AtomicLong();
+    private final Counter descartados;
+
+    private volatile boolean activa;
+    private volatile boolean durmiendo;
+    private Thread escritor;
+
+    // Sólo los usa el hilo escritor
+    private final CRC32 crc = new CRC32();
+    private MappedByteBuffer segmento;
+    private int numeroSegmento;
+    private boolean pendienteFsync;
+    private long ultimoFsync;
+
+    public Auditoria(MeterRegistry registry,
+                     @Value("${auditoria.habilitada:true}") boolean habilitada,
+                     @Value("${auditoria.directorio:auditoria}") String directorio,
+                     @Value("${auditoria.tamano-segmento:16777216}") long tamanoSegmento,
+                     @Value("${auditoria.capacidad-cola:65536}") int capacidadCola,
+                     @Value("${auditoria.fsync:PERIODICO}") PoliticaFsync politicaFsync,
+                     @Value("${auditoria.fsync-ms:1000}") long fsyncMs) {
+        this.habilitada = habilitada;
+        this.directorio = Paths.get(directorio);
+        // Múltiplo del tamaño de registro y con sitio al menos para uno
+        this.tamanoSegmento = Math.max(2, tamanoSegmento / FormatoAuditoria.REGISTRO) * FormatoAuditoria.REGISTRO;
+        this.politicaFsync = politicaFsync;
+        this.fsyncNanos = TimeUnit.MILLISECONDS.toNanos(fsyncMs);
+        this.cola = new ColaAuditoria(capacidadCola);
+        descartados = Counter.builder("auditoria.descartados")
+                .description("Registros de auditoría descartados por tener la cola llena o no poder escribirlos")
+                .register(registry);
+        Gauge.builder("auditoria.pendientes", this, a -> a.encolados.get() - a.escritos.get())
+                .description("Registros de auditoría encolados pendientes de escribir")
+                .register(registry);
+    }
+
+    @PostConstruct
+    public void arranca() throws IOException {
+        if (!habilitada) {
+            return;
+        }
+        Files.createDirectories(directorio);
+        List<Path> existentes = LectorAuditoria.segmentos(directorio);
+        if (!existentes.isEmpty()) {
+            String ultimo = existentes.get(existentes.size() - 1).getFileName().toString();
+            numeroSegmento = Integer.parseInt(ultimo.substring(0, ultimo.length() - FormatoAuditoria.EXTENSION.length()));
+        }
+        abreSegmento();
+        activa = true;
+        escritor = new Thread(this::escribe, "auditoria-escritor");
+        escritor.setDaemon(true);
+        escritor.start();
+        logger.info("Log de auditoría en " + directorio.toAbsolutePath() + ", fsync " + politicaFsync);
+    }
+
+    @PreDestroy
+    public void cierra() throws InterruptedException {
+        if (escritor == null) {
+            return;
+        }
+        activa = false;
+        LockSupport.unpark(escritor);
+        escritor.join(TimeUnit.SECONDS.toMillis(10));
+    }
+
+    public void registraLogin(TipoRegistroAuditoria tipo, Long usuarioId) {
+        registra(tipo, usuarioId, null);
+    }
+
+    // Los cambios se registran al confirmarse la transacción que los hace
+    @TransactionalEventListener(fallbackExecution = true)
+    public void alCambiarTarea(TareaEvento evento) {
+        if (evento.getTipo() == TareaEvento.Tipo.MODIFICADAS) {
+            // Un registro por tarea, igual que si se hubieran modificado una a una
+            for (TareaData tarea : evento.getTareas()) {
+                registra(TipoRegistroAuditoria.TAREA_MODIFICADA, evento.getUsuarioId(), tarea.getId());
+            }
+            return;
+        }
+        registra(tipoDe(evento.getTipo()), evento.getUsuarioId(), evento.getTareaId());
+    }
+
+    // Espera a que esté escrito todo lo registrado hasta ahora. Devuelve
+    // false si no se ha conseguido en el tiempo indicado.
+    public boolean esperaEscritura(long timeoutMs) {
+        long objetivo = encolados.get();
+        long limite = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        while (escritos.get() < objetivo) {
+            if (!activa || System.nanoTime() - limite > 0) {
+                return false;
+            }
+            LockSupport.unpark(escritor);
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+        }
+        return true;
+    }
+
+    public Path getDirectorio() {
+        return directorio;
+    }
+
+    private void registra(TipoRegistroAuditoria tipo, Long usuarioId, Long tareaId) {
+        if (!activa) {
+            return;
+        }
+        // Se cuenta antes de encolar para que escritos nunca supere a encolados
+        encolados.incrementAndGet();
+        if (cola.encola(System.currentTimeMillis(), tipo.getCodigo(),
+                usuarioId == null ? 0 : usuarioId, tareaId == null ? 0 : tareaId)) {
+            if (durmiendo) {
+                LockSupport.unpark(escritor);
+            }
+        } else {
+            encolados.decrementAndGet();
+            descartados.increment();
+        }
+    }
+
+    // Bucle del hilo escritor
+    private void escribe() {
+        long[] registro = new long[ColaAuditoria.CAMPOS];
+        while (true) {
+            int tanda = 0;
+            while (cola.extrae(registro)) {
+                if (segmento.remaining() < FormatoAuditoria.REGISTRO && !rota()) {
+                    descartados.increment();
+                } else {
+                    FormatoAuditoria.escribe(segmento, registro[0], (byte) registro[1], registro[2], registro[3], crc);
+                    pendienteFsync = true;
+                }
+                tanda++;
+            }
+            if (politicaFsync == PoliticaFsync.SIEMPRE
+                    || (politicaFsync == PoliticaFsync.PERIODICO && System.nanoTime() - ultimoFsync >= fsyncNanos)) {
+                fuerza();
+            }
+            if (tanda > 0) {
+                escritos.addAndGet(tanda);
+            }
+            if (!activa && cola.vacia()) {
+                fuerza();
+                return;
+            }
+            durmiendo = true;
+            if (activa && cola.vacia()) {
+                LockSupport.parkNanos(ESPERA_NANOS);
+            }
+            durmiendo = false;
+        }
+    }
+
+    // Pasa al segmento siguiente. Si no se puede crear (por ejemplo, con el
+    // disco lleno) se sigue en el actual y se vuelve a intentar con el
+    // siguiente registro.
+    private boolean rota() {
+        fuerza();
+        try {
+            abreSegmento();
+            return true;
+        } catch (UncheckedIOException e) {
+            logger.error("Se descarta un registro de auditoría: " + e.getMessage());
+            return false;
+        }
+    }
+
+    private void fuerza() {
+        if (pendienteFsync && politicaFsync != PoliticaFsync.NUNCA) {
+            try {
+                segmento.force();
+            } catch (RuntimeException e) {
+                logger.error("Error forzando a disco el log de auditoría", e);
+            }
+        }
+        pendienteFsync = false;
+        ultimoFsync = System.nanoTime();
+    }
+
+    private void abreSegmento() {
+        numeroSegmento++;
+        Path fichero = directorio.resolve(String.format("%06d", numeroSegmento) + FormatoAuditoria.EXTENSION);
+        // El mapeo sigue siendo válido después de cerrar el canal
+        try (FileChannel canal = FileChannel.open(fichero, StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            segmento = canal.map(FileChannel.MapMode.READ_WRITE, 0, tamanoSegmento);
+        } catch (IOException e) {
+            throw new UncheckedIOException("No se ha podido crear el segmento de auditoría " + fichero, e);
+        }
+        FormatoAuditoria.escribeCabecera(segmento);
+        pendienteFsync = true;
+    }
+
+    private static TipoRegistroAuditoria tipoDe(TareaEvento.Tipo tipo) {
+        switch (tipo) {
+            case CREADA:
+                return TipoRegistroAuditoria.TAREA_CREADA;
+            case MODIFICADA:
+            case MODIFICADAS:
+                return TipoRegistroAuditoria.TAREA_MODIFICADA;
+            case BORRADA:
+                return TipoRegistroAuditoria.TAREA_BORRADA;
+            case IMPORTADAS:
+                return TipoRegistroAuditoria.TAREAS_IMPORTADAS;
+            default:
+                return TipoRegistroAuditoria.TAREAS_PURGADAS;
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package madstodolist.auditoria;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Cola acotada sin cerrojos con varios productores (los hilos de las
+// peticiones) y un único consumidor (el hilo que escribe el log).
+//
+// Es un array circular de huecos preasignados: cada registro ocupa
+// CAMPOS longs consecutivos y no se crea ningún objeto al encolar. Cada
+// hueco tiene un número de secuencia que indica de quién es el turno:
+//  - igual a la posición: libre para el productor que reserve esa posición
+//  - posición + 1: escrito, listo para el consumidor
+//  - posición + capacidad: leído, libre para la siguiente vuelta
+// Los productores se reparten las posiciones con un compareAndSet sobre la
+// cola. Si la cola está llena no se espera: encola devuelve false.
+class ColaAuditoria {
+
+    static final int CAMPOS = 4;
+
+    private final int capacidad;
+    private final int mascara;
+    private final long[] datos;
+    private final AtomicLongArray secuencias;
+    private final AtomicLong cola = new AtomicLong();
+    // Sólo la usa el consumidor
+    private long cabeza;
+
+    ColaAuditoria(int capacidadMinima) {
+        int c = Integer.highestOneBit(Math.max(2, capacidadMinima - 1)) << 1;
+        capacidad = c;
+        mascara = c - 1;
+        datos = new long[c * CAMPOS];
+        secuencias = new AtomicLongArray(c);
+        for (int i = 0; i < c; i++) {
+            secuencias.set(i, i);
+        }
+    }
+
+    boolean encola(long tiempo, long tipo, long usuarioId, long tareaId) {
+        long posicion = cola.get();
+        int hueco;
+        while (true) {
+            hueco = (int) (posicion & mascara);
+            long diferencia = secuencias.get(hueco) - posicion;
+            if (diferencia == 0) {
+                if (cola.compareAndSet(posicion, posicion + 1)) {
+                    break;
+                }
+                posicion = cola.get();
+            } else if (diferencia < 0) {
+                // El consumidor no ha liberado todavía este hueco
+                return false;
+            } else {
+                posicion = cola.get();
+            }
+        }
+        int base = hueco * CAMPOS;
+        datos[base] = tiempo;
+        datos[base + 1] = tipo;
+        datos[base + 2] = usuarioId;
+        datos[base + 3] = tareaId;
+        // Publica los datos escritos antes al consumidor
+        secuencias.lazySet(hueco, posicion + 1);
+        return true;
+    }
+
+    // Copia el siguiente registro en "registro" y lo quita de la cola.
+    // Devuelve false si no hay ninguno listo. Sólo desde el consumidor.
+    boolean extrae(long[] registro) {
+        int hueco = (int) (cabeza & mascara);
+        if (secuencias.get(hueco) != cabeza + 1) {
+            return false;
+        }
+        System.arraycopy(datos, hueco * CAMPOS, registro, 0, CAMPOS);
+        secuencias.lazySet(hueco, cabeza + capacidad);
+        cabeza++;
+        return true;
+    }
+
+    boolean vacia() {
+        return secuencias.get((int) (cabeza & mascara)) != cabeza + 1;
+    }
+
+    int getCapacidad() {
+        return capacidad;
+    }
+}
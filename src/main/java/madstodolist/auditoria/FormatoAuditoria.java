@@ -0,0 +1,80 @@
+package madstodolist.auditoria;
+
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+
+// Formato binario de los segmentos del log de auditoría.
+//
+// Cada segmento empieza con una cabecera del mismo tamaño que un registro
+// (número mágico y versión) seguida de registros de REGISTRO bytes:
+//
+//   0  long  instante en ms desde epoch
+//   8  long  id del usuario (0 si no se conoce)
+//  16  long  id de la tarea (0 si no aplica)
+//  24  byte  código de TipoRegistroAuditoria
+//  25  3 bytes reservados
+//  28  int   CRC32 de los 28 bytes anteriores
+//
+// El fichero se reserva entero al crearlo y queda a ceros, así que un
+// instante 0 marca el final de lo escrito. Un registro con el CRC
+// incorrecto es una escritura cortada a medias y también termina el segmento.
+final class FormatoAuditoria {
+
+    static final int REGISTRO = 32;
+    static final int MAGICO = 0x4D414441;
+    static final int VERSION = 1;
+    static final String EXTENSION = ".aud";
+
+    private FormatoAuditoria() {
+    }
+
+    static void escribeCabecera(ByteBuffer buffer) {
+        buffer.putInt(MAGICO);
+        buffer.putInt(VERSION);
+        buffer.position(buffer.position() + REGISTRO - 8);
+    }
+
+    static boolean cabeceraValida(ByteBuffer buffer) {
+        boolean valida = buffer.remaining() >= REGISTRO && buffer.getInt() == MAGICO && buffer.getInt() == VERSION;
+        if (valida) {
+            buffer.position(REGISTRO);
+        }
+        return valida;
+    }
+
+    static void escribe(ByteBuffer buffer, long tiempo, byte tipo, long usuarioId, long tareaId, CRC32 crc) {
+        int inicio = buffer.position();
+        buffer.putLong(tiempo);
+        buffer.putLong(usuarioId);
+        buffer.putLong(tareaId);
+        buffer.put(tipo);
+        buffer.put((byte) 0);
+        buffer.putShort((short) 0);
+        buffer.putInt(calculaCrc(buffer, inicio, crc));
+    }
+
+    // Lee el siguiente registro o devuelve null al llegar al final de lo escrito
+    static RegistroAuditoria lee(ByteBuffer buffer, CRC32 crc) {
+        if (buffer.remaining() < REGISTRO) {
+            return null;
+        }
+        int inicio = buffer.position();
+        long tiempo = buffer.getLong(inicio);
+        if (tiempo == 0 || buffer.getInt(inicio + 28) != calculaCrc(buffer, inicio, crc)) {
+            return null;
+        }
+        RegistroAuditoria registro = new RegistroAuditoria(tiempo,
+                TipoRegistroAuditoria.deCodigo(buffer.get(inicio + 24)),
+                buffer.getLong(inicio + 8), buffer.getLong(inicio + 16));
+        buffer.position(inicio + REGISTRO);
+        return registro;
+    }
+
+    private static int calculaCrc(ByteBuffer buffer, int inicio, CRC32 crc) {
+        crc.reset();
+        for (int i = inicio; i < inicio + 28; i++) {
+            crc.update(buffer.get(i));
+        }
+        return (int) crc.getValue();
+    }
+}
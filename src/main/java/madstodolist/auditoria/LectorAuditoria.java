@@ -0,0 +1,116 @@
+package madstodolist.auditoria;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+// Herramienta para consultar el log de auditoría sin arrancar la
+// aplicación. Recorre los segmentos del directorio en orden y muestra los
+// registros del usuario y el intervalo de tiempo indicados:
+//
+//   java -cp target/classes madstodolist.auditoria.LectorAuditoria auditoria \
+//        --usuario=3 --desde=2025-07-01 --hasta=2025-07-08T12:00:00Z
+//
+// Las fechas pueden ser instantes ISO-8601 o días (hora local); --desde es
+// inclusivo y --hasta exclusivo. Puede leer los segmentos mientras la
+// aplicación sigue escribiendo en ellos.
+public class LectorAuditoria {
+
+    private final Long usuarioId;
+    private final long desde;
+    private final long hasta;
+
+    public LectorAuditoria(Long usuarioId, long desde, long hasta) {
+        this.usuarioId = usuarioId;
+        this.desde = desde;
+        this.hasta = hasta;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.err.println("Uso: LectorAuditoria <directorio> [--usuario=id] [--desde=fecha] [--hasta=fecha]");
+            System.exit(2);
+        }
+        Long usuario = null;
+        long desde = Long.MIN_VALUE;
+        long hasta = Long.MAX_VALUE;
+        for (int i = 1; i < args.length; i++) {
+            String arg = args[i];
+            if (arg.startsWith("--usuario=")) {
+                usuario = Long.valueOf(arg.substring("--usuario=".length()));
+            } else if (arg.startsWith("--desde=")) {
+                desde = instante(arg.substring("--desde=".length()));
+            } else if (arg.startsWith("--hasta=")) {
+                hasta = instante(arg.substring("--hasta=".length()));
+            } else {
+                System.err.println("Opción desconocida: " + arg);
+                System.exit(2);
+            }
+        }
+        long[] total = {0};
+        new LectorAuditoria(usuario, desde, hasta).recorre(Paths.get(args[0]), registro -> {
+            System.out.println(registro);
+            total[0]++;
+        });
+        System.err.println(total[0] + " registros");
+    }
+
+    // Pasa al consumidor los registros que cumplen el filtro, en orden
+    public void recorre(Path directorio, Consumer<RegistroAuditoria> consumidor) throws IOException {
+        CRC32 crc = new CRC32();
+        for (Path segmento : segmentos(directorio)) {
+            try (FileChannel canal = FileChannel.open(segmento, StandardOpenOption.READ)) {
+                ByteBuffer buffer = canal.map(FileChannel.MapMode.READ_ONLY, 0, canal.size());
+                if (!FormatoAuditoria.cabeceraValida(buffer)) {
+                    System.err.println("Se ignora " + segmento + ": no es un segmento de auditoría");
+                    continue;
+                }
+                RegistroAuditoria registro;
+                while ((registro = FormatoAuditoria.lee(buffer, crc)) != null) {
+                    if (cumpleFiltro(registro)) {
+                        consumidor.accept(registro);
+                    }
+                }
+            }
+        }
+    }
+
+    private boolean cumpleFiltro(RegistroAuditoria registro) {
+        return (usuarioId == null || registro.getUsuarioId() == usuarioId)
+                && registro.getTiempo() >= desde && registro.getTiempo() < hasta;
+    }
+
+    static List<Path> segmentos(Path directorio) throws IOException {
+        if (!Files.isDirectory(directorio)) {
+            return Collections.emptyList();
+        }
+        try (Stream<Path> ficheros = Files.list(directorio)) {
+            return ficheros.filter(f -> f.getFileName().toString().endsWith(FormatoAuditoria.EXTENSION))
+                    .sorted(Comparator.comparing(f -> f.getFileName().toString()))
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private static long instante(String texto) {
+        try {
+            return Instant.parse(texto).toEpochMilli();
+        } catch (DateTimeParseException e) {
+            return LocalDate.parse(texto).atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        }
+    }
+}
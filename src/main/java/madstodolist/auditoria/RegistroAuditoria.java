@@ -0,0 +1,43 @@
+package madstodolist.auditoria;
+
+import java.time.Instant;
+
+// Un registro leído del log de auditoría
+public class RegistroAuditoria {
+
+    private final long tiempo;
+    private final TipoRegistroAuditoria tipo;
+    private final long usuarioId;
+    private final long tareaId;
+
+    public RegistroAuditoria(long tiempo, TipoRegistroAuditoria tipo, long usuarioId, long tareaId) {
+        this.tiempo = tiempo;
+        this.tipo = tipo;
+        this.usuarioId = usuarioId;
+        this.tareaId = tareaId;
+    }
+
+    public long getTiempo() {
+        return tiempo;
+    }
+
+    // null si el registro es de un tipo que esta versión no conoce
+    public TipoRegistroAuditoria getTipo() {
+        return tipo;
+    }
+
+    public long getUsuarioId() {
+        return usuarioId;
+    }
+
+    public long getTareaId() {
+        return tareaId;
+    }
+
+    @Override
+    public String toString() {
+        return Instant.ofEpochMilli(tiempo) + " " + (tipo == null ? "DESCONOCIDO" : tipo.name())
+                + " usuario=" + (usuarioId == 0 ? "-" : String.valueOf(usuarioId))
+                + " tarea=" + (tareaId == 0 ? "-" : String.valueOf(tareaId));
+    }
+}
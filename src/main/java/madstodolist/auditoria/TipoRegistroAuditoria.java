@@ -0,0 +1,34 @@
+package madstodolist.auditoria;
+
+// Tipos de registro del log de auditoría. El código es el byte que se
+// guarda en el fichero, así que no debe cambiar ni reutilizarse.
+public enum TipoRegistroAuditoria {
+    LOGIN_OK(1),
+    LOGIN_USUARIO_NO_ENCONTRADO(2),
+    LOGIN_ERROR_PASSWORD(3),
+    TAREA_CREADA(10),
+    TAREA_MODIFICADA(11),
+    TAREA_BORRADA(12),
+    TAREAS_IMPORTADAS(13),
+    TAREAS_PURGADAS(14);
+
+    private final byte codigo;
+
+    TipoRegistroAuditoria(int codigo) {
+        this.codigo = (byte) codigo;
+    }
+
+    public byte getCodigo() {
+        return codigo;
+    }
+
+    // null si el código no corresponde a ningún tipo conocido
+    public static TipoRegistroAuditoria deCodigo(byte codigo) {
+        for (TipoRegistroAuditoria tipo : values()) {
+            if (tipo.codigo == codigo) {
+                return tipo;
+            }
+        }
+        return null;
+    }
+}
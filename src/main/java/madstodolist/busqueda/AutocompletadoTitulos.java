@@ -0,0 +1,255 @@
+package madstodolist.busqueda;
+
+import madstodolist.dto.TareaData;
+import madstodolist.eventos.TareaEvento;
+import madstodolist.repository.TareaRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Sugerencias de títulos para el formulario de nueva tarea a partir de lo
+// que el usuario lleva escrito, sin consultar la BD en cada pulsación.
+//
+// Para cada usuario se guardan sus títulos distintos en un array ordenado
+// por título normalizado, con el número de tareas que lo usan. Un prefijo
+// se resuelve con una búsqueda binaria y un recorrido del tramo que empieza
+// por él. Los índices se cargan de la BD la primera vez que se piden y se
+// descartan los de los usuarios usados hace más tiempo cuando el total
+// supera el presupuesto de memoria.
+@Component
+public class AutocompletadoTitulos {
+
+    Logger logger = LoggerFactory.getLogger(AutocompletadoTitulos.class);
+
+    // Contadores de cambios por franja de usuarios. Si cambian mientras se
+    // carga el índice de un usuario, el índice cargado puede estar
+    // desactualizado y no se guarda.
+    private static final int FRANJAS = 64;
+    private final AtomicLongArray cambios = new AtomicLongArray(FRANJAS);
+
+    // Orden de acceso: el primero es el usado hace más tiempo
+    private final LinkedHashMap<Long, TitulosUsuario> indices = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytesEnUso;
+
+    private final long presupuestoBytes;
+
+    @Autowired
+    private TareaRepository tareaRepository;
+
+    public AutocompletadoTitulos(@Value("${autocompletado.presupuesto-bytes:16777216}") long presupuestoBytes) {
+        this.presupuestoBytes = presupuestoBytes;
+    }
+
+    // Hasta "maximo" títulos distintos del usuario que empiezan por el
+    // prefijo, los más usados primero
+    public List<String> sugiere(Long usuarioId, String prefijo, int maximo) {
+        String clave = NormalizadorTexto.normaliza(prefijo).trim();
+        if (clave.isEmpty() || maximo <= 0) {
+            return Collections.emptyList();
+        }
+        return indiceDe(usuarioId).sugiere(clave, maximo);
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void alCambiarTarea(TareaEvento evento) {
+        Long usuarioId = evento.getUsuarioId();
+        TitulosUsuario indice;
+        synchronized (this) {
+            indice = indices.get(usuarioId);
+        }
+        if (evento.getTipo() == TareaEvento.Tipo.IMPORTADAS || evento.getTipo() == TareaEvento.Tipo.PURGADAS) {
+            descarta(usuarioId);
+        } else if (indice != null) {
+            long antes = indice.bytes();
+            if (evento.getTipo() == TareaEvento.Tipo.MODIFICADAS) {
+                for (TareaData tarea : evento.getTareas()) {
+                    indice.quita(tarea.getId());
+                    indice.pon(tarea.getId(), tarea.getTitulo());
+                }
+            } else {
+                if (evento.getTipo() != TareaEvento.Tipo.CREADA) {
+                    indice.quita(evento.getTareaId());
+                }
+                if (evento.getTarea() != null) {
+                    indice.pon(evento.getTareaId(), evento.getTarea().getTitulo());
+                }
+            }
+            ajustaBytes(usuarioId, indice, indice.bytes() - antes);
+        }
+        cambios.incrementAndGet(franja(usuarioId));
+    }
+
+    public synchronized int numeroIndices() {
+        return indices.size();
+    }
+
+    public synchronized long getBytesEnUso() {
+        return bytesEnUso;
+    }
+
+    private TitulosUsuario indiceDe(Long usuarioId) {
+        synchronized (this) {
+            TitulosUsuario indice = indices.get(usuarioId);
+            if (indice != null) {
+                return indice;
+            }
+        }
+        // La consulta se hace fuera del cerrojo
+        long cambiosAntes = cambios.get(franja(usuarioId));
+        TitulosUsuario cargado = new TitulosUsuario(tareaRepository.findTitulosByUsuarioId(usuarioId));
+        synchronized (this) {
+            TitulosUsuario existente = indices.get(usuarioId);
+            if (existente != null) {
+                return existente;
+            }
+            if (cambios.get(franja(usuarioId)) == cambiosAntes) {
+                indices.put(usuarioId, cargado);
+                bytesEnUso += cargado.bytes();
+                expulsaSobrantes();
+            }
+        }
+        return cargado;
+    }
+
+    private synchronized void descarta(Long usuarioId) {
+        TitulosUsuario indice = indices.remove(usuarioId);
+        if (indice != null) {
+            bytesEnUso -= indice.bytes();
+        }
+    }
+
+    private synchronized void ajustaBytes(Long usuarioId, TitulosUsuario indice, long diferencia) {
+        // Si se ha descartado mientras tanto ya no cuenta para el total
+        if (indices.get(usuarioId) == indice) {
+            bytesEnUso += diferencia;
+            expulsaSobrantes();
+        }
+    }
+
+    private void expulsaSobrantes() {
+        Iterator<TitulosUsuario> it = indices.values().iterator();
+        while (bytesEnUso > presupuestoBytes && it.hasNext()) {
+            TitulosUsuario indice = it.next();
+            bytesEnUso -= indice.bytes();
+            it.remove();
+            logger.debug("Descartado índice de autocompletado, " + bytesEnUso + " bytes en uso");
+        }
+    }
+
+    private static int franja(Long usuarioId) {
+        return (int) (usuarioId % FRANJAS);
+    }
+
+    private static final class TitulosUsuario {
+        // Estimación del tamaño de un String y de una entrada de HashMap
+        private static final int BYTES_STRING = 48;
+        private static final int BYTES_ENTRADA_MAPA = 64;
+
+        // Títulos distintos ordenados por su clave normalizada. El título
+        // que se muestra es el de la primera tarea con esa clave.
+        private String[] claves = new String[0];
+        private String[] titulos = new String[0];
+        private int[] usos = new int[0];
+        private int tamano;
+        // Clave de cada tarea, para poder quitarla al modificarla o borrarla.
+        // Reutiliza el mismo objeto String que el array de claves.
+        private final Map<Long, String> clavePorTarea = new HashMap<>();
+        private long bytes;
+
+        TitulosUsuario(List<Object[]> tareas) {
+            for (Object[] tarea : tareas) {
+                pon((Long) tarea[0], (String) tarea[1]);
+            }
+        }
+
+        synchronized long bytes() {
+            return bytes;
+        }
+
+        synchronized void pon(Long tareaId, String titulo) {
+            String clave = NormalizadorTexto.normaliza(titulo).trim();
+            if (clave.isEmpty()) {
+                return;
+            }
+            int pos = Arrays.binarySearch(claves, 0, tamano, clave);
+            if (pos >= 0) {
+                usos[pos]++;
+                clave = claves[pos];
+            } else {
+                inserta(-pos - 1, clave, titulo);
+            }
+            clavePorTarea.put(tareaId, clave);
+            bytes += BYTES_ENTRADA_MAPA;
+        }
+
+        synchronized void quita(Long tareaId) {
+            String clave = clavePorTarea.remove(tareaId);
+            if (clave == null) {
+                return;
+            }
+            bytes -= BYTES_ENTRADA_MAPA;
+            int pos = Arrays.binarySearch(claves, 0, tamano, clave);
+            if (pos >= 0 && --usos[pos] == 0) {
+                bytes -= 2 * BYTES_STRING + 2L * (claves[pos].length() + titulos[pos].length()) + 4;
+                System.arraycopy(claves, pos + 1, claves, pos, tamano - pos - 1);
+                System.arraycopy(titulos, pos + 1, titulos, pos, tamano - pos - 1);
+                System.arraycopy(usos, pos + 1, usos, pos, tamano - pos - 1);
+                tamano--;
+                claves[tamano] = null;
+                titulos[tamano] = null;
+            }
+        }
+
+        synchronized List<String> sugiere(String prefijo, int maximo) {
+            int pos = Arrays.binarySearch(claves, 0, tamano, prefijo);
+            int inicio = pos >= 0 ? pos : -pos - 1;
+            // Los más usados primero y, a igualdad, por orden alfabético
+            PriorityQueue<Integer> mejores = new PriorityQueue<>(maximo + 1,
+                    (a, b) -> usos[a] != usos[b] ? Integer.compare(usos[a], usos[b]) : claves[b].compareTo(claves[a]));
+            for (int i = inicio; i < tamano && claves[i].startsWith(prefijo); i++) {
+                mejores.offer(i);
+                if (mejores.size() > maximo) {
+                    mejores.poll();
+                }
+            }
+            List<String> resultado = new ArrayList<>(mejores.size());
+            while (!mejores.isEmpty()) {
+                resultado.add(titulos[mejores.poll()]);
+            }
+            Collections.reverse(resultado);
+            return resultado;
+        }
+
+        private void inserta(int pos, String clave, String titulo) {
+            if (tamano == claves.length) {
+                int capacidad = Math.max(8, tamano + (tamano >> 1));
+                bytes += 12L * (capacidad - claves.length);
+                claves = Arrays.copyOf(claves, capacidad);
+                titulos = Arrays.copyOf(titulos, capacidad);
+                usos = Arrays.copyOf(usos, capacidad);
+            }
+            System.arraycopy(claves, pos, claves, pos + 1, tamano - pos);
+            System.arraycopy(titulos, pos, titulos, pos + 1, tamano - pos);
+            System.arraycopy(usos, pos, usos, pos + 1, tamano - pos);
+            claves[pos] = clave;
+            titulos[pos] = titulo;
+            usos[pos] = 1;
+            tamano++;
+            bytes += 2 * BYTES_STRING + 2L * (clave.length() + titulo.length()) + 4;
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package madstodolist.busqueda;
+
+import madstodolist.dto.CoincidenciaTareaData;
+import madstodolist.dto.TareaData;
+import madstodolist.eventos.TareaEvento;
+import madstodolist.repository.TareaRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+// Índice invertido en memoria de los títulos de las tareas, separado por
+// usuario, para buscar sin hacer LIKE '%...%' sobre la tabla de tareas.
+//
+// Se construye al arrancar recorriendo la tabla de tareas, antes de que el
+// servidor empiece a atender peticiones, y después se mantiene con los
+// TareaEvento que publica TareaService una vez confirmada cada transacción.
+@Component
+public class IndiceBusquedaTareas implements SmartInitializingSingleton {
+
+    Logger logger = LoggerFactory.getLogger(IndiceBusquedaTareas.class);
+
+    private final Map<Long, IndiceUsuario> indices = new ConcurrentHashMap<>();
+
+    @Autowired
+    private TareaRepository tareaRepository;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Override
+    public void afterSingletonsInstantiated() {
+        TransactionTemplate lectura = new TransactionTemplate(transactionManager);
+        lectura.setReadOnly(true);
+        long inicio = System.currentTimeMillis();
+        int tareas = lectura.execute(estado -> {
+            int total = 0;
+            try (Stream<Object[]> filas = tareaRepository.streamTitulos()) {
+                Iterator<Object[]> it = filas.iterator();
+                while (it.hasNext()) {
+                    Object[] fila = it.next();
+                    indiceDe((Long) fila[1]).pon((Long) fila[0], (String) fila[2]);
+                    total++;
+                }
+            }
+            return total;
+        });
+        logger.info("Índice de búsqueda construido con " + tareas + " tareas en "
+                + (System.currentTimeMillis() - inicio) + " ms");
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void alCambiarTarea(TareaEvento evento) {
+        switch (evento.getTipo()) {
+            case CREADA:
+            case MODIFICADA:
+                indiceDe(evento.getUsuarioId()).pon(evento.getTareaId(), evento.getTarea().getTitulo());
+                break;
+            case MODIFICADAS:
+                IndiceUsuario modificado = indiceDe(evento.getUsuarioId());
+                for (TareaData tarea : evento.getTareas()) {
+                    modificado.pon(tarea.getId(), tarea.getTitulo());
+                }
+                break;
+            case BORRADA:
+                IndiceUsuario indice = indices.get(evento.getUsuarioId());
+                if (indice != null) {
+                    indice.quita(evento.getTareaId());
+                }
+                break;
+            case IMPORTADAS:
+                reconstruye(evento.getUsuarioId());
+                break;
+            case PURGADAS:
+                indices.remove(evento.getUsuarioId());
+                break;
+        }
+    }
+
+    // Tareas del usuario cuyo título contiene todos los términos de la
+    // consulta. El último término se trata como prefijo para poder buscar
+    // mientras se escribe. Se ordenan por relevancia y, a igualdad, por las
+    // más recientes primero.
+    public List<CoincidenciaTareaData> busca(Long usuarioId, String consulta, int maximo) {
+        List<String> terminos = NormalizadorTexto.terminos(consulta);
+        IndiceUsuario indice = indices.get(usuarioId);
+        if (terminos.isEmpty() || indice == null || maximo <= 0) {
+            return Collections.emptyList();
+        }
+        return indice.busca(terminos, maximo);
+    }
+
+    // Tras una importación no hay eventos por tarea, así que se vuelve a
+    // leer el índice completo del usuario
+    private void reconstruye(Long usuarioId) {
+        IndiceUsuario nuevo = new IndiceUsuario();
+        for (Object[] fila : tareaRepository.findTitulosByUsuarioId(usuarioId)) {
+            nuevo.pon((Long) fila[0], (String) fila[1]);
+        }
+        indices.put(usuarioId, nuevo);
+    }
+
+    private IndiceUsuario indiceDe(Long usuarioId) {
+        return indices.computeIfAbsent(usuarioId, id -> new IndiceUsuario());
+    }
+
+    private static final class IndiceUsuario {
+        // Término -> ids de las tareas que lo contienen. Ordenado para
+        // resolver las búsquedas por prefijo con un subMap.
+        private final NavigableMap<String, Set<Long>> tareasPorTermino = new TreeMap<>();
+        private final Map<Long, String> titulos = new HashMap<>();
+
+        synchronized void pon(Long id, String titulo) {
+            quita(id);
+            titulos.put(id, titulo);
+            for (String termino : NormalizadorTexto.terminos(titulo)) {
+                tareasPorTermino.computeIfAbsent(termino, t -> new HashSet<>()).add(id);
+            }
+        }
+
+        synchronized void quita(Long id) {
+            String anterior = titulos.remove(id);
+            if (anterior == null) {
+                return;
+            }
+            for (String termino : NormalizadorTexto.terminos(anterior)) {
+                Set<Long> tareas = tareasPorTermino.get(termino);
+                if (tareas != null && tareas.remove(id) && tareas.isEmpty()) {
+                    tareasPorTermino.remove(termino);
+                }
+            }
+        }
+
+        synchronized List<CoincidenciaTareaData> busca(List<String> terminos, int maximo) {
+            int total = titulos.size();
+            List<Set<Long>> conjuntos = new ArrayList<>(terminos.size());
+            double[] pesos = new double[terminos.size()];
+            for (int i = 0; i < terminos.size(); i++) {
+                Set<Long> tareas = i == terminos.size() - 1
+                        ? conPrefijo(terminos.get(i))
+                        : tareasPorTermino.get(terminos.get(i));
+                if (tareas == null || tareas.isEmpty()) {
+                    return Collections.emptyList();
+                }
+                conjuntos.add(tareas);
+                // Los términos poco frecuentes pesan más (idf)
+                pesos[i] = Math.log(1.0 + (double) total / tareas.size());
+            }
+
+            // Se recorre el conjunto más pequeño y se comprueba en los demás
+            Set<Long> menor = Collections.min(conjuntos, Comparator.comparingInt(Set::size));
+            Comparator<CoincidenciaTareaData> peorPrimero = Comparator
+                    .comparingDouble(CoincidenciaTareaData::getPuntuacion)
+                    .thenComparing(CoincidenciaTareaData::getId);
+            PriorityQueue<CoincidenciaTareaData> mejores = new PriorityQueue<>(maximo + 1, peorPrimero);
+            String primerTermino = terminos.get(0);
+            candidatos:
+            for (Long id : menor) {
+                double puntuacion = 0;
+                for (int i = 0; i < conjuntos.size(); i++) {
+                    if (!conjuntos.get(i).contains(id)) {
+                        continue candidatos;
+                    }
+                    puntuacion += pesos[i];
+                }
+                String titulo = titulos.get(id);
+                // Pequeño extra si el título empieza por el primer término
+                if (NormalizadorTexto.normaliza(titulo).startsWith(primerTermino)) {
+                    puntuacion += 0.5;
+                }
+                mejores.offer(new CoincidenciaTareaData(id, titulo, puntuacion));
+                if (mejores.size() > maximo) {
+                    mejores.poll();
+                }
+            }
+            List<CoincidenciaTareaData> resultado = new ArrayList<>(mejores);
+            resultado.sort(peorPrimero.reversed());
+            return resultado;
+        }
+
+        private Set<Long> conPrefijo(String prefijo) {
+            SortedMap<String, Set<Long>> conPrefijo = tareasPorTermino.subMap(prefijo, prefijo + Character.MAX_VALUE);
+            if (conPrefijo.isEmpty()) {
+                return null;
+            }
+            if (conPrefijo.size() == 1) {
+                return conPrefijo.values().iterator().next();
+            }
+            Set<Long> union = new HashSet<>();
+            for (Set<Long> tareas : conPrefijo.values()) {
+                union.addAll(tareas);
+            }
+            return union;
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package madstodolist.busqueda;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+// Normalización de los títulos de las tareas para los índices en memoria:
+// minúsculas y sin tildes ni diéresis, de forma que "Camión" y "camion"
+// se consideren el mismo término.
+public final class NormalizadorTexto {
+
+    private static final Pattern MARCAS = Pattern.compile("\\p{M}+");
+    private static final Pattern SEPARADORES = Pattern.compile("[^\\p{L}\\p{N}]+");
+
+    private NormalizadorTexto() {}
+
+    public static String normaliza(String texto) {
+        if (texto == null) {
+            return "";
+        }
+        String sinMarcas = MARCAS.matcher(Normalizer.normalize(texto, Normalizer.Form.NFD)).replaceAll("");
+        return sinMarcas.toLowerCase(Locale.ROOT);
+    }
+
+    // Términos del texto normalizado, en orden y sin repetir
+    public static List<String> terminos(String texto) {
+        List<String> terminos = new ArrayList<>();
+        for (String termino : SEPARADORES.split(normaliza(texto))) {
+            if (!termino.isEmpty() && !terminos.contains(termino)) {
+                terminos.add(termino);
+            }
+        }
+        return terminos;
+    }
+}
@@ -0,0 +1,39 @@
+package madstodolist.config;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Envoltorio de un Executor que cuenta las tareas en ejecución y completadas.
+// Los ejecutores de hilos virtuales no son ThreadPoolExecutor, así que
+// Micrometer no puede obtener estas métricas directamente.
+public class EjecutorInstrumentado implements Executor {
+
+    private final Executor delegado;
+    private final AtomicLong activas = new AtomicLong();
+    private final AtomicLong completadas = new AtomicLong();
+
+    public EjecutorInstrumentado(Executor delegado) {
+        this.delegado = delegado;
+    }
+
+    @Override
+    public void execute(Runnable tarea) {
+        delegado.execute(() -> {
+            activas.incrementAndGet();
+            try {
+                tarea.run();
+            } finally {
+                activas.decrementAndGet();
+                completadas.incrementAndGet();
+            }
+        });
+    }
+
+    public double getActivas() {
+        return activas.get();
+    }
+
+    public double getCompletadas() {
+        return completadas.get();
+    }
+}
@@ -0,0 +1,61 @@
+package madstodolist.config;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.embedded.tomcat.TomcatProtocolHandlerCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Modo de ejecución opcional en el que Tomcat atiende cada petición en un
+// hilo virtual (JDK 21 o superior). El trabajo de los servicios @Transactional
+// se ejecuta en el mismo hilo que la petición, por lo que también pasa a
+// hilos virtuales y una petición bloqueada en JDBC deja de ocupar un hilo
+// del pool de plataforma.
+//
+// Se activa con servidor.hilos-virtuales=true. Si la JVM no soporta hilos
+// virtuales se mantiene el pool de hilos de plataforma de Tomcat.
+@Configuration
+@ConditionalOnProperty(name = "servidor.hilos-virtuales", havingValue = "true")
+public class HilosVirtualesConfig {
+
+    Logger logger = LoggerFactory.getLogger(HilosVirtualesConfig.class);
+
+    @Bean
+    public TomcatProtocolHandlerCustomizer<?> ejecutorHilosVirtuales(MeterRegistry registry) {
+        ExecutorService virtual = creaEjecutorVirtual();
+        if (virtual == null) {
+            logger.warn("La JVM " + System.getProperty("java.version")
+                    + " no soporta hilos virtuales, se usan hilos de plataforma");
+            return protocolHandler -> { };
+        }
+
+        EjecutorInstrumentado ejecutor = new EjecutorInstrumentado(virtual);
+        Gauge.builder("servidor.peticiones.activas", ejecutor, EjecutorInstrumentado::getActivas)
+                .description("Peticiones en ejecución en hilos virtuales")
+                .register(registry);
+        // Total que sólo crece: contador para poder calcular la tasa
+        FunctionCounter.builder("servidor.peticiones.completadas", ejecutor, EjecutorInstrumentado::getCompletadas)
+                .description("Peticiones completadas en hilos virtuales")
+                .register(registry);
+
+        logger.info("Atendiendo peticiones con hilos virtuales");
+        return protocolHandler -> protocolHandler.setExecutor(ejecutor);
+    }
+
+    // Se usa reflexión para que el código compile con el nivel de Java del
+    // proyecto y siga funcionando en JVMs sin hilos virtuales
+    static ExecutorService creaEjecutorVirtual() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package madstodolist.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.task.TaskExecutorBuilder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+@Configuration
+public class LecturasAsincronasConfig {
+
+    // Pool en el que se ejecutan las lecturas de la API JSON. Su tamaño
+    // debe ser similar al del pool de conexiones de la BD: las peticiones
+    // que esperan turno quedan en la cola sin ocupar un hilo de Tomcat.
+    @Bean
+    public ThreadPoolTaskExecutor lecturasExecutor(
+            @Value("${api.lecturas.hilos:10}") int hilos,
+            @Value("${api.lecturas.cola:1000}") int cola) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(hilos);
+        executor.setMaxPoolSize(hilos);
+        executor.setQueueCapacity(cola);
+        executor.setThreadNamePrefix("lecturas-");
+        return executor;
+    }
+
+    // Al declarar nuestro propio executor Spring Boot deja de crear el que
+    // usa por defecto Spring MVC para las peticiones asíncronas, así que lo
+    // declaramos aquí con la configuración spring.task.execution.*
+    @Bean(name = {"applicationTaskExecutor", "taskExecutor"})
+    @Primary
+    public ThreadPoolTaskExecutor applicationTaskExecutor(TaskExecutorBuilder builder) {
+        return builder.build();
+    }
+}
@@ -0,0 +1,35 @@
+package madstodolist.config;
+
+import madstodolist.filter.LimitadorConcurrencia;
+import madstodolist.filter.LimitadorConcurrenciaFilter;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+@ConditionalOnProperty(name = "limitador.habilitado", havingValue = "true", matchIfMissing = true)
+public class LimitadorConcurrenciaConfig {
+
+    @Bean
+    public LimitadorConcurrencia limitadorConcurrencia(
+            @Value("${limitador.limite-inicial:20}") int limiteInicial,
+            @Value("${limitador.limite-minimo:4}") int limiteMinimo,
+            @Value("${limitador.limite-maximo:200}") int limiteMaximo,
+            @Value("${limitador.fraccion-lecturas:0.8}") double fraccionLecturas) {
+        return new LimitadorConcurrencia(limiteInicial, limiteMinimo, limiteMaximo, fraccionLecturas);
+    }
+
+    // Sólo se limitan las rutas servidas por TareaController, TareaApiController
+    // y HomeController
+    @Bean
+    public FilterRegistrationBean<LimitadorConcurrenciaFilter> limitadorConcurrenciaFilter(
+            LimitadorConcurrencia limitador,
+            @Value("${limitador.retry-after:1}") int segundosReintento) {
+        FilterRegistrationBean<LimitadorConcurrenciaFilter> registro =
+                new FilterRegistrationBean<>(new LimitadorConcurrenciaFilter(limitador, segundosReintento));
+        registro.addUrlPatterns("/usuarios/*", "/tareas", "/tareas/*", "/api/*", "/about", "/account", "/registrados");
+        return registro;
+    }
+}
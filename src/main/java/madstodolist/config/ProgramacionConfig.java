@@ -0,0 +1,28 @@
+package madstodolist.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.EnableScheduling;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+
+// Habilita los métodos @Scheduled (latidos de los eventos SSE, etc.)
+//
+// Por defecto Spring los ejecuta todos en un único hilo, y las purgas, la
+// compactación y el archivado pueden tardar (o dormir entre lotes) lo
+// suficiente para retrasar los latidos. Con un hilo por tarea programada
+// ninguna espera a las demás; cada una sigue sin solaparse consigo misma
+// porque todas usan fixedDelay.
+@Configuration
+@EnableScheduling
+public class ProgramacionConfig {
+
+    @Bean
+    public ThreadPoolTaskScheduler taskScheduler(@Value("${programacion.hilos:5}") int hilos) {
+        ThreadPoolTaskScheduler scheduler = new ThreadPoolTaskScheduler();
+        scheduler.setPoolSize(hilos);
+        scheduler.setThreadNamePrefix("programadas-");
+        scheduler.setWaitForTasksToCompleteOnShutdown(false);
+        return scheduler;
+    }
+}
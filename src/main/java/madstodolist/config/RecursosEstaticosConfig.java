@@ -0,0 +1,37 @@
+package madstodolist.config;
+
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.util.regex.Pattern;
+
+// Caché de los ficheros estáticos (css/js). Con la cadena de recursos de
+// Spring (spring.web.resources.chain.*) las URLs generadas con @{...} en
+// las plantillas llevan el hash del contenido en el nombre, así que el
+// contenido de una de esas URLs no cambia nunca: el navegador puede
+// guardarla un año sin volver a preguntar al servidor.
+@Configuration
+public class RecursosEstaticosConfig implements WebMvcConfigurer {
+
+    // Nombre con el hash MD5 que añade la estrategia de versión por contenido
+    private static final Pattern CON_HASH = Pattern.compile(".*-[0-9a-f]{32}\\.[^/]+$");
+    private static final String CACHE_INMUTABLE = "public, max-age=31536000, immutable";
+
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        registry.addInterceptor(new HandlerInterceptor() {
+            @Override
+            public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+                if (CON_HASH.matcher(request.getRequestURI()).matches()) {
+                    response.setHeader(HttpHeaders.CACHE_CONTROL, CACHE_INMUTABLE);
+                }
+                return true;
+            }
+        }).addPathPatterns("/css/**", "/js/**");
+    }
+}
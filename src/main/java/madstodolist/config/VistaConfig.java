@@ -0,0 +1,20 @@
+package madstodolist.config;
+
+import madstodolist.controller.CacheNavbar;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+@Configuration
+public class VistaConfig implements WebMvcConfigurer {
+
+    @Autowired
+    private CacheNavbar cacheNavbar;
+
+    // Añade la barra de navegación al modelo de las páginas HTML
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        registry.addInterceptor(cacheNavbar).excludePathPatterns("/api/**", "/css/**", "/js/**");
+    }
+}
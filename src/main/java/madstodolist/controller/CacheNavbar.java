@@ -0,0 +1,165 @@
+package madstodolist.controller;
+
+import madstodolist.authentication.ManagerUserSession;
+import madstodolist.dto.UsuarioData;
+import madstodolist.service.UsuarioService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.stereotype.Component;
+import org.springframework.util.DigestUtils;
+import org.springframework.util.StreamUtils;
+import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.servlet.ModelAndView;
+import org.thymeleaf.context.WebContext;
+import org.thymeleaf.spring5.ISpringTemplateEngine;
+
+import javax.annotation.PostConstruct;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Caché del HTML de la barra de navegación. Todas las páginas la muestran y
+// para la del usuario logeado hacía falta cargar sus datos de la BD en cada
+// petición. Aquí se guarda, por usuario, el UsuarioData y el HTML ya
+// generado, y se añade al modelo de cada página en el atributo "navbar".
+//
+// Las entradas llevan la versión (hash) de navbar.html con la que se
+// generaron. Se descarta la entrada de un usuario con invalida() cuando
+// cambian sus datos. Si Thymeleaf no guarda las plantillas en caché
+// (desarrollo) o vista.cache-fragmentos=false, la barra se genera siempre.
+@Component
+public class CacheNavbar implements HandlerInterceptor {
+
+    static final String ATRIBUTO = "navbar";
+    private static final String PLANTILLA = "navbar";
+
+    @Autowired
+    private ManagerUserSession managerUserSession;
+
+    @Autowired
+    private UsuarioService usuarioService;
+
+    @Autowired
+    private ISpringTemplateEngine templateEngine;
+
+    @Value("${vista.cache-fragmentos:true}")
+    private boolean cacheFragmentos;
+
+    @Value("${spring.thymeleaf.cache:true}")
+    private boolean cachePlantillas;
+
+    @Value("${vista.cache-fragmentos.max-entradas:10000}")
+    private int maxEntradas;
+
+    private final Map<Long, Entrada> entradas = new ConcurrentHashMap<>();
+    private volatile Entrada invitado;
+    private String versionPlantilla;
+
+    @PostConstruct
+    void calculaVersionPlantilla() throws IOException {
+        try (InputStream plantilla = new ClassPathResource("templates/" + PLANTILLA + ".html").getInputStream()) {
+            versionPlantilla = DigestUtils.md5DigestAsHex(StreamUtils.copyToByteArray(plantilla));
+        }
+    }
+
+    // Datos del usuario para el modelo de la página, sin ir a la BD si ya
+    // están en la caché
+    public UsuarioData usuario(Long idUsuario) {
+        return entrada(idUsuario, null).usuario;
+    }
+
+    public void invalida(Long idUsuario) {
+        entradas.remove(idUsuario);
+    }
+
+    @Override
+    public void postHandle(HttpServletRequest request, HttpServletResponse response, Object handler,
+                           ModelAndView modelAndView) {
+        if (modelAndView == null || modelAndView.getViewName() == null) {
+            return;
+        }
+        String vista = modelAndView.getViewName();
+        // Ni redirecciones ni fragmentos sueltos (filas del listado)
+        if (vista.startsWith("redirect:") || vista.contains("::")) {
+            return;
+        }
+        Long idUsuario = managerUserSession.usuarioLogeado();
+        Entrada entrada;
+        String fragmento;
+        if (idUsuario == null) {
+            entrada = invitado;
+            if (entrada == null || !versionPlantilla.equals(entrada.version)) {
+                entrada = new Entrada(null, versionPlantilla);
+                if (habilitada()) {
+                    invitado = entrada;
+                }
+            }
+            fragmento = "navbar-guest";
+        } else {
+            Object usuario = modelAndView.getModel().get("usuario");
+            entrada = entrada(idUsuario, usuario instanceof UsuarioData ? (UsuarioData) usuario : null);
+            fragmento = "navbar-authenticated";
+        }
+        String html = entrada.html;
+        if (html == null) {
+            html = renderiza(fragmento, entrada.usuario, request, response);
+            entrada.html = html;
+        }
+        modelAndView.addObject(ATRIBUTO, html);
+    }
+
+    private Entrada entrada(Long idUsuario, UsuarioData delModelo) {
+        Entrada entrada = entradas.get(idUsuario);
+        if (entrada != null && versionPlantilla.equals(entrada.version)) {
+            return entrada;
+        }
+        UsuarioData usuario = delModelo != null && idUsuario.equals(delModelo.getId())
+                ? delModelo : usuarioService.findById(idUsuario);
+        entrada = new Entrada(usuario, versionPlantilla);
+        if (habilitada() && usuario != null) {
+            // Rara vez se llega al máximo: se empieza de cero en lugar de
+            // llevar la cuenta de qué entradas se han usado menos
+            if (entradas.size() >= maxEntradas) {
+                entradas.clear();
+            }
+            entradas.put(idUsuario, entrada);
+        }
+        return entrada;
+    }
+
+    private boolean habilitada() {
+        return cacheFragmentos && cachePlantillas;
+    }
+
+    private String renderiza(String fragmento, UsuarioData usuario,
+                             HttpServletRequest request, HttpServletResponse response) {
+        // El HTML se comparte entre peticiones: los enlaces no deben llevar
+        // el id de sesión que añade encodeURL cuando no hay cookies
+        HttpServletResponse sinSesion = new HttpServletResponseWrapper(response) {
+            @Override
+            public String encodeURL(String url) {
+                return url;
+            }
+        };
+        WebContext contexto = new WebContext(request, sinSesion, request.getServletContext(), request.getLocale());
+        contexto.setVariable("usuario", usuario);
+        return templateEngine.process(PLANTILLA, Collections.singleton(fragmento), contexto);
+    }
+
+    private static final class Entrada {
+        private final UsuarioData usuario;
+        private final String version;
+        private volatile String html;
+
+        Entrada(UsuarioData usuario, String version) {
+            this.usuario = usuario;
+            this.version = version;
+        }
+    }
+}
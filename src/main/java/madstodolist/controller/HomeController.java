@@ -1,6 +1,7 @@
 package madstodolist.controller;
 
 import madstodolist.authentication.ManagerUserSession;
+import madstodolist.controller.exception.UsuarioNoLogeadoException;
 import madstodolist.dto.UsuarioData;
 import madstodolist.model.Usuario;
 import madstodolist.repository.UsuarioRepository;
@@ -9,6 +10,9 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.servlet.mvc.support.RedirectAttributes;
 
 import java.util.List;
 import java.util.stream.Collectors;
@@ -20,11 +24,14 @@ public class HomeController {
     @Autowired
     private ManagerUserSession managerUserSession;
 
+    @Autowired
+    private UsuarioRepository usuarioRepository;
+
     @Autowired
     private UsuarioService usuarioService;
 
     @Autowired
-    private UsuarioRepository usuarioRepository;
+    private CacheNavbar cacheNavbar;
 
     @GetMapping("/about")
     public String about(Model model) {
@@ -44,6 +51,21 @@ public class HomeController {
         return "redirect:/usuarios/" + idUsuarioLogeado + "/tareas";
     }
 
+    // Baja de la cuenta desde el menú de la barra de navegación. Se cierra
+    // la sesión enseguida; las tareas se borran después en segundo plano.
+    @PostMapping("/usuarios/{id}/baja")
+    public String darDeBaja(@PathVariable("id") Long idUsuario, RedirectAttributes flash) {
+        Long idUsuarioLogeado = managerUserSession.usuarioLogeado();
+        if (!idUsuario.equals(idUsuarioLogeado)) {
+            throw new UsuarioNoLogeadoException();
+        }
+        usuarioService.darDeBaja(idUsuario);
+        cacheNavbar.invalida(idUsuario);
+        managerUserSession.logout();
+        flash.addFlashAttribute("mensaje", "Cuenta eliminada");
+        return "redirect:/login";
+    }
+
     @GetMapping("/registrados")
     public String listarUsuarios(Model model) {
         Long idUsuarioLogeado = managerUserSession.usuarioLogeado();
@@ -63,7 +85,7 @@ public class HomeController {
 
     private void prepararModeloAutenticacion(Model model, Long idUsuarioLogeado) {
         if (idUsuarioLogeado != null) {
-            UsuarioData usuario = usuarioService.findById(idUsuarioLogeado);
+            UsuarioData usuario = cacheNavbar.usuario(idUsuarioLogeado);
             model.addAttribute("usuario", usuario);
             model.addAttribute("isAuthenticated", true);
         } else {
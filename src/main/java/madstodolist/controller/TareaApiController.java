@@ -0,0 +1,415 @@
+package madstodolist.controller;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import madstodolist.authentication.ManagerUserSession;
+import madstodolist.busqueda.AutocompletadoTitulos;
+import madstodolist.busqueda.IndiceBusquedaTareas;
+import madstodolist.controller.exception.ClaveIdempotenciaConflictoException;
+import madstodolist.controller.exception.TareaConflictoException;
+import madstodolist.controller.exception.TareaDatosIncorrectosException;
+import madstodolist.controller.exception.TareaNotFoundException;
+import madstodolist.controller.exception.UsuarioNoLogeadoException;
+import madstodolist.dto.CambiosTareasData;
+import madstodolist.dto.BajaUsuarioData;
+import madstodolist.dto.CoincidenciaTareaData;
+import madstodolist.dto.TareaData;
+import madstodolist.service.ClaveIdempotenciaReutilizadaException;
+import madstodolist.service.ArchivoTareas;
+import madstodolist.service.FormatoTareas;
+import madstodolist.service.ImportadorTareas;
+import madstodolist.service.PropietariosTareas;
+import madstodolist.service.RegistroIdempotencia;
+import madstodolist.service.TareaConflictoVersionException;
+import madstodolist.service.TareaService;
+import madstodolist.service.TareaServiceException;
+import madstodolist.service.UsuarioService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.NativeWebRequest;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.context.request.async.AsyncWebRequest;
+import org.springframework.web.context.request.async.CallableProcessingInterceptor;
+import org.springframework.web.context.request.async.WebAsyncUtils;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+
+// API JSON de tareas. Las lecturas devuelven un CompletableFuture: la
+// consulta a la BD se ejecuta en el pool lecturasExecutor y el hilo de
+// Tomcat queda libre mientras tanto.
+@RestController
+@RequestMapping("/api")
+public class TareaApiController {
+
+    static final int MAX_IDS_PETICION = 10000;
+    static final int MAX_RESULTADOS_BUSQUEDA = 100;
+    static final int MAX_RESULTADOS_ARCHIVO = 500;
+
+    @Autowired
+    private TareaService tareaService;
+
+    @Autowired
+    private ManagerUserSession managerUserSession;
+
+    @Autowired
+    @Qualifier("lecturasExecutor")
+    private AsyncTaskExecutor lecturasExecutor;
+
+    @Autowired
+    private ImportadorTareas importadorTareas;
+
+    @Autowired
+    private RegistroIdempotencia registroIdempotencia;
+
+    @Autowired
+    private IndiceBusquedaTareas indiceBusquedaTareas;
+
+    // Timeout propio de la exportación: el asíncrono por defecto (unos 30 s)
+    // cortaría a mitad la descarga de los usuarios con muchas tareas
+    @Value("${exportacion.timeout-ms:3600000}")
+    private long timeoutExportacion;
+
+    @Autowired
+    private AutocompletadoTitulos autocompletadoTitulos;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private PropietariosTareas propietariosTareas;
+
+    @Autowired
+    private UsuarioService usuarioService;
+
+    @Autowired
+    private CacheNavbar cacheNavbar;
+
+    @Autowired
+    private ArchivoTareas archivoTareas;
+
+    // La sesión sólo es accesible desde el hilo de la petición, por lo que
+    // la autorización se hace siempre antes de pasar al pool de lecturas.
+    // Una cuenta dada de baja pierde el acceso aunque su sesión siga abierta
+    // (se comprueba en memoria, sin consultar la BD).
+    private void verificarAccesoUsuario(Long idUsuario) {
+        verificarSesionUsuario(idUsuario);
+        if (usuarioService.estaDadoDeBaja(idUsuario)) {
+            throw new UsuarioNoLogeadoException();
+        }
+    }
+
+    private void verificarSesionUsuario(Long idUsuario) {
+        Long idLogeado = managerUserSession.usuarioLogeado();
+        if (!idUsuario.equals(idLogeado)) {
+            throw new UsuarioNoLogeadoException();
+        }
+    }
+
+    private void verificarTareaDelUsuario(Long idUsuario, Long idTarea) {
+        if (!propietariosTareas.esPropietario(idUsuario, idTarea))
+            throw new TareaNotFoundException();
+    }
+
+    private static FormatoTareas formato(String nombre) {
+        try {
+            return FormatoTareas.de(nombre);
+        } catch (TareaServiceException e) {
+            throw new TareaDatosIncorrectosException();
+        }
+    }
+
+    private static void validarTitulo(TareaData tareaData) {
+        if (tareaData == null || tareaData.getTitulo() == null || tareaData.getTitulo().trim().isEmpty())
+            throw new TareaDatosIncorrectosException();
+    }
+
+    // El ETag se calcula a partir de la versión de la lista de tareas del
+    // usuario. Si el cliente ya tiene esa versión se responde 304 sin
+    // consultar ni serializar las tareas.
+    @GetMapping("/usuarios/{id}/tareas")
+    public CompletableFuture<List<TareaData>> listarTareasUsuario(@PathVariable("id") Long idUsuario,
+            WebRequest request, HttpServletResponse response) {
+        verificarAccesoUsuario(idUsuario);
+        Long version = tareaService.versionTareasUsuario(idUsuario);
+        if (version == null)
+            throw new UsuarioNoLogeadoException();
+
+        // El cliente puede guardar la respuesta pero debe revalidarla siempre
+        response.setHeader(HttpHeaders.CACHE_CONTROL, CacheControl.noCache().cachePrivate().getHeaderValue());
+        if (request.checkNotModified("\"" + idUsuario + "-" + version + "\"")) {
+            return null;
+        }
+        return CompletableFuture.supplyAsync(() -> tareaService.allTareasUsuario(idUsuario), lecturasExecutor);
+    }
+
+    // Varias tareas concretas en una sola petición: /tareas?ids=1,2,3
+    @GetMapping(value = "/usuarios/{id}/tareas", params = "ids")
+    public CompletableFuture<List<TareaData>> obtenerTareas(@PathVariable("id") Long idUsuario,
+            @RequestParam("ids") List<Long> ids) {
+        verificarAccesoUsuario(idUsuario);
+        if (ids.size() > MAX_IDS_PETICION)
+            throw new TareaDatosIncorrectosException();
+        return CompletableFuture.supplyAsync(() -> tareaService.tareasUsuarioPorIds(idUsuario, ids), lecturasExecutor);
+    }
+
+    // Búsqueda por título en el índice en memoria, sin consultar la BD. La
+    // respuesta es síncrona porque no hay nada que esperar.
+    @GetMapping("/usuarios/{id}/tareas/buscar")
+    public List<CoincidenciaTareaData> buscarTareas(@PathVariable("id") Long idUsuario,
+            @RequestParam("q") String consulta,
+            @RequestParam(value = "max", defaultValue = "20") int maximo) {
+        verificarAccesoUsuario(idUsuario);
+        return indiceBusquedaTareas.busca(idUsuario, consulta, Math.min(maximo, MAX_RESULTADOS_BUSQUEDA));
+    }
+
+    // Títulos ya usados por el usuario que empiezan por el prefijo, para
+    // autocompletar el formulario de nueva tarea
+    @GetMapping("/usuarios/{id}/tareas/sugerencias")
+    public List<String> sugerenciasTitulo(@PathVariable("id") Long idUsuario,
+            @RequestParam("prefijo") String prefijo,
+            @RequestParam(value = "max", defaultValue = "8") int maximo) {
+        verificarAccesoUsuario(idUsuario);
+        return autocompletadoTitulos.sugiere(idUsuario, prefijo, Math.min(maximo, MAX_RESULTADOS_BUSQUEDA));
+    }
+
+    // Baja de la cuenta. Se responde 202 en cuanto el usuario queda
+    // desactivado; el avance del borrado de sus tareas se consulta en
+    // GET /usuarios/{id}/baja
+    @DeleteMapping("/usuarios/{id}")
+    public ResponseEntity<BajaUsuarioData> darDeBaja(@PathVariable("id") Long idUsuario) {
+        verificarAccesoUsuario(idUsuario);
+        usuarioService.darDeBaja(idUsuario);
+        cacheNavbar.invalida(idUsuario);
+        return ResponseEntity.accepted()
+                .location(URI.create("/api/usuarios/" + idUsuario + "/baja"))
+                .body(usuarioService.estadoBaja(idUsuario));
+    }
+
+    @GetMapping("/usuarios/{id}/baja")
+    public BajaUsuarioData estadoBaja(@PathVariable("id") Long idUsuario) {
+        // El avance de la baja se puede seguir consultando tras pedirla
+        verificarSesionUsuario(idUsuario);
+        return usuarioService.estadoBaja(idUsuario);
+    }
+
+    // Sincronización incremental para clientes con copia local de las
+    // tareas: devuelve lo que ha cambiado desde la secuencia "desde" (0 para
+    // la primera sincronización) y la nueva secuencia a usar como cursor
+    @GetMapping("/usuarios/{id}/tareas/cambios")
+    public CompletableFuture<CambiosTareasData> cambiosTareas(@PathVariable("id") Long idUsuario,
+            @RequestParam(value = "desde", defaultValue = "0") long desde) {
+        verificarAccesoUsuario(idUsuario);
+        return CompletableFuture.supplyAsync(() -> tareaService.cambiosTareasUsuario(idUsuario, desde), lecturasExecutor);
+    }
+
+    // Tareas completadas antiguas que ya no están en la tabla de tareas,
+    // leídas de los ficheros del archivo. Se devuelven por páginas, las
+    // últimas archivadas primero.
+    @GetMapping("/usuarios/{id}/tareas/archivadas")
+    public CompletableFuture<List<TareaData>> listarTareasArchivadas(@PathVariable("id") Long idUsuario,
+            @RequestParam(value = "pagina", defaultValue = "0") int pagina,
+            @RequestParam(value = "max", defaultValue = "50") int maximo) {
+        verificarAccesoUsuario(idUsuario);
+        int tamanoPagina = Math.min(maximo, MAX_RESULTADOS_ARCHIVO);
+        return CompletableFuture.supplyAsync(
+                () -> archivoTareas.tareasArchivadas(idUsuario, pagina, tamanoPagina), lecturasExecutor);
+    }
+
+    @PostMapping("/usuarios/{id}/tareas/archivadas/{idTarea}/restaurar")
+    public ResponseEntity<TareaData> restaurarTarea(@PathVariable("id") Long idUsuario,
+            @PathVariable("idTarea") Long idTarea) {
+        verificarAccesoUsuario(idUsuario);
+        TareaData tarea;
+        try {
+            tarea = archivoTareas.restaura(idUsuario, idTarea);
+        } catch (TareaServiceException e) {
+            throw new TareaNotFoundException();
+        }
+        return ResponseEntity.created(URI.create("/api/usuarios/" + idUsuario + "/tareas/" + idTarea)).body(tarea);
+    }
+
+    @GetMapping("/usuarios/{id}/tareas/{idTarea}")
+    public CompletableFuture<TareaData> obtenerTarea(@PathVariable("id") Long idUsuario,
+            @PathVariable("idTarea") Long idTarea) {
+        verificarAccesoUsuario(idUsuario);
+        // El mapa de propietarios no necesita la sesión: se comprueba en el
+        // pool, igual que la lectura, para responder siempre de forma asíncrona
+        return CompletableFuture.supplyAsync(() -> {
+            verificarTareaDelUsuario(idUsuario, idTarea);
+            TareaData tarea = tareaService.findById(idTarea);
+            if (tarea == null)
+                throw new TareaNotFoundException();
+            return tarea;
+        }, lecturasExecutor);
+    }
+
+    // Exportación completa de las tareas del usuario. Las filas se escriben en
+    // la respuesta según se leen del cursor de la BD, sin construir la lista.
+    @GetMapping("/usuarios/{id}/tareas/exportar")
+    public ResponseEntity<StreamingResponseBody> exportarTareas(@PathVariable("id") Long idUsuario,
+            @RequestParam(value = "formato", defaultValue = "ndjson") String nombreFormato,
+            HttpServletRequest request) {
+        verificarAccesoUsuario(idUsuario);
+        FormatoTareas formato = formato(nombreFormato);
+        // El StreamingResponseBody no admite un timeout propio; se fija en la
+        // petición asíncrona justo antes de que empiece
+        WebAsyncUtils.getAsyncManager(request).registerCallableInterceptor("timeoutExportacion",
+                new CallableProcessingInterceptor() {
+                    @Override
+                    public <T> void beforeConcurrentHandling(NativeWebRequest peticion, Callable<T> tarea) {
+                        ((AsyncWebRequest) peticion).setTimeout(timeoutExportacion);
+                    }
+                });
+
+        StreamingResponseBody cuerpo = salida -> {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(salida, StandardCharsets.UTF_8));
+            writer.write(formato.cabecera());
+            try {
+                tareaService.recorreTareasUsuario(idUsuario, tarea -> {
+                    try {
+                        writer.write(formato.linea(tarea, objectMapper));
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            writer.flush();
+        };
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType(formato.getTipoContenido() + ";charset=UTF-8"))
+                .header(HttpHeaders.CONTENT_DISPOSITION,
+                        "attachment; filename=\"tareas-" + idUsuario + "." + formato.getExtension() + "\"")
+                .body(cuerpo);
+    }
+
+    // Importación masiva. El cuerpo de la petición es el fichero CSV o NDJSON
+    // y se procesa según llega. La respuesta es un flujo NDJSON con una línea
+    // por cada registro erróneo y otra de progreso por cada lote guardado;
+    // la última línea de progreso tiene los totales.
+    @PostMapping("/usuarios/{id}/tareas/importar")
+    public void importarTareas(@PathVariable("id") Long idUsuario,
+            @RequestParam(value = "formato", defaultValue = "ndjson") String nombreFormato,
+            HttpServletRequest request, HttpServletResponse response) throws IOException {
+        verificarAccesoUsuario(idUsuario);
+        FormatoTareas formato = formato(nombreFormato);
+
+        BufferedReader reader = new BufferedReader(new InputStreamReader(request.getInputStream(), StandardCharsets.UTF_8));
+        response.setContentType("application/x-ndjson;charset=UTF-8");
+        Writer writer = response.getWriter();
+        try {
+            importadorTareas.importa(idUsuario, formato, reader, new ImportadorTareas.Observador() {
+                @Override
+                public void error(long registro, String mensaje) {
+                    escribe(writer, "{\"tipo\":\"error\",\"registro\":" + registro
+                            + ",\"mensaje\":" + aJson(mensaje) + "}\n", false);
+                }
+
+                @Override
+                public void progreso(long procesados, long importados, long errores) {
+                    escribe(writer, "{\"tipo\":\"progreso\",\"procesados\":" + procesados
+                            + ",\"importados\":" + importados + ",\"errores\":" + errores + "}\n", true);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } catch (TareaServiceException e) {
+            // Sólo puede ocurrir antes de escribir nada en la respuesta
+            throw new TareaDatosIncorrectosException();
+        }
+    }
+
+    private static void escribe(Writer writer, String linea, boolean vaciar) {
+        try {
+            writer.write(linea);
+            if (vaciar) {
+                writer.flush();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private String aJson(String texto) {
+        try {
+            return objectMapper.writeValueAsString(texto);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Si la petición lleva Idempotency-Key, los reintentos con la misma clave
+    // devuelven la tarea creada la primera vez en lugar de crear otra. La
+    // misma clave con otro título se rechaza con 422.
+    @PostMapping("/usuarios/{id}/tareas")
+    public ResponseEntity<TareaData> crearTarea(@PathVariable("id") Long idUsuario,
+            @RequestBody TareaData tareaData,
+            @RequestHeader(value = TareaController.CABECERA_IDEMPOTENCIA, required = false) String claveIdempotencia) {
+        verificarAccesoUsuario(idUsuario);
+        validarTitulo(tareaData);
+        TareaData tarea;
+        try {
+            tarea = registroIdempotencia.ejecuta(idUsuario, claveIdempotencia, tareaData.getTitulo(),
+                    () -> tareaService.nuevaTareaUsuario(idUsuario, tareaData.getTitulo()));
+        } catch (ClaveIdempotenciaReutilizadaException e) {
+            throw new ClaveIdempotenciaConflictoException();
+        }
+        return ResponseEntity.created(URI.create("/api/usuarios/" + idUsuario + "/tareas/" + tarea.getId()))
+                .body(tarea);
+    }
+
+    // Con "version" en el cuerpo la modificación es condicional y devuelve
+    // 409 si la tarea ha cambiado desde que el cliente la leyó
+    @PutMapping("/usuarios/{id}/tareas/{idTarea}")
+    public TareaData modificarTarea(@PathVariable("id") Long idUsuario,
+            @PathVariable("idTarea") Long idTarea,
+            @RequestBody TareaData tareaData) {
+        verificarAccesoUsuario(idUsuario);
+        validarTitulo(tareaData);
+        try {
+            if (tareaData.getVersion() == null) {
+                verificarTareaDelUsuario(idUsuario, idTarea);
+                return tareaService.modificaTarea(idTarea, tareaData.getTitulo());
+            }
+            return tareaService.modificaTarea(idUsuario, idTarea, tareaData.getTitulo(), tareaData.getVersion());
+        } catch (TareaConflictoVersionException e) {
+            throw new TareaConflictoException();
+        } catch (TareaServiceException e) {
+            throw new TareaNotFoundException();
+        }
+    }
+
+    @DeleteMapping("/usuarios/{id}/tareas/{idTarea}")
+    public ResponseEntity<Void> borrarTarea(@PathVariable("id") Long idUsuario,
+            @PathVariable("idTarea") Long idTarea) {
+        verificarAccesoUsuario(idUsuario);
+        verificarTareaDelUsuario(idUsuario, idTarea);
+        try {
+            tareaService.borraTarea(idTarea);
+        } catch (TareaServiceException e) {
+            throw new TareaNotFoundException();
+        }
+        return ResponseEntity.noContent().build();
+    }
+}
@@ -1,24 +1,53 @@
 package madstodolist.controller;
 
 import madstodolist.authentication.ManagerUserSession;
+import madstodolist.controller.exception.ClaveIdempotenciaConflictoException;
+import madstodolist.controller.exception.TareaConflictoException;
+import madstodolist.controller.exception.TareaDatosIncorrectosException;
 import madstodolist.controller.exception.UsuarioNoLogeadoException;
 import madstodolist.controller.exception.TareaNotFoundException;
 import madstodolist.dto.TareaData;
 import madstodolist.dto.UsuarioData;
+import madstodolist.eventos.SuscripcionesTareas;
+import madstodolist.model.EstadoTarea;
+import madstodolist.service.ClaveIdempotenciaReutilizadaException;
+import madstodolist.service.PropietariosTareas;
+import madstodolist.service.RegistroIdempotencia;
+import madstodolist.service.TareaConflictoVersionException;
 import madstodolist.service.TareaService;
+import madstodolist.service.TareaServiceException;
 import madstodolist.service.UsuarioService;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
+import org.springframework.http.MediaType;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 import org.springframework.web.servlet.mvc.support.RedirectAttributes;
 
+import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpSession;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Collections;
 import java.util.List;
+import java.util.UUID;
 
 @Controller
 public class TareaController {
 
+    // Las peticiones hechas con fetch desde listaTareas.html llevan esta
+    // cabecera y reciben sólo el fragmento HTML de la fila afectada
+    static final String CABECERA_FRAGMENTO = "X-Requested-With=XMLHttpRequest";
+    static final String FRAGMENTO_FILA = "listaTareas :: fila";
+
+    // Los formularios de nueva tarea llevan una clave de idempotencia
+    // generada al mostrarlos; los clientes de la API la envían en la cabecera
+    static final String CABECERA_IDEMPOTENCIA = "Idempotency-Key";
+    static final String PARAMETRO_IDEMPOTENCIA = "claveIdempotencia";
+
     @Autowired
     private UsuarioService usuarioService;
 
@@ -28,11 +57,74 @@ public class TareaController {
     @Autowired
     private ManagerUserSession managerUserSession;
 
+    @Autowired
+    private SuscripcionesTareas suscripcionesTareas;
+
+    @Autowired
+    private RegistroIdempotencia registroIdempotencia;
+
+    @Autowired
+    private PropietariosTareas propietariosTareas;
+
+    // Generar el listado a medida que se leen las tareas en lugar de
+    // cargarlas todas antes de empezar (ver listarTareasUsuario)
+    @Value("${listado.por-bloques:true}")
+    private boolean listadoPorBloques;
+
+    // Si la cuenta se ha dado de baja (por ejemplo desde la API) se cierra
+    // la sesión que siguiera abierta
     private void verificarAccesoUsuario(Long idUsuario) {
         Long idLogeado = managerUserSession.usuarioLogeado();
         if (!idUsuario.equals(idLogeado)) {
             throw new UsuarioNoLogeadoException();
         }
+        if (usuarioService.estaDadoDeBaja(idUsuario)) {
+            managerUserSession.logout();
+            throw new UsuarioNoLogeadoException();
+        }
+    }
+
+    // Comprueba que la tarea es del usuario logeado sin cargarla de la BD y
+    // devuelve el id de su dueño
+    private Long verificarAccesoTarea(Long idTarea) {
+        Long idUsuario = propietariosTareas.propietario(idTarea);
+        if (idUsuario == null)
+            throw new TareaNotFoundException();
+        verificarAccesoUsuario(idUsuario);
+        return idUsuario;
+    }
+
+    private TareaData nuevaTareaIdempotente(Long idUsuario, String titulo, String cabecera, String parametro) {
+        String clave = cabecera != null ? cabecera : parametro;
+        try {
+            return registroIdempotencia.ejecuta(idUsuario, clave, titulo,
+                    () -> tareaService.nuevaTareaUsuario(idUsuario, titulo));
+        } catch (ClaveIdempotenciaReutilizadaException e) {
+            throw new ClaveIdempotenciaConflictoException();
+        }
+    }
+
+    // Si el formulario trae la versión leída, la modificación sólo se aplica
+    // si nadie ha cambiado la tarea desde entonces (409 en caso contrario)
+    private TareaData modificarTarea(Long idUsuario, Long idTarea, TareaData tareaData) {
+        try {
+            if (tareaData.getVersion() == null)
+                return tareaService.modificaTarea(idTarea, tareaData.getTitulo());
+            return tareaService.modificaTarea(idUsuario, idTarea, tareaData.getTitulo(), tareaData.getVersion());
+        } catch (TareaConflictoVersionException e) {
+            throw new TareaConflictoException();
+        } catch (TareaServiceException e) {
+            // Borrada después de comprobar el acceso
+            throw new TareaNotFoundException();
+        }
+    }
+
+    private TareaData modificarEstadoTarea(Long idTarea, EstadoTarea estado) {
+        try {
+            return tareaService.modificaEstadoTarea(idTarea, estado);
+        } catch (TareaServiceException e) {
+            throw new TareaNotFoundException();
+        }
     }
 
     @GetMapping("/tareas")
@@ -47,27 +139,111 @@ public class TareaController {
             Model model) {
         verificarAccesoUsuario(idUsuario);
         model.addAttribute("usuario", usuarioService.findById(idUsuario));
+        model.addAttribute(PARAMETRO_IDEMPOTENCIA, UUID.randomUUID().toString());
         return "formNuevaTarea";
     }
 
     @PostMapping("/usuarios/{id}/tareas/nueva")
     public String crearTarea(@PathVariable("id") Long idUsuario,
             @ModelAttribute TareaData tareaData,
+            @RequestHeader(value = CABECERA_IDEMPOTENCIA, required = false) String cabeceraIdempotencia,
+            @RequestParam(value = PARAMETRO_IDEMPOTENCIA, required = false) String claveIdempotencia,
             RedirectAttributes flash) {
         verificarAccesoUsuario(idUsuario);
-        tareaService.nuevaTareaUsuario(idUsuario, tareaData.getTitulo());
+        nuevaTareaIdempotente(idUsuario, tareaData.getTitulo(), cabeceraIdempotencia, claveIdempotencia);
         flash.addFlashAttribute("mensaje", "Tarea creada correctamente");
         return "redirect:/usuarios/" + idUsuario + "/tareas";
     }
 
+    // Variante para peticiones desde la página de listado: en lugar de
+    // redirigir al listado completo se devuelve sólo la fila de la nueva tarea
+    @PostMapping(value = "/usuarios/{id}/tareas/nueva", headers = CABECERA_FRAGMENTO)
+    public String crearTareaFragmento(@PathVariable("id") Long idUsuario,
+            @ModelAttribute TareaData tareaData,
+            @RequestHeader(value = CABECERA_IDEMPOTENCIA, required = false) String cabeceraIdempotencia,
+            @RequestParam(value = PARAMETRO_IDEMPOTENCIA, required = false) String claveIdempotencia,
+            Model model) {
+        verificarAccesoUsuario(idUsuario);
+        model.addAttribute("tarea",
+                nuevaTareaIdempotente(idUsuario, tareaData.getTitulo(), cabeceraIdempotencia, claveIdempotencia));
+        return FRAGMENTO_FILA;
+    }
+
+    // Filtro de estado del listado: "pendientes" (por defecto), "completadas"
+    // o "todas"
+    private static EstadoTarea estadoFiltro(String filtro) {
+        if ("todas".equals(filtro))
+            return null;
+        if ("completadas".equals(filtro))
+            return EstadoTarea.COMPLETADA;
+        return EstadoTarea.PENDIENTE;
+    }
+
+    // Orden del listado: "antiguas" (por defecto), "recientes" o "titulo"
+    private static Sort ordenListado(String orden) {
+        if ("recientes".equals(orden))
+            return Sort.by(Sort.Direction.DESC, "id");
+        if ("titulo".equals(orden))
+            return Sort.by("titulo").and(Sort.by("id"));
+        return Sort.by("id");
+    }
+
     @GetMapping("/usuarios/{id}/tareas")
-    public String listarTareasUsuario(@PathVariable("id") Long idUsuario, Model model) {
+    public String listarTareasUsuario(@PathVariable("id") Long idUsuario,
+            @RequestParam(value = "estado", defaultValue = "pendientes") String filtro,
+            @RequestParam(value = "orden", defaultValue = "antiguas") String orden,
+            Model model,
+            HttpServletResponse response) {
         verificarAccesoUsuario(idUsuario);
+        EstadoTarea estado = estadoFiltro(filtro);
         model.addAttribute("usuario", usuarioService.findById(idUsuario));
-        model.addAttribute("tareas", tareaService.allTareasUsuario(idUsuario));
+        // Por orden de id, las filas se leen de la BD por bloques mientras
+        // Thymeleaf genera la página, que se envía al cliente antes de leer
+        // cada bloque: el primer byte sale antes de la primera consulta de
+        // tareas y en memoria sólo hay un bloque. El orden por título
+        // necesita ordenar todas las tareas y se carga completo.
+        if (listadoPorBloques && !"titulo".equals(orden)) {
+            model.addAttribute("tareas", tareaService.tareasUsuarioPorBloques(idUsuario, estado,
+                    "recientes".equals(orden), () -> enviarGenerado(response)));
+        } else {
+            model.addAttribute("tareas", tareaService.tareasUsuario(idUsuario, estado, ordenListado(orden)));
+        }
+        model.addAttribute("filtroEstado",
+                estado == null ? "todas" : estado == EstadoTarea.COMPLETADA ? "completadas" : "pendientes");
+        model.addAttribute("orden", orden);
+        model.addAttribute(PARAMETRO_IDEMPOTENCIA, UUID.randomUUID().toString());
         return "listaTareas";
     }
 
+    private static void enviarGenerado(HttpServletResponse response) {
+        try {
+            response.flushBuffer();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Flujo de eventos (Server-Sent Events) con los cambios en las tareas
+    // del usuario, para actualizar el listado abierto en otras pestañas
+    @GetMapping(value = "/usuarios/{id}/tareas/eventos", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    @ResponseBody
+    public SseEmitter eventosTareasUsuario(@PathVariable("id") Long idUsuario) {
+        verificarAccesoUsuario(idUsuario);
+        return suscripcionesTareas.suscribe(idUsuario);
+    }
+
+    @GetMapping(value = "/tareas/{id}", headers = CABECERA_FRAGMENTO)
+    public String filaTarea(@PathVariable("id") Long idTarea, Model model) {
+        TareaData tarea = tareaService.findById(idTarea);
+        if (tarea == null)
+            throw new TareaNotFoundException();
+
+        verificarAccesoUsuario(tarea.getUsuarioId());
+
+        model.addAttribute("tarea", tarea);
+        return FRAGMENTO_FILA;
+    }
+
     @GetMapping("/tareas/{id}/editar")
     public String mostrarFormularioEditarTarea(@PathVariable("id") Long idTarea,
             @ModelAttribute TareaData tareaData,
@@ -81,6 +257,7 @@ public class TareaController {
         model.addAttribute("usuario", usuarioService.findById(tarea.getUsuarioId()));
         model.addAttribute("tarea", tarea);
         tareaData.setTitulo(tarea.getTitulo());
+        tareaData.setVersion(tarea.getVersion());
 
         return "formEditarTarea";
     }
@@ -89,26 +266,112 @@ public class TareaController {
     public String editarTarea(@PathVariable("id") Long idTarea,
             @ModelAttribute TareaData tareaData,
             RedirectAttributes flash) {
-        TareaData tarea = tareaService.findById(idTarea);
-        if (tarea == null)
+        Long idUsuario = verificarAccesoTarea(idTarea);
+
+        modificarTarea(idUsuario, idTarea, tareaData);
+        flash.addFlashAttribute("mensaje", "Tarea modificada correctamente");
+        return "redirect:/usuarios/" + idUsuario + "/tareas";
+    }
+
+    @PostMapping(value = "/tareas/{id}/editar", headers = CABECERA_FRAGMENTO)
+    public String editarTareaFragmento(@PathVariable("id") Long idTarea,
+            @ModelAttribute TareaData tareaData,
+            Model model) {
+        Long idUsuario = verificarAccesoTarea(idTarea);
+
+        model.addAttribute("tarea", modificarTarea(idUsuario, idTarea, tareaData));
+        return FRAGMENTO_FILA;
+    }
+
+    // Operaciones sobre varias tareas seleccionadas en el listado: "borrar"
+    // o "renombrar" (con el nuevo título). Todas las tareas deben ser del
+    // usuario; si alguna no lo es no se modifica ninguna.
+    private int aplicarLote(Long idUsuario, List<Long> ids, String operacion, String titulo) {
+        if ("renombrar".equals(operacion))
+            return renombrarLote(idUsuario, ids, titulo).size();
+        verificarLote(idUsuario, ids);
+        if (!"borrar".equals(operacion))
+            throw new TareaDatosIncorrectosException();
+        try {
+            return tareaService.borraTareas(idUsuario, ids);
+        } catch (TareaServiceException e) {
             throw new TareaNotFoundException();
+        }
+    }
 
-        verificarAccesoUsuario(tarea.getUsuarioId());
+    // Devuelve las tareas renombradas con su versión nueva
+    private List<TareaData> renombrarLote(Long idUsuario, List<Long> ids, String titulo) {
+        verificarLote(idUsuario, ids);
+        if (titulo == null || titulo.trim().isEmpty())
+            throw new TareaDatosIncorrectosException();
+        try {
+            return tareaService.modificaTituloTareas(idUsuario, ids, titulo);
+        } catch (TareaServiceException e) {
+            throw new TareaNotFoundException();
+        }
+    }
 
-        tareaService.modificaTarea(idTarea, tareaData.getTitulo());
-        flash.addFlashAttribute("mensaje", "Tarea modificada correctamente");
-        return "redirect:/usuarios/" + tarea.getUsuarioId() + "/tareas";
+    private void verificarLote(Long idUsuario, List<Long> ids) {
+        verificarAccesoUsuario(idUsuario);
+        if (ids == null || ids.isEmpty() || ids.size() > TareaService.MAX_TAREAS_LOTE)
+            throw new TareaDatosIncorrectosException();
+    }
+
+    @PostMapping("/usuarios/{id}/tareas/lote")
+    public String modificarTareasLote(@PathVariable("id") Long idUsuario,
+            @RequestParam(value = "ids", required = false) List<Long> ids,
+            @RequestParam("operacion") String operacion,
+            @RequestParam(value = "titulo", required = false) String titulo,
+            RedirectAttributes flash) {
+        int tareas = aplicarLote(idUsuario, ids, operacion, titulo);
+        flash.addFlashAttribute("mensaje", tareas + ("borrar".equals(operacion)
+                ? " tareas borradas correctamente" : " tareas modificadas correctamente"));
+        return "redirect:/usuarios/" + idUsuario + "/tareas";
+    }
+
+    @PostMapping(value = "/usuarios/{id}/tareas/lote", headers = CABECERA_FRAGMENTO)
+    @ResponseBody
+    public List<TareaData> modificarTareasLoteFragmento(@PathVariable("id") Long idUsuario,
+            @RequestParam(value = "ids", required = false) List<Long> ids,
+            @RequestParam("operacion") String operacion,
+            @RequestParam(value = "titulo", required = false) String titulo) {
+        if ("renombrar".equals(operacion))
+            return renombrarLote(idUsuario, ids, titulo);
+        aplicarLote(idUsuario, ids, operacion, titulo);
+        return Collections.emptyList();
+    }
+
+    @PostMapping("/tareas/{id}/estado")
+    public String cambiarEstadoTarea(@PathVariable("id") Long idTarea,
+            @RequestParam("estado") EstadoTarea estado,
+            RedirectAttributes flash) {
+        Long idUsuario = verificarAccesoTarea(idTarea);
+
+        modificarEstadoTarea(idTarea, estado);
+        flash.addFlashAttribute("mensaje", estado == EstadoTarea.COMPLETADA
+                ? "Tarea completada" : "Tarea marcada como pendiente");
+        return "redirect:/usuarios/" + idUsuario + "/tareas";
+    }
+
+    @PostMapping(value = "/tareas/{id}/estado", headers = CABECERA_FRAGMENTO)
+    public String cambiarEstadoTareaFragmento(@PathVariable("id") Long idTarea,
+            @RequestParam("estado") EstadoTarea estado,
+            Model model) {
+        verificarAccesoTarea(idTarea);
+
+        model.addAttribute("tarea", modificarEstadoTarea(idTarea, estado));
+        return FRAGMENTO_FILA;
     }
 
     @DeleteMapping("/tareas/{id}")
     @ResponseBody
     public String eliminarTarea(@PathVariable("id") Long idTarea) {
-        TareaData tarea = tareaService.findById(idTarea);
-        if (tarea == null)
+        verificarAccesoTarea(idTarea);
+        try {
+            tareaService.borraTarea(idTarea);
+        } catch (TareaServiceException e) {
             throw new TareaNotFoundException();
-
-        verificarAccesoUsuario(tarea.getUsuarioId());
-        tareaService.borraTarea(idTarea);
+        }
         return "";
     }
 }
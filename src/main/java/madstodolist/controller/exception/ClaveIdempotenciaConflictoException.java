@@ -0,0 +1,8 @@
+package madstodolist.controller.exception;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@ResponseStatus(value = HttpStatus.UNPROCESSABLE_ENTITY, reason="La clave de idempotencia ya se ha usado con otra petición")
+public class ClaveIdempotenciaConflictoException extends RuntimeException {
+}
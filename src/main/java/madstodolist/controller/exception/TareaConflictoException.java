@@ -0,0 +1,8 @@
+package madstodolist.controller.exception;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@ResponseStatus(value = HttpStatus.CONFLICT, reason="La tarea ha sido modificada por otro cliente")
+public class TareaConflictoException extends RuntimeException {
+}
@@ -0,0 +1,8 @@
+package madstodolist.controller.exception;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@ResponseStatus(value = HttpStatus.BAD_REQUEST, reason="Datos de la tarea incorrectos")
+public class TareaDatosIncorrectosException extends RuntimeException {
+}
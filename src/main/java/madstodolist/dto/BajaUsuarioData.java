@@ -0,0 +1,38 @@
+package madstodolist.dto;
+
+import java.io.Serializable;
+
+// Estado de la baja de una cuenta: mientras el usuario está desactivado sus
+// tareas se van borrando en segundo plano; al terminar se elimina el usuario
+public class BajaUsuarioData implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private boolean activo;
+    private long tareasPendientes;
+    private boolean terminada;
+
+    public boolean isActivo() {
+        return activo;
+    }
+
+    public void setActivo(boolean activo) {
+        this.activo = activo;
+    }
+
+    public long getTareasPendientes() {
+        return tareasPendientes;
+    }
+
+    public void setTareasPendientes(long tareasPendientes) {
+        this.tareasPendientes = tareasPendientes;
+    }
+
+    public boolean isTerminada() {
+        return terminada;
+    }
+
+    public void setTerminada(boolean terminada) {
+        this.terminada = terminada;
+    }
+}
@@ -0,0 +1,50 @@
+package madstodolist.dto;
+
+import java.io.Serializable;
+import java.util.List;
+
+// Respuesta de la sincronización por cambios de las tareas de un usuario
+public class CambiosTareasData implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    // Secuencia a usar como cursor en la siguiente sincronización
+    private long secuencia;
+    // Si es true, "tareas" contiene todas las tareas del usuario y el
+    // cliente debe descartar su copia local
+    private boolean completo;
+    private List<TareaData> tareas;
+    private List<Long> borradas;
+
+    public long getSecuencia() {
+        return secuencia;
+    }
+
+    public void setSecuencia(long secuencia) {
+        this.secuencia = secuencia;
+    }
+
+    public boolean isCompleto() {
+        return completo;
+    }
+
+    public void setCompleto(boolean completo) {
+        this.completo = completo;
+    }
+
+    public List<TareaData> getTareas() {
+        return tareas;
+    }
+
+    public void setTareas(List<TareaData> tareas) {
+        this.tareas = tareas;
+    }
+
+    public List<Long> getBorradas() {
+        return borradas;
+    }
+
+    public void setBorradas(List<Long> borradas) {
+        this.borradas = borradas;
+    }
+}
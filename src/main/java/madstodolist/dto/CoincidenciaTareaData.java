@@ -0,0 +1,45 @@
+package madstodolist.dto;
+
+import java.io.Serializable;
+
+// Resultado de una búsqueda de tareas por título
+public class CoincidenciaTareaData implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private Long id;
+    private String titulo;
+    private double puntuacion;
+
+    public CoincidenciaTareaData() {}
+
+    public CoincidenciaTareaData(Long id, String titulo, double puntuacion) {
+        this.id = id;
+        this.titulo = titulo;
+        this.puntuacion = puntuacion;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public String getTitulo() {
+        return titulo;
+    }
+
+    public void setTitulo(String titulo) {
+        this.titulo = titulo;
+    }
+
+    public double getPuntuacion() {
+        return puntuacion;
+    }
+
+    public void setPuntuacion(double puntuacion) {
+        this.puntuacion = puntuacion;
+    }
+}
@@ -1,6 +1,9 @@
 package madstodolist.dto;
 
+import madstodolist.model.EstadoTarea;
+
 import java.io.Serializable;
+import java.util.Date;
 import java.util.Objects;
 
 public class TareaData implements Serializable {
@@ -10,6 +13,11 @@ public class TareaData implements Serializable {
     private Long id;
     private String titulo;
     private Long usuarioId;
+    private Long version;
+    private EstadoTarea estado;
+    private Date fechaCreacion;
+    private Date fechaModificacion;
+    private Date fechaCompletada;
 
     public Long getId() {
         return id;
@@ -35,6 +43,50 @@ public class TareaData implements Serializable {
         this.usuarioId = usuarioId;
     }
 
+    public Long getVersion() {
+        return version;
+    }
+
+    public void setVersion(Long version) {
+        this.version = version;
+    }
+
+    public EstadoTarea getEstado() {
+        return estado;
+    }
+
+    public void setEstado(EstadoTarea estado) {
+        this.estado = estado;
+    }
+
+    public boolean isCompletada() {
+        return estado == EstadoTarea.COMPLETADA;
+    }
+
+    public Date getFechaCreacion() {
+        return fechaCreacion;
+    }
+
+    public void setFechaCreacion(Date fechaCreacion) {
+        this.fechaCreacion = fechaCreacion;
+    }
+
+    public Date getFechaModificacion() {
+        return fechaModificacion;
+    }
+
+    public void setFechaModificacion(Date fechaModificacion) {
+        this.fechaModificacion = fechaModificacion;
+    }
+
+    public Date getFechaCompletada() {
+        return fechaCompletada;
+    }
+
+    public void setFechaCompletada(Date fechaCompletada) {
+        this.fechaCompletada = fechaCompletada;
+    }
+
 
     @Override
     public boolean equals(Object o) {
@@ -0,0 +1,225 @@
+package madstodolist.eventos;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Reparte los eventos de tareas entre las conexiones SSE abiertas por
+// cada usuario.
+//
+// Cada suscriptor tiene una cola acotada. Los eventos se envían desde un
+// pool de hilos, de forma que una conexión inactiva no ocupa ningún hilo.
+// Las escrituras en la conexión son bloqueantes, así que un cliente que no
+// lee puede dejar un hilo parado dentro de un envío:
+//  - el pool crece hasta eventos.max-hilos-envio para que los envíos de los
+//    demás suscriptores no esperen detrás de ese hilo
+//  - si un envío lleva más de eventos.max-envio-ms se cierra esa conexión
+//    (se comprueba al encolar cada evento y con cada latido)
+//  - si la cola de un suscriptor se llena también se cierra su conexión
+// El navegador volverá a conectarse con EventSource.
+//
+// SseEmitter tiene su propio cerrojo durante toda la escritura y al
+// cerrarlo, así que cerrar una conexión atascada bloquea hasta que acaba el
+// envío en curso. Por eso los cierres se hacen en hilos aparte y nunca en
+// el de quien publica el evento o envía los latidos.
+@Component
+public class SuscripcionesTareas {
+
+    Logger logger = LoggerFactory.getLogger(SuscripcionesTareas.class);
+
+    // Marca que se encola para enviar un comentario de latido
+    private static final Object LATIDO = new Object();
+
+    private final Map<Long, Set<Suscriptor>> suscriptores = new ConcurrentHashMap<>();
+    private final ThreadPoolExecutor envios;
+    private final ExecutorService cierres =
+            Executors.newCachedThreadPool(new CustomizableThreadFactory("eventos-cierre-"));
+    private final int capacidadCola;
+    private final long timeoutMs;
+    private final long maxEnvioNanos;
+
+    public SuscripcionesTareas(@Value("${eventos.hilos-envio:2}") int hilosEnvio,
+                               @Value("${eventos.max-hilos-envio:32}") int maxHilosEnvio,
+                               @Value("${eventos.capacidad-cola:64}") int capacidadCola,
+                               @Value("${eventos.timeout-ms:1800000}") long timeoutMs,
+                               @Value("${eventos.max-envio-ms:5000}") long maxEnvioMs) {
+        // Sin cola de tareas: si todos los hilos están ocupados se crea otro
+        // (hasta el máximo) en lugar de esperar a que termine un envío lento
+        this.envios = new ThreadPoolExecutor(hilosEnvio, Math.max(hilosEnvio, maxHilosEnvio),
+                60, TimeUnit.SECONDS, new SynchronousQueue<>(), new CustomizableThreadFactory("eventos-"));
+        this.capacidadCola = capacidadCola;
+        this.timeoutMs = timeoutMs;
+        this.maxEnvioNanos = TimeUnit.MILLISECONDS.toNanos(maxEnvioMs);
+    }
+
+    public SseEmitter suscribe(Long usuarioId) {
+        SseEmitter emitter = creaEmitter(timeoutMs);
+        Suscriptor suscriptor = new Suscriptor(usuarioId, emitter);
+        suscriptores.computeIfAbsent(usuarioId, id -> ConcurrentHashMap.newKeySet()).add(suscriptor);
+        emitter.onCompletion(() -> elimina(suscriptor));
+        emitter.onTimeout(() -> elimina(suscriptor));
+        emitter.onError(e -> elimina(suscriptor));
+        logger.debug("Nueva suscripción a eventos de tareas del usuario " + usuarioId);
+        return emitter;
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void publica(TareaEvento evento) {
+        Set<Suscriptor> delUsuario = suscriptores.get(evento.getUsuarioId());
+        if (delUsuario != null) {
+            for (Suscriptor suscriptor : delUsuario) {
+                suscriptor.encola(evento);
+            }
+        }
+    }
+
+    // Los latidos mantienen abiertas las conexiones a través de proxies y
+    // permiten detectar y liberar las conexiones de clientes que ya no están
+    @Scheduled(fixedDelayString = "${eventos.latido-ms:20000}")
+    public void enviaLatidos() {
+        for (Set<Suscriptor> delUsuario : suscriptores.values()) {
+            for (Suscriptor suscriptor : delUsuario) {
+                suscriptor.encola(LATIDO);
+            }
+        }
+    }
+
+    public int numeroSuscriptores() {
+        return suscriptores.values().stream().mapToInt(Set::size).sum();
+    }
+
+    SseEmitter creaEmitter(long timeoutMs) {
+        return new SseEmitter(timeoutMs);
+    }
+
+    private void elimina(Suscriptor suscriptor) {
+        suscriptores.computeIfPresent(suscriptor.usuarioId, (id, delUsuario) -> {
+            delUsuario.remove(suscriptor);
+            return delUsuario.isEmpty() ? null : delUsuario;
+        });
+    }
+
+    @PreDestroy
+    public void cierra() {
+        envios.shutdownNow();
+        cierres.shutdownNow();
+    }
+
+    private class Suscriptor {
+        private final Long usuarioId;
+        private final SseEmitter emitter;
+        private final Queue<Object> cola = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger pendientes = new AtomicInteger();
+        private final AtomicBoolean enviando = new AtomicBoolean();
+        private final AtomicBoolean cerrado = new AtomicBoolean();
+        // Momento (System.nanoTime) en que empezó el envío en curso; null
+        // si no se está enviando nada
+        private volatile Long envioDesde;
+
+        Suscriptor(Long usuarioId, SseEmitter emitter) {
+            this.usuarioId = usuarioId;
+            this.emitter = emitter;
+        }
+
+        void encola(Object evento) {
+            if (cerrado.get()) {
+                return;
+            }
+            Long desde = envioDesde;
+            if (desde != null && System.nanoTime() - desde > maxEnvioNanos) {
+                cierraLento("lleva demasiado tiempo en un envío");
+                return;
+            }
+            if (pendientes.incrementAndGet() > capacidadCola) {
+                cierraLento("tiene la cola llena");
+                return;
+            }
+            cola.offer(evento);
+            programaEnvio();
+        }
+
+        private void cierraLento(String motivo) {
+            if (!cerrado.compareAndSet(false, true)) {
+                return;
+            }
+            logger.debug("Cerrando suscripción lenta del usuario " + usuarioId + ": " + motivo);
+            elimina(this);
+            cola.clear();
+            // El hilo que esté bloqueado en el envío queda libre cuando
+            // venza el timeout de escritura del servidor
+            IOException error = new IOException("Suscriptor lento: " + motivo);
+            try {
+                cierres.execute(() -> emitter.completeWithError(error));
+            } catch (RejectedExecutionException e) {
+                // Parando la aplicación
+            }
+        }
+
+        private void programaEnvio() {
+            if (enviando.compareAndSet(false, true)) {
+                try {
+                    envios.execute(this::envia);
+                } catch (RejectedExecutionException e) {
+                    // Todos los hilos están ocupados: los eventos siguen en
+                    // la cola y se vuelve a intentar con el siguiente
+                    enviando.set(false);
+                }
+            }
+        }
+
+        private void envia() {
+            try {
+                Object evento;
+                while (!cerrado.get() && (evento = cola.poll()) != null) {
+                    pendientes.decrementAndGet();
+                    envioDesde = System.nanoTime();
+                    if (evento == LATIDO) {
+                        emitter.send(SseEmitter.event().comment("latido"));
+                    } else {
+                        TareaEvento tareaEvento = (TareaEvento) evento;
+                        emitter.send(SseEmitter.event()
+                                .name(tareaEvento.getTipo().name())
+                                .data(tareaEvento, MediaType.APPLICATION_JSON));
+                    }
+                }
+            } catch (IOException | IllegalStateException e) {
+                // El cliente ha cerrado la conexión
+                if (cerrado.compareAndSet(false, true)) {
+                    elimina(this);
+                    cola.clear();
+                    emitter.completeWithError(e);
+                }
+                return;
+            } finally {
+                envioDesde = null;
+                enviando.set(false);
+            }
+            // Puede haber llegado un evento mientras terminábamos
+            if (!cerrado.get() && !cola.isEmpty()) {
+                programaEnvio();
+            }
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package madstodolist.eventos;
+
+import madstodolist.dto.TareaData;
+
+import java.util.Collections;
+import java.util.List;
+
+// Evento publicado por TareaService cada vez que cambia una tarea.
+// Los oyentes lo reciben cuando la transacción que hizo el cambio
+// se ha confirmado.
+public class TareaEvento {
+
+    // IMPORTADAS agrupa todas las tareas creadas en una importación masiva
+    // y PURGADAS indica que se han eliminado todas las tareas de un usuario
+    // dado de baja. Ninguno de los dos lleva el id ni los datos de una tarea.
+    // MODIFICADAS agrupa una modificación en lote y lleva los datos de todas
+    // las tareas modificadas en getTareas().
+    public enum Tipo {CREADA, MODIFICADA, BORRADA, IMPORTADAS, PURGADAS, MODIFICADAS}
+
+    private final Tipo tipo;
+    private final Long usuarioId;
+    private final Long tareaId;
+    // Datos de la tarea tras el cambio. Es null en los borrados y las importaciones.
+    private final TareaData tarea;
+    // Sólo en MODIFICADAS; vacía en el resto
+    private final List<TareaData> tareas;
+
+    private TareaEvento(Tipo tipo, Long usuarioId, Long tareaId, TareaData tarea) {
+        this(tipo, usuarioId, tareaId, tarea, Collections.emptyList());
+    }
+
+    private TareaEvento(Tipo tipo, Long usuarioId, Long tareaId, TareaData tarea, List<TareaData> tareas) {
+        this.tipo = tipo;
+        this.usuarioId = usuarioId;
+        this.tareaId = tareaId;
+        this.tarea = tarea;
+        this.tareas = tareas;
+    }
+
+    public static TareaEvento creada(TareaData tarea) {
+        return new TareaEvento(Tipo.CREADA, tarea.getUsuarioId(), tarea.getId(), tarea);
+    }
+
+    public static TareaEvento modificada(TareaData tarea) {
+        return new TareaEvento(Tipo.MODIFICADA, tarea.getUsuarioId(), tarea.getId(), tarea);
+    }
+
+    public static TareaEvento modificadas(Long usuarioId, List<TareaData> tareas) {
+        return new TareaEvento(Tipo.MODIFICADAS, usuarioId, null, null, Collections.unmodifiableList(tareas));
+    }
+
+    public static TareaEvento borrada(Long usuarioId, Long tareaId) {
+        return new TareaEvento(Tipo.BORRADA, usuarioId, tareaId, null);
+    }
+
+    public static TareaEvento importadas(Long usuarioId) {
+        return new TareaEvento(Tipo.IMPORTADAS, usuarioId, null, null);
+    }
+
+    public static TareaEvento purgadas(Long usuarioId) {
+        return new TareaEvento(Tipo.PURGADAS, usuarioId, null, null);
+    }
+
+    public Tipo getTipo() {
+        return tipo;
+    }
+
+    public Long getUsuarioId() {
+        return usuarioId;
+    }
+
+    public Long getTareaId() {
+        return tareaId;
+    }
+
+    public TareaData getTarea() {
+        return tarea;
+    }
+
+    public List<TareaData> getTareas() {
+        return tareas;
+    }
+}
@@ -0,0 +1,104 @@
+package madstodolist.filter;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Límite de concurrencia adaptativo basado en el gradiente de latencias.
+//
+// Se compara la latencia de cada petición con una media móvil de larga
+// duración. Si las peticiones empiezan a tardar más que la media (se están
+// formando colas en el pool de conexiones o en la BD) el límite baja; si la
+// latencia se mantiene estable, el límite sube poco a poco.
+//
+// Las lecturas sólo pueden ocupar una fracción del límite, de forma que ante
+// una sobrecarga se descartan antes que las modificaciones.
+public class LimitadorConcurrencia {
+
+    private final int limiteMinimo;
+    private final int limiteMaximo;
+    private final double fraccionLecturas;
+    private final double suavizado;
+    private final double tolerancia;
+    private final int ventanaRttLargo;
+
+    private final AtomicInteger enVuelo = new AtomicInteger();
+
+    // Estado del algoritmo, protegido por el monitor del objeto
+    private volatile double limite;
+    private double rttLargo;
+
+    public LimitadorConcurrencia(int limiteInicial, int limiteMinimo, int limiteMaximo, double fraccionLecturas) {
+        this(limiteInicial, limiteMinimo, limiteMaximo, fraccionLecturas, 0.2, 1.5, 600);
+    }
+
+    public LimitadorConcurrencia(int limiteInicial, int limiteMinimo, int limiteMaximo, double fraccionLecturas,
+                                 double suavizado, double tolerancia, int ventanaRttLargo) {
+        if (limiteMinimo < 1 || limiteMaximo < limiteMinimo)
+            throw new IllegalArgumentException("Límites de concurrencia incorrectos");
+        this.limiteMinimo = limiteMinimo;
+        this.limiteMaximo = limiteMaximo;
+        this.fraccionLecturas = fraccionLecturas;
+        this.suavizado = suavizado;
+        this.tolerancia = tolerancia;
+        this.ventanaRttLargo = ventanaRttLargo;
+        this.limite = Math.max(limiteMinimo, Math.min(limiteMaximo, limiteInicial));
+    }
+
+    // Intenta reservar un hueco para una petición. Devuelve el número de
+    // peticiones en vuelo en el momento de entrar (necesario para liberar)
+    // o -1 si la petición debe descartarse.
+    public int intentaAdquirir(boolean lectura) {
+        int limiteActual = (int) limite;
+        int umbral = lectura ? Math.max(1, (int) (limiteActual * fraccionLecturas)) : limiteActual;
+        while (true) {
+            int actual = enVuelo.get();
+            if (actual >= umbral) {
+                return -1;
+            }
+            if (enVuelo.compareAndSet(actual, actual + 1)) {
+                return actual + 1;
+            }
+        }
+    }
+
+    // Libera el hueco reservado. Si la petición ha terminado con error no se
+    // usa su latencia para ajustar el límite.
+    public void libera(int enVueloAlEntrar, long rttNanos, boolean descartarMuestra) {
+        enVuelo.decrementAndGet();
+        if (!descartarMuestra && rttNanos > 0) {
+            actualiza(enVueloAlEntrar, rttNanos);
+        }
+    }
+
+    private synchronized void actualiza(int enVueloAlEntrar, long rttNanos) {
+        double rtt = rttNanos;
+        if (rttLargo == 0) {
+            rttLargo = rtt;
+        } else {
+            rttLargo = rttLargo + (rtt - rttLargo) / ventanaRttLargo;
+        }
+
+        // Si la media larga se ha quedado muy por encima de la latencia actual
+        // (p. ej. tras un pico de carga) la hacemos converger más rápido
+        if (rttLargo / rtt > 2) {
+            rttLargo *= 0.95;
+        }
+
+        // Sin carga suficiente no tenemos información para subir el límite
+        if (enVueloAlEntrar < limite / 2) {
+            return;
+        }
+
+        double gradiente = Math.max(0.5, Math.min(1.0, tolerancia * rttLargo / rtt));
+        double nuevoLimite = limite * gradiente + Math.sqrt(limite);
+        nuevoLimite = limite * (1 - suavizado) + nuevoLimite * suavizado;
+        limite = Math.max(limiteMinimo, Math.min(limiteMaximo, nuevoLimite));
+    }
+
+    public int getLimite() {
+        return (int) limite;
+    }
+
+    public int getEnVuelo() {
+        return enVuelo.get();
+    }
+}
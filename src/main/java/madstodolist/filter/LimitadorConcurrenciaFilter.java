@@ -0,0 +1,136 @@
+package madstodolist.filter;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Pattern;
+
+// Filtro que aplica el LimitadorConcurrencia delante de los controllers.
+// Las peticiones que no caben se rechazan inmediatamente con un 503 y
+// la cabecera Retry-After, en lugar de quedarse esperando en un hilo de
+// Tomcat a que haya una conexión libre con la BD.
+public class LimitadorConcurrenciaFilter extends OncePerRequestFilter {
+
+    Logger logger = LoggerFactory.getLogger(LimitadorConcurrenciaFilter.class);
+
+    // GET /usuarios/{id}/tareas/eventos (TareaController.eventosTareasUsuario)
+    private static final Pattern RUTA_EVENTOS = Pattern.compile("/usuarios/[^/]+/tareas/eventos/?");
+    // GET /api/usuarios/{id}/tareas/exportar (TareaApiController.exportarTareas)
+    private static final Pattern RUTA_EXPORTACION = Pattern.compile("/api/usuarios/[^/]+/tareas/exportar/?");
+
+    private final LimitadorConcurrencia limitador;
+    private final int segundosReintento;
+
+    public LimitadorConcurrenciaFilter(LimitadorConcurrencia limitador, int segundosReintento) {
+        this.limitador = limitador;
+        this.segundosReintento = segundosReintento;
+    }
+
+    // Las conexiones de eventos (SSE) permanecen abiertas mucho tiempo sin
+    // usar la BD ni ningún hilo, así que no cuentan para el límite. Se
+    // reconocen por el método y la ruta, no por cabeceras que elige el cliente.
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        if (!"GET".equals(request.getMethod())) {
+            return false;
+        }
+        return RUTA_EVENTOS.matcher(ruta(request)).matches();
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        boolean lectura = esLectura(request);
+        int enVueloAlEntrar = limitador.intentaAdquirir(lectura);
+        if (enVueloAlEntrar < 0) {
+            logger.debug("Petición " + request.getMethod() + " " + request.getRequestURI()
+                    + " descartada, límite de concurrencia " + limitador.getLimite());
+            response.setHeader(HttpHeaders.RETRY_AFTER, String.valueOf(segundosReintento));
+            response.sendError(HttpStatus.SERVICE_UNAVAILABLE.value(), "Servidor sobrecargado");
+            return;
+        }
+
+        Liberacion liberacion = new Liberacion(enVueloAlEntrar, System.nanoTime(), esExportacion(request));
+        boolean error = true;
+        try {
+            chain.doFilter(request, response);
+            error = false;
+        } finally {
+            // Si la petición sigue en modo asíncrono el hueco se libera
+            // cuando termine de verdad, no al volver del hilo de Tomcat
+            if (!error && request.isAsyncStarted()) {
+                request.getAsyncContext().addListener(liberacion);
+            } else {
+                liberacion.libera(error || response.getStatus() >= 500);
+            }
+        }
+    }
+
+    // La exportación sí ocupa una conexión con la BD y cuenta para el límite,
+    // pero dura lo que tarde en descargarse el fichero: su latencia no dice
+    // nada de la saturación del servidor y no se usa para ajustar el límite
+    private static boolean esExportacion(HttpServletRequest request) {
+        return "GET".equals(request.getMethod()) && RUTA_EXPORTACION.matcher(ruta(request)).matches();
+    }
+
+    private static String ruta(HttpServletRequest request) {
+        return request.getRequestURI().substring(request.getContextPath().length());
+    }
+
+    private static boolean esLectura(HttpServletRequest request) {
+        String metodo = request.getMethod();
+        return "GET".equals(metodo) || "HEAD".equals(metodo) || "OPTIONS".equals(metodo);
+    }
+
+    private class Liberacion implements AsyncListener {
+        private final int enVueloAlEntrar;
+        private final long inicio;
+        private final boolean sinMuestra;
+        private final AtomicBoolean liberada = new AtomicBoolean();
+
+        Liberacion(int enVueloAlEntrar, long inicio, boolean sinMuestra) {
+            this.enVueloAlEntrar = enVueloAlEntrar;
+            this.inicio = inicio;
+            this.sinMuestra = sinMuestra;
+        }
+
+        void libera(boolean descartarMuestra) {
+            if (liberada.compareAndSet(false, true)) {
+                limitador.libera(enVueloAlEntrar, System.nanoTime() - inicio, descartarMuestra || sinMuestra);
+            }
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) {
+            HttpServletResponse response = (HttpServletResponse) event.getSuppliedResponse();
+            libera(response != null && response.getStatus() >= 500);
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) {
+            libera(true);
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+            libera(true);
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+            // Si se vuelve a iniciar el modo asíncrono hay que seguir escuchando
+            event.getAsyncContext().addListener(this);
+        }
+    }
+}
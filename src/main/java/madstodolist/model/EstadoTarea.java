@@ -0,0 +1,6 @@
+package madstodolist.model;
+
+public enum EstadoTarea {
+    PENDIENTE,
+    COMPLETADA
+}
@@ -1,12 +1,29 @@
 package madstodolist.model;
 
+import org.hibernate.annotations.Where;
+
 import javax.persistence.*;
 import javax.validation.constraints.NotNull;
 import java.io.Serializable;
+import java.util.Date;
 import java.util.Objects;
 
 @Entity
-@Table(name = "tareas")
+@Table(name = "tareas",
+        indexes = {
+                @Index(name = "idx_tareas_usuario_secuencia", columnList = "usuario_id, secuencia"),
+                // Listado filtrado por estado y ordenado por id (orden de creación)
+                @Index(name = "idx_tareas_usuario_estado_id", columnList = "usuario_id, estado, id"),
+                // Listado sin filtro de estado, también por id
+                @Index(name = "idx_tareas_usuario_id", columnList = "usuario_id, id"),
+                // Búsqueda de las tareas borradas pendientes de purgar
+                @Index(name = "idx_tareas_borrada_id", columnList = "borrada, id"),
+                // Búsqueda de las tareas antiguas que pasan al archivo
+                @Index(name = "idx_tareas_estado_modificacion", columnList = "estado, fecha_modificacion")
+        })
+// Las tareas borradas siguen en la tabla hasta que PurgadorTareasBorradas
+// las elimina, pero ninguna consulta sobre la entidad las ve
+@Where(clause = "borrada = false")
 public class Tarea implements Serializable {
 
     private static final long serialVersionUID = 1L;
@@ -25,6 +42,36 @@ public class Tarea implements Serializable {
     @JoinColumn(name = "usuario_id")
     private Usuario usuario;
 
+    // Control de concurrencia optimista: cada modificación incrementa la
+    // versión y sólo se aplica si la tarea sigue en la versión leída
+    @Version
+    private long version;
+
+    // Valor de la secuencia de cambios del usuario (Usuario.versionTareas)
+    // en la última creación o modificación de la tarea
+    private long secuencia;
+
+    @NotNull
+    @Enumerated(EnumType.STRING)
+    @Column(length = 16)
+    private EstadoTarea estado = EstadoTarea.PENDIENTE;
+
+    @Column(name = "fecha_creacion")
+    @Temporal(TemporalType.TIMESTAMP)
+    private Date fechaCreacion;
+
+    @Column(name = "fecha_modificacion")
+    @Temporal(TemporalType.TIMESTAMP)
+    private Date fechaModificacion;
+
+    // Sólo tiene valor mientras la tarea está completada
+    @Column(name = "fecha_completada")
+    @Temporal(TemporalType.TIMESTAMP)
+    private Date fechaCompletada;
+
+    @Column(nullable = false)
+    private boolean borrada;
+
     // Constructor vacío necesario para JPA/Hibernate.
     // No debe usarse desde la aplicación.
     public Tarea() {}
@@ -53,6 +100,60 @@ public class Tarea implements Serializable {
         this.titulo = titulo;
     }
 
+    public long getVersion() {
+        return version;
+    }
+
+    public long getSecuencia() {
+        return secuencia;
+    }
+
+    public void setSecuencia(long secuencia) {
+        this.secuencia = secuencia;
+    }
+
+    public EstadoTarea getEstado() {
+        return estado;
+    }
+
+    public void setEstado(EstadoTarea estado) {
+        if (this.estado != estado) {
+            this.estado = estado;
+            this.fechaCompletada = estado == EstadoTarea.COMPLETADA ? new Date() : null;
+        }
+    }
+
+    public Date getFechaCreacion() {
+        return fechaCreacion;
+    }
+
+    public Date getFechaModificacion() {
+        return fechaModificacion;
+    }
+
+    public Date getFechaCompletada() {
+        return fechaCompletada;
+    }
+
+    public boolean isBorrada() {
+        return borrada;
+    }
+
+    public void setBorrada(boolean borrada) {
+        this.borrada = borrada;
+    }
+
+    @PrePersist
+    void alCrear() {
+        fechaCreacion = new Date();
+        fechaModificacion = fechaCreacion;
+    }
+
+    @PreUpdate
+    void alModificar() {
+        fechaModificacion = new Date();
+    }
+
     // Getters y setters de la relación muchos-a-uno con Usuario
 
     public Usuario getUsuario() {
@@ -0,0 +1,76 @@
+package madstodolist.model;
+
+import javax.persistence.*;
+import java.io.Serializable;
+import java.util.Date;
+import java.util.Objects;
+
+// Marca que deja una tarea al borrarse, para que los clientes que
+// sincronizan por cambios (ver TareaService.cambiosTareasUsuario) sepan
+// que deben eliminarla. Las marcas antiguas se compactan periódicamente.
+@Entity
+@Table(name = "tareas_borradas",
+        indexes = {
+                @Index(name = "idx_tareas_borradas_usuario_secuencia", columnList = "usuario_id, secuencia"),
+                // Compactación: marcas anteriores a una fecha de todos los
+                // usuarios, en orden de fecha (ver CompactadorTareasBorradas)
+                @Index(name = "idx_tareas_borradas_fecha_usuario", columnList = "fecha, usuario_id")
+        })
+public class TareaBorrada implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    // Id que tenía la tarea borrada
+    @Id
+    private Long id;
+
+    @Column(name = "usuario_id", nullable = false)
+    private Long usuarioId;
+
+    // Secuencia de cambios del usuario en la que se borró
+    @Column(nullable = false)
+    private long secuencia;
+
+    @Column(nullable = false)
+    @Temporal(TemporalType.TIMESTAMP)
+    private Date fecha;
+
+    // Constructor vacío necesario para JPA/Hibernate.
+    // No debe usarse desde la aplicación.
+    public TareaBorrada() {}
+
+    public TareaBorrada(Long id, Long usuarioId, long secuencia) {
+        this.id = id;
+        this.usuarioId = usuarioId;
+        this.secuencia = secuencia;
+        this.fecha = new Date();
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public Long getUsuarioId() {
+        return usuarioId;
+    }
+
+    public long getSecuencia() {
+        return secuencia;
+    }
+
+    public Date getFecha() {
+        return fecha;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        return Objects.equals(id, ((TareaBorrada) o).id);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(id);
+    }
+}
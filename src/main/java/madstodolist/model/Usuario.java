@@ -1,5 +1,7 @@
 package madstodolist.model;
 
+import org.hibernate.annotations.Where;
+
 import javax.persistence.*;
 import javax.validation.constraints.NotNull;
 import java.io.Serializable;
@@ -28,10 +30,25 @@ public class Usuario implements Serializable {
     @Temporal(TemporalType.DATE)
     private Date fechaNacimiento;
 
+    // Versión de la lista de tareas del usuario. Se incrementa en cada
+    // modificación de sus tareas y se usa para calcular el ETag del listado.
+    @Column(name = "version_tareas")
+    private long versionTareas;
+
+    // Las marcas de tareas borradas con secuencia hasta este valor se han
+    // compactado; un cliente sincronizado antes necesita la lista completa
+    @Column(name = "secuencia_compactada")
+    private long secuenciaCompactada;
+
+    // Al dar de baja la cuenta se desactiva; PurgadorUsuarios borra después
+    // sus tareas y el propio usuario
+    @Column(nullable = false)
+    private boolean activo = true;
 
     // La relación es lazy por defecto,
     // es necesario acceder a la lista de tareas para que se carguen
     @OneToMany(mappedBy = "usuario")
+    @Where(clause = "borrada = false")
     Set<Tarea> tareas = new HashSet<>();
 
     // Constructor vacío necesario para JPA/Hibernate.
@@ -85,6 +102,18 @@ public class Usuario implements Serializable {
         this.fechaNacimiento = fechaNacimiento;
     }
 
+    public long getVersionTareas() {
+        return versionTareas;
+    }
+
+    public long getSecuenciaCompactada() {
+        return secuenciaCompactada;
+    }
+
+    public boolean isActivo() {
+        return activo;
+    }
+
     // Getters y setters de la relación
 
     public Set<Tarea> getTareas() {
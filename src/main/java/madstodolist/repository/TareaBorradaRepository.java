@@ -0,0 +1,29 @@
+package madstodolist.repository;
+
+import madstodolist.model.TareaBorrada;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+
+public interface TareaBorradaRepository extends CrudRepository<TareaBorrada, Long> {
+
+    @Query("SELECT b.id FROM TareaBorrada b WHERE b.usuarioId = :usuarioId AND b.secuencia > :desde ORDER BY b.secuencia")
+    List<Long> findIdsByUsuarioIdAndSecuenciaGreaterThan(@Param("usuarioId") Long usuarioId, @Param("desde") long desde);
+
+    @Query("SELECT b FROM TareaBorrada b WHERE b.fecha < :limite ORDER BY b.fecha")
+    List<TareaBorrada> findAnteriores(@Param("limite") Date limite, Pageable lote);
+
+    @Modifying
+    @Query("DELETE FROM TareaBorrada b WHERE b.id IN :ids")
+    int deleteByIdIn(@Param("ids") Collection<Long> ids);
+
+    @Modifying
+    @Query("DELETE FROM TareaBorrada b WHERE b.usuarioId = :usuarioId")
+    int deleteByUsuarioId(@Param("usuarioId") Long usuarioId);
+}
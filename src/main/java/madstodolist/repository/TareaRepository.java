@@ -1,7 +1,152 @@
 package madstodolist.repository;
 
+import madstodolist.model.EstadoTarea;
 import madstodolist.model.Tarea;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
+
+import javax.persistence.LockModeType;
+import javax.persistence.QueryHint;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.stream.Stream;
 
 public interface TareaRepository extends CrudRepository<Tarea, Long> {
+
+    // Recorre las tareas del usuario con un cursor de la BD, leyendo las filas
+    // en bloques del tamaño indicado. Debe consumirse dentro de una transacción
+    // y cerrarse al terminar.
+    @QueryHints(@QueryHint(name = org.hibernate.jpa.QueryHints.HINT_FETCH_SIZE, value = "500"))
+    @Query("SELECT t FROM Tarea t WHERE t.usuario.id = :usuarioId ORDER BY t.id")
+    Stream<Tarea> streamByUsuarioId(@Param("usuarioId") Long usuarioId);
+
+    // Id, id de usuario y título de todas las tareas, para construir los
+    // índices en memoria sin cargar las entidades
+    @QueryHints(@QueryHint(name = org.hibernate.jpa.QueryHints.HINT_FETCH_SIZE, value = "1000"))
+    @Query("SELECT t.id, t.usuario.id, t.titulo FROM Tarea t")
+    Stream<Object[]> streamTitulos();
+
+    // Id y dueño de todas las tareas, para cargar PropietariosTareas
+    @QueryHints(@QueryHint(name = org.hibernate.jpa.QueryHints.HINT_FETCH_SIZE, value = "1000"))
+    @Query("SELECT t.id, t.usuario.id FROM Tarea t")
+    Stream<Object[]> streamPropietarios();
+
+    @Query("SELECT t.usuario.id FROM Tarea t WHERE t.id = :id")
+    Long findUsuarioIdById(@Param("id") Long id);
+
+    @Query("SELECT t.id FROM Tarea t WHERE t.usuario.id = :usuarioId")
+    List<Long> findIdsByUsuarioId(@Param("usuarioId") Long usuarioId);
+
+    @Query("SELECT t.id FROM Tarea t WHERE t.id IN :ids")
+    List<Long> findIdsByIdIn(@Param("ids") Collection<Long> ids);
+
+    @Query("SELECT COUNT(t) FROM Tarea t WHERE t.usuario.id = :usuarioId")
+    long countByUsuarioId(@Param("usuarioId") Long usuarioId);
+
+    @Query("SELECT t.id, t.titulo FROM Tarea t WHERE t.usuario.id = :usuarioId")
+    List<Object[]> findTitulosByUsuarioId(@Param("usuarioId") Long usuarioId);
+
+    @Query("SELECT t FROM Tarea t WHERE t.id IN :ids AND t.usuario.id = :usuarioId")
+    List<Tarea> findByIdInAndUsuarioId(@Param("ids") Collection<Long> ids, @Param("usuarioId") Long usuarioId);
+
+    // Listados de la página de tareas. Filtrando por estado y ordenando por
+    // id se recorre sólo el rango del índice (usuario_id, estado, id) que se muestra.
+    @Query("SELECT t FROM Tarea t WHERE t.usuario.id = :usuarioId AND t.estado = :estado")
+    List<Tarea> findByUsuarioIdAndEstado(@Param("usuarioId") Long usuarioId, @Param("estado") EstadoTarea estado,
+                                         Sort orden);
+
+    @Query("SELECT t FROM Tarea t WHERE t.usuario.id = :usuarioId")
+    List<Tarea> findByUsuarioId(@Param("usuarioId") Long usuarioId, Sort orden);
+
+    // Bloques del listado paginados por id: cada bloque empieza después del
+    // último id del anterior, así que todos cuestan lo mismo usando el
+    // índice (usuario_id, estado, id). El tamaño lo fija el Pageable.
+    @Query("SELECT t FROM Tarea t WHERE t.usuario.id = :usuarioId AND t.estado IN :estados "
+            + "AND t.id > :desdeId ORDER BY t.id")
+    List<Tarea> findBloqueAscendente(@Param("usuarioId") Long usuarioId,
+            @Param("estados") Collection<EstadoTarea> estados, @Param("desdeId") long desdeId, Pageable bloque);
+
+    @Query("SELECT t FROM Tarea t WHERE t.usuario.id = :usuarioId AND t.estado IN :estados "
+            + "AND t.id < :hastaId ORDER BY t.id DESC")
+    List<Tarea> findBloqueDescendente(@Param("usuarioId") Long usuarioId,
+            @Param("estados") Collection<EstadoTarea> estados, @Param("hastaId") long hastaId, Pageable bloque);
+
+    // Sin filtro de estado: con "estado IN (todos)" el índice anterior sólo
+    // sirve por usuario y hay que ordenar; estas usan el índice (usuario_id, id)
+    @Query("SELECT t FROM Tarea t WHERE t.usuario.id = :usuarioId AND t.id > :desdeId ORDER BY t.id")
+    List<Tarea> findBloqueAscendente(@Param("usuarioId") Long usuarioId, @Param("desdeId") long desdeId,
+            Pageable bloque);
+
+    @Query("SELECT t FROM Tarea t WHERE t.usuario.id = :usuarioId AND t.id < :hastaId ORDER BY t.id DESC")
+    List<Tarea> findBloqueDescendente(@Param("usuarioId") Long usuarioId, @Param("hastaId") long hastaId,
+            Pageable bloque);
+
+    @Query("SELECT t FROM Tarea t WHERE t.usuario.id = :usuarioId AND t.secuencia > :desde ORDER BY t.secuencia")
+    List<Tarea> findByUsuarioIdAndSecuenciaGreaterThan(@Param("usuarioId") Long usuarioId, @Param("desde") long desde);
+
+    // Tareas en el estado indicado sin modificar desde antes del límite,
+    // candidatas a pasar al archivo. Usa el índice (estado, fecha_modificacion).
+    // Las filas quedan bloqueadas (SELECT ... FOR UPDATE) hasta el final de la
+    // transacción: una modificación concurrente espera y ya no encuentra la
+    // tarea, en lugar de perderse al borrarla después de copiarla al archivo.
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("SELECT t FROM Tarea t WHERE t.estado = :estado AND t.fechaModificacion < :limite ORDER BY t.id")
+    List<Tarea> findArchivables(@Param("estado") EstadoTarea estado, @Param("limite") Date limite, Pageable lote);
+
+    // Borrado físico de tareas ya copiadas al archivo
+    @Modifying
+    @Query(value = "DELETE FROM tareas WHERE id IN (:ids)", nativeQuery = true)
+    int eliminaByIdIn(@Param("ids") Collection<Long> ids);
+
+    @Query("SELECT COUNT(t) FROM Tarea t WHERE t.id IN :ids AND t.usuario.id = :usuarioId")
+    long countByIdInAndUsuarioId(@Param("ids") Collection<Long> ids, @Param("usuarioId") Long usuarioId);
+
+    // Las sentencias UPDATE no aplican el @Where de la entidad, así que
+    // excluyen explícitamente las tareas ya borradas
+    @Modifying
+    @Query("UPDATE Tarea t SET t.borrada = true, t.version = t.version + 1, "
+            + "t.fechaModificacion = CURRENT_TIMESTAMP "
+            + "WHERE t.id IN :ids AND t.usuario.id = :usuarioId AND t.borrada = false")
+    int marcaBorradasByIdInAndUsuarioId(@Param("ids") Collection<Long> ids, @Param("usuarioId") Long usuarioId);
+
+    // Borrado físico de un lote de tareas ya borradas. Es SQL nativo porque
+    // las consultas sobre la entidad no ven las filas borradas.
+    @Modifying
+    @Query(value = "DELETE FROM tareas WHERE id IN "
+            + "(SELECT id FROM tareas WHERE borrada = TRUE ORDER BY id LIMIT :lote)", nativeQuery = true)
+    int purgaLoteBorradas(@Param("lote") int lote);
+
+    // Borrado físico de un lote de tareas del usuario, borradas o no
+    @Modifying
+    @Query(value = "DELETE FROM tareas WHERE id IN "
+            + "(SELECT id FROM tareas WHERE usuario_id = :usuarioId ORDER BY id LIMIT :lote)", nativeQuery = true)
+    int purgaLoteUsuario(@Param("usuarioId") Long usuarioId, @Param("lote") int lote);
+
+    // Se vacía el contexto para que las lecturas posteriores vean la versión nueva
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("UPDATE Tarea t SET t.titulo = :titulo, t.version = t.version + 1, t.secuencia = :secuencia, "
+            + "t.fechaModificacion = CURRENT_TIMESTAMP "
+            + "WHERE t.id IN :ids AND t.usuario.id = :usuarioId AND t.borrada = false")
+    int updateTituloByIdInAndUsuarioId(@Param("ids") Collection<Long> ids, @Param("usuarioId") Long usuarioId,
+                                       @Param("titulo") String titulo, @Param("secuencia") long secuencia);
+
+    // Modificación condicionada a la versión. Devuelve 0 si la tarea no
+    // existe, no es del usuario o ha cambiado desde que se leyó.
+    @Modifying
+    @Query("UPDATE Tarea t SET t.titulo = :titulo, t.version = t.version + 1, t.secuencia = :secuencia, "
+            + "t.fechaModificacion = CURRENT_TIMESTAMP WHERE t.id = :id AND t.usuario.id = :usuarioId AND t.version = :version "
+            + "AND t.borrada = false")
+    int updateTituloByIdAndVersion(@Param("id") Long id, @Param("usuarioId") Long usuarioId,
+                                   @Param("version") long version, @Param("titulo") String titulo,
+                                   @Param("secuencia") long secuencia);
+
+    @Query("SELECT COUNT(t) > 0 FROM Tarea t WHERE t.id = :id AND t.usuario.id = :usuarioId")
+    boolean existsByIdAndUsuarioId(@Param("id") Long id, @Param("usuarioId") Long usuarioId);
 }
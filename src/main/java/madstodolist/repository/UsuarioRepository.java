@@ -1,10 +1,12 @@
 package madstodolist.repository;
 
 import madstodolist.model.Usuario;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.CrudRepository;
 import org.springframework.data.repository.query.Param;
 
+import java.util.List;
 import java.util.Optional;
 
 public interface UsuarioRepository extends CrudRepository<Usuario, Long> {
@@ -13,4 +15,36 @@ public interface UsuarioRepository extends CrudRepository<Usuario, Long> {
     Usuario findByIdWithTareas(@Param("id") Long id);
 
     Optional<Usuario> findByEmail(String email);
+
+    @Query("SELECT u.versionTareas FROM Usuario u WHERE u.id = :id")
+    Long findVersionTareasById(@Param("id") Long id);
+
+    // Incremento atómico en la BD, la fila queda bloqueada hasta el final
+    // de la transacción que modifica las tareas
+    @Modifying
+    @Query("UPDATE Usuario u SET u.versionTareas = u.versionTareas + 1 WHERE u.id = :id")
+    int incrementaVersionTareas(@Param("id") Long id);
+
+    @Query("SELECT u.activo FROM Usuario u WHERE u.id = :id")
+    Boolean findActivoById(@Param("id") Long id);
+
+    @Query("SELECT u.id FROM Usuario u WHERE u.activo = false ORDER BY u.id")
+    List<Long> findIdsInactivos();
+
+    @Modifying
+    @Query("UPDATE Usuario u SET u.activo = false WHERE u.id = :id")
+    int desactiva(@Param("id") Long id);
+
+    // Sólo una vez borradas todas sus tareas
+    @Modifying
+    @Query("DELETE FROM Usuario u WHERE u.id = :id AND u.activo = false")
+    int deleteInactivo(@Param("id") Long id);
+
+    @Query("SELECT u.secuenciaCompactada FROM Usuario u WHERE u.id = :id")
+    Long findSecuenciaCompactadaById(@Param("id") Long id);
+
+    @Modifying
+    @Query("UPDATE Usuario u SET u.secuenciaCompactada = :secuencia "
+            + "WHERE u.id = :id AND u.secuenciaCompactada < :secuencia")
+    int actualizaSecuenciaCompactada(@Param("id") Long id, @Param("secuencia") long secuencia);
 }
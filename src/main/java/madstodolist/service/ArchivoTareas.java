@@ -0,0 +1,370 @@
+package madstodolist.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import madstodolist.archivo.SegmentosArchivo;
+import madstodolist.dto.TareaData;
+import madstodolist.eventos.TareaEvento;
+import madstodolist.model.EstadoTarea;
+import madstodolist.model.Tarea;
+import madstodolist.model.TareaBorrada;
+import madstodolist.repository.TareaBorradaRepository;
+import madstodolist.repository.TareaRepository;
+import madstodolist.repository.UsuarioRepository;
+import org.modelmapper.ModelMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import java.io.UncheckedIOException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+// Archivo de tareas antiguas fuera de la tabla de tareas.
+//
+// Periódicamente las tareas completadas que no se han modificado en el
+// periodo de antigüedad se copian a los segmentos del usuario en disco
+// (SegmentosArchivo) y se borran de la tabla, por lotes y cada lote en su
+// transacción. Para los clientes sincronizados es como si se hubieran
+// borrado: quedan marcas de tareas borradas y se publica TareaEvento.BORRADA.
+//
+// Cada tarea archivada es una línea JSON con su TareaData. Al restaurar una
+// tarea se vuelve a insertar con el mismo id y se añade al archivo una
+// línea {"restaurada": id}; al leer el archivo se aplican en orden. Las
+// tareas archivadas que siguen en la tabla (si falló la transacción después
+// de escribir el segmento) no se muestran.
+//
+// Para no descomprimir todo el archivo en cada consulta se guarda, por
+// usuario, un índice en memoria de id de tarea a posición del miembro que la
+// contiene. Se construye recorriendo el archivo una vez (un miembro cada
+// vez) la primera vez que se consulta y después se mantiene al archivar y
+// restaurar. Se guardan como mucho archivo.max-indices índices, descartando
+// los usados hace más tiempo.
+@Service
+public class ArchivoTareas {
+
+    Logger logger = LoggerFactory.getLogger(ArchivoTareas.class);
+
+    private static final String RESTAURADA = "restaurada";
+
+    @Autowired
+    private TareaRepository tareaRepository;
+    @Autowired
+    private UsuarioRepository usuarioRepository;
+    @Autowired
+    private TareaBorradaRepository tareaBorradaRepository;
+    @Autowired
+    private SegmentosArchivo segmentosArchivo;
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    @Autowired
+    private ObjectMapper objectMapper;
+    @Autowired
+    private ModelMapper modelMapper;
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Value("${archivo.antiguedad-dias:365}")
+    private long diasAntiguedad;
+
+    @Value("${archivo.lote:500}")
+    private int tamanoLote;
+
+    // Índices por usuario en orden de uso (ver indiceDe)
+    private final Map<Long, IndiceArchivo> indices;
+
+    private final Counter tareasArchivadas;
+    private final Counter tareasRestauradas;
+
+    public ArchivoTareas(MeterRegistry registry, @Value("${archivo.max-indices:1000}") int maxIndices) {
+        indices = new LinkedHashMap<Long, IndiceArchivo>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, IndiceArchivo> eldest) {
+                return size() > maxIndices;
+            }
+        };
+        tareasArchivadas = Counter.builder("archivo.tareas.archivadas")
+                .description("Tareas llevadas de la tabla de tareas al archivo")
+                .register(registry);
+        tareasRestauradas = Counter.builder("archivo.tareas.restauradas")
+                .description("Tareas devueltas del archivo a la tabla de tareas")
+                .register(registry);
+    }
+
+    @Scheduled(fixedDelayString = "${archivo.archivado-ms:86400000}",
+            initialDelayString = "${archivo.archivado-ms:86400000}")
+    public void archivaPeriodicamente() {
+        archiva(new Date(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(diasAntiguedad)));
+    }
+
+    // Archiva las tareas completadas sin modificar desde antes del límite.
+    // Devuelve el número de tareas archivadas.
+    public int archiva(Date limite) {
+        int total = 0;
+        int archivadas;
+        do {
+            archivadas = transactionTemplate.execute(estado -> archivaLote(limite));
+            total += archivadas;
+            tareasArchivadas.increment(archivadas);
+        } while (archivadas == tamanoLote);
+        if (total > 0) {
+            logger.info("Archivadas " + total + " tareas completadas antes de " + limite);
+        }
+        return total;
+    }
+
+    private int archivaLote(Date limite) {
+        List<Tarea> lote = tareaRepository.findArchivables(EstadoTarea.COMPLETADA, limite,
+                PageRequest.of(0, tamanoLote));
+        Map<Long, List<Tarea>> porUsuario = new LinkedHashMap<>();
+        for (Tarea tarea : lote) {
+            porUsuario.computeIfAbsent(tarea.getUsuario().getId(), id -> new ArrayList<>()).add(tarea);
+        }
+        for (Map.Entry<Long, List<Tarea>> usuario : porUsuario.entrySet()) {
+            Long idUsuario = usuario.getKey();
+            usuarioRepository.incrementaVersionTareas(idUsuario);
+            long secuencia = usuarioRepository.findVersionTareasById(idUsuario);
+            List<Long> ids = new ArrayList<>(usuario.getValue().size());
+            List<String> lineas = new ArrayList<>(usuario.getValue().size());
+            for (Tarea tarea : usuario.getValue()) {
+                ids.add(tarea.getId());
+                lineas.add(aJson(modelMapper.map(tarea, TareaData.class)));
+            }
+            tareaRepository.eliminaByIdIn(ids);
+            for (Long id : ids) {
+                entityManager.persist(new TareaBorrada(id, idUsuario, secuencia));
+                eventPublisher.publishEvent(TareaEvento.borrada(idUsuario, id));
+            }
+            // El segmento se escribe lo último: si falla, la transacción se
+            // deshace y las tareas siguen en la tabla
+            SegmentosArchivo.Posicion posicion = segmentosArchivo.anade(idUsuario, lineas);
+            IndiceArchivo indice = indiceCargado(idUsuario);
+            if (indice != null) {
+                indice.archivadas(ids, posicion);
+            }
+        }
+        return lote.size();
+    }
+
+    // Una página de las tareas archivadas del usuario, las últimas
+    // archivadas primero. Sólo se descomprimen los miembros que contienen
+    // las tareas de la página.
+    public List<TareaData> tareasArchivadas(Long idUsuario, int pagina, int tamanoPagina) {
+        if (pagina < 0 || tamanoPagina <= 0) {
+            return Collections.emptyList();
+        }
+        Map<Long, SegmentosArchivo.Posicion> posiciones =
+                indiceDe(idUsuario).pagina((long) pagina * tamanoPagina, tamanoPagina);
+        if (posiciones.isEmpty()) {
+            return Collections.emptyList();
+        }
+        Map<Long, TareaData> tareas = leeTareas(idUsuario, posiciones);
+        tareas.keySet().removeAll(tareaRepository.findIdsByIdIn(posiciones.keySet()));
+        List<TareaData> resultado = new ArrayList<>(tareas.size());
+        for (Long id : posiciones.keySet()) {
+            TareaData tarea = tareas.get(id);
+            if (tarea != null) {
+                resultado.add(tarea);
+            }
+        }
+        return resultado;
+    }
+
+    // Devuelve la tarea a la tabla de tareas con el mismo id. Lanza
+    // TareaServiceException si no está en el archivo del usuario.
+    public TareaData restaura(Long idUsuario, Long idTarea) {
+        IndiceArchivo indice = indiceDe(idUsuario);
+        SegmentosArchivo.Posicion posicion = indice.posicion(idTarea);
+        TareaData archivada = posicion == null ? null
+                : leeTareas(idUsuario, Collections.singletonMap(idTarea, posicion)).get(idTarea);
+        if (archivada == null) {
+            throw new TareaServiceException("No hay tarea archivada con id " + idTarea);
+        }
+        logger.debug("Restaurando del archivo la tarea " + idTarea + " del usuario " + idUsuario);
+        TareaData restaurada;
+        try {
+            restaurada = transactionTemplate.execute(estado -> {
+                usuarioRepository.incrementaVersionTareas(idUsuario);
+                long secuencia = usuarioRepository.findVersionTareasById(idUsuario);
+                jdbcTemplate.update("INSERT INTO tareas (id, titulo, usuario_id, version, secuencia, estado, "
+                                + "fecha_creacion, fecha_modificacion, fecha_completada, borrada) "
+                                + "VALUES (?, ?, ?, ?, ?, ?, ?, CURRENT_TIMESTAMP, ?, FALSE)",
+                        new Object[]{idTarea, archivada.getTitulo(), idUsuario, version(archivada) + 1, secuencia,
+                                archivada.getEstado().name(), timestamp(archivada.getFechaCreacion()),
+                                timestamp(archivada.getFechaCompletada())},
+                        new int[]{Types.BIGINT, Types.VARCHAR, Types.BIGINT, Types.BIGINT, Types.BIGINT,
+                                Types.VARCHAR, Types.TIMESTAMP, Types.TIMESTAMP});
+                tareaBorradaRepository.deleteByIdIn(Collections.singletonList(idTarea));
+                TareaData tarea = modelMapper.map(tareaRepository.findById(idTarea).get(), TareaData.class);
+                eventPublisher.publishEvent(TareaEvento.creada(tarea));
+                return tarea;
+            });
+        } catch (DataIntegrityViolationException e) {
+            // Otra petición la ha restaurado a la vez
+            throw new TareaServiceException("La tarea " + idTarea + " ya está restaurada");
+        }
+        tareasRestauradas.increment();
+        indice.restaurada(idTarea);
+        try {
+            segmentosArchivo.anade(idUsuario, Collections.singletonList("{\"" + RESTAURADA + "\":" + idTarea + "}"));
+        } catch (UncheckedIOException e) {
+            // Sigue en el archivo, pero no se muestra mientras esté en la tabla
+            logger.warn("No se ha podido apuntar en el archivo la restauración de la tarea " + idTarea
+                    + ": " + e.getMessage());
+        }
+        return restaurada;
+    }
+
+    // Al eliminar por completo una cuenta se descarta su índice
+    @TransactionalEventListener(fallbackExecution = true)
+    public void alCambiarTarea(TareaEvento evento) {
+        if (evento.getTipo() == TareaEvento.Tipo.PURGADAS) {
+            synchronized (indices) {
+                indices.remove(evento.getUsuarioId());
+            }
+        }
+    }
+
+    // Lee las tareas indicadas descomprimiendo cada miembro una sola vez
+    private Map<Long, TareaData> leeTareas(Long idUsuario, Map<Long, SegmentosArchivo.Posicion> posiciones) {
+        Map<SegmentosArchivo.Posicion, List<Long>> porMiembro = new LinkedHashMap<>();
+        posiciones.forEach((id, posicion) -> porMiembro.computeIfAbsent(posicion, p -> new ArrayList<>()).add(id));
+        Map<Long, TareaData> tareas = new HashMap<>();
+        for (Map.Entry<SegmentosArchivo.Posicion, List<Long>> miembro : porMiembro.entrySet()) {
+            for (String linea : segmentosArchivo.leeMiembro(idUsuario, miembro.getKey())) {
+                JsonNode registro = deJson(linea);
+                if (!registro.has(RESTAURADA) && miembro.getValue().contains(registro.get("id").asLong())) {
+                    TareaData tarea = objectMapper.convertValue(registro, TareaData.class);
+                    tareas.put(tarea.getId(), tarea);
+                }
+            }
+        }
+        return tareas;
+    }
+
+    private IndiceArchivo indiceCargado(Long idUsuario) {
+        synchronized (indices) {
+            return indices.get(idUsuario);
+        }
+    }
+
+    // Índice del usuario, recorriendo su archivo si no estaba cargado. Una
+    // escritura que llegue mientras se recorre espera a que termine (ver
+    // IndiceArchivo) y se aplica después, así que no se pierde.
+    private IndiceArchivo indiceDe(Long idUsuario) {
+        IndiceArchivo indice;
+        synchronized (indices) {
+            indice = indices.computeIfAbsent(idUsuario, id -> new IndiceArchivo());
+        }
+        indice.carga(idUsuario);
+        return indice;
+    }
+
+    // Tareas archivadas (sin restaurar) de un usuario y miembro en que está
+    // la última copia de cada una, en el orden en que se archivaron
+    private class IndiceArchivo {
+        private final LinkedHashMap<Long, SegmentosArchivo.Posicion> tareas = new LinkedHashMap<>();
+        private boolean cargado;
+
+        synchronized void carga(Long idUsuario) {
+            if (cargado) {
+                return;
+            }
+            segmentosArchivo.recorre(idUsuario, (posicion, lineas) -> {
+                for (String linea : lineas) {
+                    JsonNode registro = deJson(linea);
+                    if (registro.has(RESTAURADA)) {
+                        tareas.remove(registro.get(RESTAURADA).asLong());
+                    } else {
+                        Long id = registro.get("id").asLong();
+                        tareas.remove(id);
+                        tareas.put(id, posicion);
+                    }
+                }
+            });
+            cargado = true;
+        }
+
+        // Si aún no está cargado no hace falta: se leerá del disco al cargarlo
+        synchronized void archivadas(List<Long> ids, SegmentosArchivo.Posicion posicion) {
+            if (cargado) {
+                for (Long id : ids) {
+                    tareas.remove(id);
+                    tareas.put(id, posicion);
+                }
+            }
+        }
+
+        synchronized void restaurada(Long id) {
+            tareas.remove(id);
+        }
+
+        synchronized SegmentosArchivo.Posicion posicion(Long id) {
+            return tareas.get(id);
+        }
+
+        // Empezando por las últimas archivadas
+        synchronized Map<Long, SegmentosArchivo.Posicion> pagina(long desde, int tamano) {
+            Map<Long, SegmentosArchivo.Posicion> pagina = new LinkedHashMap<>();
+            if (desde >= tareas.size()) {
+                return pagina;
+            }
+            List<Map.Entry<Long, SegmentosArchivo.Posicion>> entradas = new ArrayList<>(tareas.entrySet());
+            for (int i = entradas.size() - 1 - (int) desde; i >= 0 && pagina.size() < tamano; i--) {
+                pagina.put(entradas.get(i).getKey(), entradas.get(i).getValue());
+            }
+            return pagina;
+        }
+    }
+
+    private static long version(TareaData tarea) {
+        return tarea.getVersion() == null ? 0 : tarea.getVersion();
+    }
+
+    private static Timestamp timestamp(Date fecha) {
+        return fecha == null ? null : new Timestamp(fecha.getTime());
+    }
+
+    private String aJson(TareaData tarea) {
+        try {
+            return objectMapper.writeValueAsString(tarea);
+        } catch (JsonProcessingException e) {
+            throw new TareaServiceException("No se ha podido archivar la tarea " + tarea.getId());
+        }
+    }
+
+    private JsonNode deJson(String linea) {
+        try {
+            return objectMapper.readTree(linea);
+        } catch (JsonProcessingException e) {
+            throw new TareaServiceException("Registro del archivo no válido: " + linea);
+        }
+    }
+}
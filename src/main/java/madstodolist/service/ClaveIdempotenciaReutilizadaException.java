@@ -0,0 +1,10 @@
+package madstodolist.service;
+
+// Se ha repetido una clave de idempotencia con una petición distinta de la
+// que la usó primero
+public class ClaveIdempotenciaReutilizadaException extends TareaServiceException {
+
+    public ClaveIdempotenciaReutilizadaException(String message) {
+        super(message);
+    }
+}
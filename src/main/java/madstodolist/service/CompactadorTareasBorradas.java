@@ -0,0 +1,82 @@
+package madstodolist.service;
+
+import madstodolist.model.TareaBorrada;
+import madstodolist.repository.TareaBorradaRepository;
+import madstodolist.repository.UsuarioRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+// Elimina periódicamente las marcas de tareas borradas más antiguas que el
+// periodo de retención. Se procesan en lotes, cada uno en su transacción,
+// para no bloquear la tabla ni cargar todas las marcas a la vez. Al borrar
+// las marcas de un usuario se guarda hasta qué secuencia se han compactado,
+// de forma que los clientes sincronizados antes reciban la lista completa.
+@Component
+public class CompactadorTareasBorradas {
+
+    Logger logger = LoggerFactory.getLogger(CompactadorTareasBorradas.class);
+
+    @Autowired
+    private TareaBorradaRepository tareaBorradaRepository;
+    @Autowired
+    private UsuarioRepository usuarioRepository;
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Value("${sincronizacion.retencion-borradas-horas:720}")
+    private long horasRetencion;
+
+    @Value("${sincronizacion.lote-compactacion:1000}")
+    private int tamanoLote;
+
+    @Scheduled(fixedDelayString = "${sincronizacion.compactacion-ms:3600000}",
+            initialDelayString = "${sincronizacion.compactacion-ms:3600000}")
+    public void compactaPeriodicamente() {
+        compacta(new Date(System.currentTimeMillis() - TimeUnit.HOURS.toMillis(horasRetencion)));
+    }
+
+    // Devuelve el número de marcas eliminadas
+    public int compacta(Date limite) {
+        int total = 0;
+        int eliminadas;
+        do {
+            eliminadas = transactionTemplate.execute(estado -> compactaLote(limite));
+            total += eliminadas;
+        } while (eliminadas == tamanoLote);
+        if (total > 0) {
+            logger.debug("Compactadas " + total + " marcas de tareas borradas anteriores a " + limite);
+        }
+        return total;
+    }
+
+    private int compactaLote(Date limite) {
+        List<TareaBorrada> lote = tareaBorradaRepository.findAnteriores(limite, PageRequest.of(0, tamanoLote));
+        if (lote.isEmpty()) {
+            return 0;
+        }
+        Map<Long, Long> maximaPorUsuario = new HashMap<>();
+        List<Long> ids = new ArrayList<>(lote.size());
+        for (TareaBorrada borrada : lote) {
+            ids.add(borrada.getId());
+            maximaPorUsuario.merge(borrada.getUsuarioId(), borrada.getSecuencia(), Math::max);
+        }
+        for (Map.Entry<Long, Long> usuario : maximaPorUsuario.entrySet()) {
+            usuarioRepository.actualizaSecuenciaCompactada(usuario.getKey(), usuario.getValue());
+        }
+        tareaBorradaRepository.deleteByIdIn(ids);
+        return lote.size();
+    }
+}
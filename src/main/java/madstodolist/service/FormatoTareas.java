@@ -0,0 +1,236 @@
+package madstodolist.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.JsonNode;
+import madstodolist.dto.TareaData;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+// Formatos de texto en los que se exportan e importan las tareas. Cada
+// tarea ocupa un registro, de forma que se pueden escribir según se leen de
+// la BD y leer según llegan en la petición.
+public enum FormatoTareas {
+
+    CSV("text/csv", "csv") {
+        @Override
+        public String cabecera() {
+            return "id,titulo\n";
+        }
+
+        @Override
+        public String linea(TareaData tarea, ObjectMapper objectMapper) {
+            return tarea.getId() + "," + escapaCsv(tarea.getTitulo()) + "\n";
+        }
+
+        // Un campo entre comillas puede contener saltos de línea, así que un
+        // registro puede ocupar varias líneas del fichero
+        @Override
+        public String leeRegistro(BufferedReader reader, int maxLongitud) throws IOException {
+            return leeHastaFinDeRegistro(reader, maxLongitud, true);
+        }
+
+        @Override
+        public String titulo(String registro, int columnaTitulo, ObjectMapper objectMapper) {
+            List<String> campos = camposCsv(registro);
+            if (columnaTitulo >= campos.size()) {
+                throw new TareaServiceException("Falta la columna titulo");
+            }
+            return campos.get(columnaTitulo);
+        }
+    },
+
+    NDJSON("application/x-ndjson", "ndjson") {
+        @Override
+        public String cabecera() {
+            return "";
+        }
+
+        @Override
+        public String linea(TareaData tarea, ObjectMapper objectMapper) {
+            try {
+                return objectMapper.writeValueAsString(tarea) + "\n";
+            } catch (JsonProcessingException e) {
+                throw new TareaServiceException("No se puede serializar la tarea " + tarea.getId());
+            }
+        }
+
+        @Override
+        public String leeRegistro(BufferedReader reader, int maxLongitud) throws IOException {
+            return leeHastaFinDeRegistro(reader, maxLongitud, false);
+        }
+
+        @Override
+        public String titulo(String registro, int columnaTitulo, ObjectMapper objectMapper) {
+            JsonNode nodo;
+            try {
+                nodo = objectMapper.readTree(registro);
+            } catch (IOException e) {
+                throw new TareaServiceException("JSON mal formado");
+            }
+            JsonNode titulo = nodo == null ? null : nodo.get("titulo");
+            if (titulo == null || !titulo.isTextual()) {
+                throw new TareaServiceException("Falta el campo titulo");
+            }
+            return titulo.asText();
+        }
+    };
+
+    private final String tipoContenido;
+    private final String extension;
+
+    FormatoTareas(String tipoContenido, String extension) {
+        this.tipoContenido = tipoContenido;
+        this.extension = extension;
+    }
+
+    public abstract String cabecera();
+
+    public abstract String linea(TareaData tarea, ObjectMapper objectMapper);
+
+    // Siguiente registro de la entrada o null al llegar al final. Si el
+    // registro tiene más de maxLongitud caracteres se descarta hasta el
+    // siguiente salto de línea sin guardarlo y se lanza
+    // RegistroDemasiadoLargoException.
+    public abstract String leeRegistro(BufferedReader reader, int maxLongitud) throws IOException;
+
+    // Título de la tarea contenida en el registro. La columna sólo se usa
+    // en CSV, donde se obtiene de la cabecera con columnaTitulo.
+    public abstract String titulo(String registro, int columnaTitulo, ObjectMapper objectMapper);
+
+    public boolean tieneCabecera() {
+        return !cabecera().isEmpty();
+    }
+
+    public String getTipoContenido() {
+        return tipoContenido;
+    }
+
+    public String getExtension() {
+        return extension;
+    }
+
+    public static FormatoTareas de(String nombre) {
+        for (FormatoTareas formato : values()) {
+            if (formato.extension.equalsIgnoreCase(nombre)) {
+                return formato;
+            }
+        }
+        throw new TareaServiceException("Formato de tareas desconocido: " + nombre);
+    }
+
+    static String escapaCsv(String valor) {
+        if (valor == null) {
+            return "";
+        }
+        if (valor.indexOf(',') < 0 && valor.indexOf('"') < 0 && valor.indexOf('\n') < 0 && valor.indexOf('\r') < 0) {
+            return valor;
+        }
+        return "\"" + valor.replace("\"", "\"\"") + "\"";
+    }
+
+    public static int columnaTitulo(String cabecera) {
+        List<String> campos = camposCsv(cabecera);
+        for (int i = 0; i < campos.size(); i++) {
+            if ("titulo".equalsIgnoreCase(campos.get(i).trim())) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    static List<String> camposCsv(String registro) {
+        List<String> campos = new ArrayList<>();
+        StringBuilder campo = new StringBuilder();
+        boolean entreComillas = false;
+        for (int i = 0; i < registro.length(); i++) {
+            char c = registro.charAt(i);
+            if (entreComillas) {
+                if (c == '"') {
+                    if (i + 1 < registro.length() && registro.charAt(i + 1) == '"') {
+                        campo.append('"');
+                        i++;
+                    } else {
+                        entreComillas = false;
+                    }
+                } else {
+                    campo.append(c);
+                }
+            } else if (c == '"') {
+                entreComillas = true;
+            } else if (c == ',') {
+                campos.add(campo.toString());
+                campo.setLength(0);
+            } else {
+                campo.append(c);
+            }
+        }
+        campos.add(campo.toString());
+        return campos;
+    }
+
+    // Lee carácter a carácter hasta un salto de línea (\n, \r o \r\n) que no
+    // esté entre comillas. Las comillas sólo se tienen en cuenta en CSV; las
+    // dobles ("") cambian el estado dos veces y lo dejan como estaba. Los
+    // saltos de línea dentro de un campo se guardan como \n.
+    private static String leeHastaFinDeRegistro(BufferedReader reader, int maxLongitud, boolean comillas)
+            throws IOException {
+        int c = reader.read();
+        if (c < 0) {
+            return null;
+        }
+        StringBuilder registro = new StringBuilder();
+        boolean entreComillas = false;
+        while (c >= 0) {
+            if (c == '\n' || c == '\r') {
+                if (c == '\r') {
+                    saltaFinDeLinea(reader);
+                }
+                if (!entreComillas) {
+                    return registro.toString();
+                }
+                c = '\n';
+            } else if (comillas && c == '"') {
+                entreComillas = !entreComillas;
+            }
+            if (registro.length() >= maxLongitud) {
+                // Una comilla sin cerrar no debe arrastrar el resto del
+                // fichero: se descarta sólo hasta el final de la línea
+                if (c != '\n') {
+                    descartaLinea(reader);
+                }
+                throw new RegistroDemasiadoLargoException("Registro de más de " + maxLongitud + " caracteres");
+            }
+            registro.append((char) c);
+            c = reader.read();
+        }
+        if (entreComillas) {
+            throw new TareaServiceException("Fin de fichero dentro de un campo entre comillas");
+        }
+        return registro.toString();
+    }
+
+    private static void descartaLinea(BufferedReader reader) throws IOException {
+        int c;
+        while ((c = reader.read()) >= 0) {
+            if (c == '\n') {
+                return;
+            }
+            if (c == '\r') {
+                saltaFinDeLinea(reader);
+                return;
+            }
+        }
+    }
+
+    // Tras un \r, consume el \n siguiente si lo hay
+    private static void saltaFinDeLinea(BufferedReader reader) throws IOException {
+        reader.mark(1);
+        if (reader.read() != '\n') {
+            reader.reset();
+        }
+    }
+}
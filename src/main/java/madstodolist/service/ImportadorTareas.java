@@ -0,0 +1,155 @@
+package madstodolist.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import madstodolist.eventos.TareaEvento;
+import madstodolist.repository.UsuarioRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+// Importación masiva de tareas a partir de un fichero CSV o NDJSON.
+//
+// La entrada se lee registro a registro y las tareas válidas se insertan
+// en lotes con JDBC, cada lote en su propia transacción. En memoria sólo
+// está el lote en curso, sea cual sea el tamaño del fichero. Si falla un
+// lote, los anteriores ya quedan guardados.
+@Service
+public class ImportadorTareas {
+
+    Logger logger = LoggerFactory.getLogger(ImportadorTareas.class);
+
+    static final int MAX_LONGITUD_TITULO = 255;
+
+    // Recibe el avance de la importación según se van guardando los lotes
+    public interface Observador {
+        void error(long registro, String mensaje);
+
+        void progreso(long procesados, long importados, long errores);
+    }
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+    @Autowired
+    private UsuarioRepository usuarioRepository;
+    @Autowired
+    private ObjectMapper objectMapper;
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+
+    @Value("${importacion.tamano-lote:500}")
+    private int tamanoLote;
+
+    // Longitud máxima de un registro, para no cargar en memoria toda la
+    // entrada si no tiene saltos de línea o una comilla no se cierra
+    @Value("${importacion.max-longitud-registro:8192}")
+    private int maxLongitudRegistro;
+
+    // Devuelve el número de tareas importadas. Lanza TareaServiceException
+    // si el usuario no existe o la cabecera CSV no es válida, antes de
+    // haber notificado nada al observador.
+    public long importa(Long idUsuario, FormatoTareas formato, BufferedReader reader, Observador observador)
+            throws IOException {
+        if (!Boolean.TRUE.equals(usuarioRepository.findActivoById(idUsuario))) {
+            throw new TareaServiceException("Usuario " + idUsuario + " no existe al importar tareas");
+        }
+        int columnaTitulo = -1;
+        if (formato.tieneCabecera()) {
+            String cabecera = formato.leeRegistro(reader, maxLongitudRegistro);
+            columnaTitulo = cabecera == null ? -1 : FormatoTareas.columnaTitulo(cabecera);
+            if (columnaTitulo < 0) {
+                throw new TareaServiceException("La cabecera no contiene la columna titulo");
+            }
+        }
+
+        logger.debug("Importando tareas del usuario " + idUsuario + " en formato " + formato);
+        List<String> lote = new ArrayList<>(tamanoLote);
+        long procesados = 0;
+        long importados = 0;
+        long errores = 0;
+        String registro;
+        while (true) {
+            try {
+                registro = formato.leeRegistro(reader, maxLongitudRegistro);
+            } catch (RegistroDemasiadoLargoException e) {
+                // Ya se ha saltado: se informa y se sigue con el siguiente
+                procesados++;
+                errores++;
+                observador.error(procesados, e.getMessage());
+                continue;
+            } catch (TareaServiceException e) {
+                // Entrada truncada: se guarda lo leído hasta ahora
+                errores++;
+                observador.error(procesados + 1, e.getMessage());
+                break;
+            }
+            if (registro == null) {
+                break;
+            }
+            if (registro.trim().isEmpty()) {
+                continue;
+            }
+            procesados++;
+            try {
+                lote.add(validaTitulo(formato.titulo(registro, columnaTitulo, objectMapper)));
+            } catch (TareaServiceException e) {
+                errores++;
+                observador.error(procesados, e.getMessage());
+            }
+            if (lote.size() == tamanoLote) {
+                importados += insertaLote(idUsuario, lote);
+                observador.progreso(procesados, importados, errores);
+            }
+        }
+        if (!lote.isEmpty()) {
+            importados += insertaLote(idUsuario, lote);
+        }
+        observador.progreso(procesados, importados, errores);
+
+        // Un único evento para toda la importación en lugar de uno por tarea
+        if (importados > 0) {
+            eventPublisher.publishEvent(TareaEvento.importadas(idUsuario));
+        }
+        return importados;
+    }
+
+    private static String validaTitulo(String titulo) {
+        if (titulo == null || titulo.trim().isEmpty()) {
+            throw new TareaServiceException("Título vacío");
+        }
+        if (titulo.length() > MAX_LONGITUD_TITULO) {
+            throw new TareaServiceException("Título de más de " + MAX_LONGITUD_TITULO + " caracteres");
+        }
+        return titulo;
+    }
+
+    private int insertaLote(Long idUsuario, List<String> lote) {
+        transactionTemplate.executeWithoutResult(estado -> {
+            // Todas las tareas del lote comparten la misma secuencia de cambios
+            usuarioRepository.incrementaVersionTareas(idUsuario);
+            long secuencia = usuarioRepository.findVersionTareasById(idUsuario);
+            jdbcTemplate.batchUpdate("INSERT INTO tareas (titulo, usuario_id, version, secuencia, estado, "
+                            + "fecha_creacion, fecha_modificacion, borrada) "
+                            + "VALUES (?, ?, 0, ?, 'PENDIENTE', CURRENT_TIMESTAMP, CURRENT_TIMESTAMP, FALSE)",
+                    lote, lote.size(), (ps, titulo) -> {
+                        ps.setString(1, titulo);
+                        ps.setLong(2, idUsuario);
+                        ps.setLong(3, secuencia);
+                    });
+        });
+        int insertadas = lote.size();
+        lote.clear();
+        return insertadas;
+    }
+}
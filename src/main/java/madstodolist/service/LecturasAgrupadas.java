@@ -0,0 +1,78 @@
+package madstodolist.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+// Agrupa las lecturas simultáneas de los mismos datos: si llega una lectura
+// mientras otra con la misma clave está en curso, espera a su resultado en
+// lugar de lanzar otra consulta a la BD. No guarda nada: en cuanto termina
+// la carga, la siguiente petición vuelve a consultar la BD.
+//
+// El resultado es el mismo objeto para todas las peticiones agrupadas, así
+// que no debe modificarse. Quien la use debe incluir en la clave lo
+// necesario para que una petición no reciba datos anteriores a sus propios
+// cambios (por ejemplo, la versión de los datos).
+@Component
+public class LecturasAgrupadas {
+
+    private final Map<Object, CompletableFuture<Object>> enCurso = new ConcurrentHashMap<>();
+    private final MeterRegistry registry;
+
+    public LecturasAgrupadas(MeterRegistry registry) {
+        this.registry = registry;
+        Gauge.builder("lecturas.agrupadas.en-curso", enCurso, Map::size)
+                .description("Cargas de la BD en curso que pueden compartirse")
+                .register(registry);
+    }
+
+    @SuppressWarnings("unchecked")
+    public <T> T ejecuta(String lectura, Object clave, Supplier<T> carga) {
+        Object id = Arrays.asList(lectura, clave);
+        CompletableFuture<Object> nueva = new CompletableFuture<>();
+        CompletableFuture<Object> existente = enCurso.putIfAbsent(id, nueva);
+        if (existente != null) {
+            contador("lecturas.agrupadas", lectura).increment();
+            try {
+                return (T) existente.join();
+            } catch (CompletionException e) {
+                Throwable causa = e.getCause();
+                if (causa instanceof RuntimeException) {
+                    throw (RuntimeException) causa;
+                }
+                if (causa instanceof Error) {
+                    throw (Error) causa;
+                }
+                throw e;
+            }
+        }
+
+        contador("lecturas.agrupadas.cargas", lectura).increment();
+        try {
+            T resultado = carga.get();
+            nueva.complete(resultado);
+            return resultado;
+        } catch (Throwable e) {
+            // Cualquier fallo, también un Error (p. ej. OutOfMemoryError): si el
+            // futuro no se completara, las lecturas agrupadas esperarían siempre
+            nueva.completeExceptionally(e);
+            throw e;
+        } finally {
+            enCurso.remove(id, nueva);
+        }
+    }
+
+    private Counter contador(String nombre, String lectura) {
+        return Counter.builder(nombre)
+                .tag("lectura", lectura)
+                .register(registry);
+    }
+}
@@ -0,0 +1,57 @@
+package madstodolist.service;
+
+import madstodolist.dto.TareaData;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.function.Function;
+
+// Listado de tareas que se carga de la BD por bloques a medida que se
+// recorre, para poder pasarlo a una plantilla sin tener todas las tareas
+// en memoria. Cada bloque se pide con el id de la última tarea entregada
+// (null en el primero); un bloque vacío indica que no hay más.
+//
+// Antes de cargar cada bloque se ejecuta la acción indicada, que la vista
+// usa para enviar al cliente lo que lleva generado.
+public class ListadoPorBloques implements Iterable<TareaData> {
+
+    private final Function<Long, List<TareaData>> cargaBloque;
+    private final Runnable antesDeCargar;
+
+    public ListadoPorBloques(Function<Long, List<TareaData>> cargaBloque, Runnable antesDeCargar) {
+        this.cargaBloque = cargaBloque;
+        this.antesDeCargar = antesDeCargar;
+    }
+
+    @Override
+    public Iterator<TareaData> iterator() {
+        return new Iterator<TareaData>() {
+            private Iterator<TareaData> bloque = Collections.emptyIterator();
+            private Long ultimoId;
+            private boolean terminado;
+
+            @Override
+            public boolean hasNext() {
+                if (!bloque.hasNext() && !terminado) {
+                    antesDeCargar.run();
+                    List<TareaData> siguiente = cargaBloque.apply(ultimoId);
+                    terminado = siguiente.isEmpty();
+                    bloque = siguiente.iterator();
+                }
+                return bloque.hasNext();
+            }
+
+            @Override
+            public TareaData next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                TareaData tarea = bloque.next();
+                ultimoId = tarea.getId();
+                return tarea;
+            }
+        };
+    }
+}
@@ -0,0 +1,156 @@
+package madstodolist.service;
+
+// Tabla hash de long a long con direccionamiento abierto y sondeo lineal.
+// Claves y valores se guardan intercalados en un único array de primitivos
+// (clave en la posición par, valor en la impar), así que no hay un objeto
+// por entrada ni conversiones a Long, y una consulta suele resolverse
+// leyendo una sola línea de caché.
+//
+// La clave 0 se reserva para marcar los huecos libres. No es segura para
+// uso concurrente: quien la use debe sincronizar los accesos.
+final class MapaLongLong {
+
+    private static final int CAPACIDAD_MINIMA = 16;
+
+    private long[] tabla;
+    private int tamano;
+
+    MapaLongLong(int capacidadInicial) {
+        tabla = new long[2 * capacidadPara(capacidadInicial)];
+    }
+
+    // Valor asociado a la clave o 0 si no está
+    long get(long clave) {
+        // Se trabaja con una copia local del array para que una lectura
+        // concurrente con un redimensionado no se salga de sus límites
+        long[] t = tabla;
+        int mascara = (t.length >> 1) - 1;
+        if (clave == 0) {
+            return 0;
+        }
+        int i = posicionIdeal(clave, mascara);
+        for (int n = 0; n <= mascara; n++) {
+            long k = t[2 * i];
+            if (k == clave) {
+                return t[2 * i + 1];
+            }
+            if (k == 0) {
+                return 0;
+            }
+            i = (i + 1) & mascara;
+        }
+        return 0;
+    }
+
+    void put(long clave, long valor) {
+        if (clave == 0) {
+            throw new IllegalArgumentException("La clave 0 está reservada");
+        }
+        int mascara = (tabla.length >> 1) - 1;
+        int i = posicionIdeal(clave, mascara);
+        while (true) {
+            long k = tabla[2 * i];
+            if (k == clave) {
+                tabla[2 * i + 1] = valor;
+                return;
+            }
+            if (k == 0) {
+                tabla[2 * i] = clave;
+                tabla[2 * i + 1] = valor;
+                tamano++;
+                // Se mantiene por debajo de la mitad de ocupación para que
+                // las secuencias de sondeo sean cortas
+                if (tamano > (mascara + 1) >> 1) {
+                    redimensiona(2 * (mascara + 1));
+                }
+                return;
+            }
+            i = (i + 1) & mascara;
+        }
+    }
+
+    void remove(long clave) {
+        if (clave == 0) {
+            return;
+        }
+        int mascara = (tabla.length >> 1) - 1;
+        int hueco = posicionIdeal(clave, mascara);
+        while (tabla[2 * hueco] != clave) {
+            if (tabla[2 * hueco] == 0) {
+                return;
+            }
+            hueco = (hueco + 1) & mascara;
+        }
+        // En lugar de dejar una marca de borrado se desplazan hacia atrás
+        // las entradas siguientes que estarían mejor en el hueco
+        int j = hueco;
+        while (true) {
+            j = (j + 1) & mascara;
+            long k = tabla[2 * j];
+            if (k == 0) {
+                break;
+            }
+            int ideal = posicionIdeal(k, mascara);
+            if (((j - ideal) & mascara) >= ((j - hueco) & mascara)) {
+                tabla[2 * hueco] = k;
+                tabla[2 * hueco + 1] = tabla[2 * j + 1];
+                hueco = j;
+            }
+        }
+        tabla[2 * hueco] = 0;
+        tabla[2 * hueco + 1] = 0;
+        tamano--;
+    }
+
+    // Quita todas las entradas con el valor indicado. Recorre la tabla
+    // entera; devuelve el número de entradas quitadas.
+    int removeValor(long valor) {
+        long[] claves = new long[tamano];
+        int n = 0;
+        for (int p = 0; p < tabla.length; p += 2) {
+            if (tabla[p] != 0 && tabla[p + 1] == valor) {
+                claves[n++] = tabla[p];
+            }
+        }
+        for (int i = 0; i < n; i++) {
+            remove(claves[i]);
+        }
+        return n;
+    }
+
+    int size() {
+        return tamano;
+    }
+
+    private void redimensiona(int capacidad) {
+        long[] anterior = tabla;
+        long[] nueva = new long[2 * capacidad];
+        int mascara = capacidad - 1;
+        for (int p = 0; p < anterior.length; p += 2) {
+            long k = anterior[p];
+            if (k != 0) {
+                int i = posicionIdeal(k, mascara);
+                while (nueva[2 * i] != 0) {
+                    i = (i + 1) & mascara;
+                }
+                nueva[2 * i] = k;
+                nueva[2 * i + 1] = anterior[p + 1];
+            }
+        }
+        tabla = nueva;
+    }
+
+    // Los ids son consecutivos: se mezclan los bits para repartirlos
+    private static int posicionIdeal(long clave, int mascara) {
+        long h = clave * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mascara;
+    }
+
+    private static int capacidadPara(int entradas) {
+        int capacidad = CAPACIDAD_MINIMA;
+        while (capacidad < 2L * entradas && capacidad < (1 << 29)) {
+            capacidad <<= 1;
+        }
+        return capacidad;
+    }
+}
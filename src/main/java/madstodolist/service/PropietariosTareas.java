@@ -0,0 +1,145 @@
+package madstodolist.service;
+
+import madstodolist.eventos.TareaEvento;
+import madstodolist.repository.TareaRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.Iterator;
+import java.util.concurrent.locks.StampedLock;
+import java.util.stream.Stream;
+
+// Dueño de cada tarea (id de tarea -> id de usuario), en memoria, para
+// comprobar en los controllers que una tarea es del usuario logeado sin
+// cargarla de la BD.
+//
+// Se carga al arrancar y se mantiene con los TareaEvento de TareaService.
+// Como una tarea nunca cambia de dueño y los ids no se reutilizan, si una
+// tarea no está (importaciones, tareas creadas desde otra instancia) basta
+// con consultarla en la BD y apuntarla. Una entrada de una tarea ya borrada
+// sólo hace que la operación posterior no la encuentre.
+@Component
+public class PropietariosTareas implements SmartInitializingSingleton {
+
+    Logger logger = LoggerFactory.getLogger(PropietariosTareas.class);
+
+    // Las lecturas son optimistas: no bloquean y sólo se repiten con el
+    // cerrojo de lectura si ha habido una escritura a la vez
+    private final StampedLock cerrojo = new StampedLock();
+    private final MapaLongLong propietarios = new MapaLongLong(1024);
+
+    @Autowired
+    private TareaRepository tareaRepository;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Override
+    public void afterSingletonsInstantiated() {
+        TransactionTemplate lectura = new TransactionTemplate(transactionManager);
+        lectura.setReadOnly(true);
+        long inicio = System.currentTimeMillis();
+        lectura.executeWithoutResult(estado -> {
+            try (Stream<Object[]> filas = tareaRepository.streamPropietarios()) {
+                Iterator<Object[]> it = filas.iterator();
+                while (it.hasNext()) {
+                    Object[] fila = it.next();
+                    pon((Long) fila[0], (Long) fila[1]);
+                }
+            }
+        });
+        logger.info("Propietarios de " + numeroTareas() + " tareas cargados en "
+                + (System.currentTimeMillis() - inicio) + " ms");
+    }
+
+    // Id del usuario dueño de la tarea, o null si la tarea no existe
+    public Long propietario(Long idTarea) {
+        long stamp = cerrojo.tryOptimisticRead();
+        long propietario = propietarios.get(idTarea);
+        if (!cerrojo.validate(stamp)) {
+            stamp = cerrojo.readLock();
+            try {
+                propietario = propietarios.get(idTarea);
+            } finally {
+                cerrojo.unlockRead(stamp);
+            }
+        }
+        if (propietario != 0) {
+            return propietario;
+        }
+        Long deBd = tareaRepository.findUsuarioIdById(idTarea);
+        if (deBd != null) {
+            pon(idTarea, deBd);
+        }
+        return deBd;
+    }
+
+    public boolean esPropietario(Long idUsuario, Long idTarea) {
+        return idUsuario != null && idUsuario.equals(propietario(idTarea));
+    }
+
+    public int numeroTareas() {
+        long stamp = cerrojo.readLock();
+        try {
+            return propietarios.size();
+        } finally {
+            cerrojo.unlockRead(stamp);
+        }
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void alCambiarTarea(TareaEvento evento) {
+        switch (evento.getTipo()) {
+            case CREADA:
+                pon(evento.getTareaId(), evento.getUsuarioId());
+                break;
+            case BORRADA:
+                quita(evento.getTareaId());
+                break;
+            case IMPORTADAS:
+                for (Long idTarea : tareaRepository.findIdsByUsuarioId(evento.getUsuarioId())) {
+                    pon(idTarea, evento.getUsuarioId());
+                }
+                break;
+            case PURGADAS:
+                quitaUsuario(evento.getUsuarioId());
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void pon(Long idTarea, Long idUsuario) {
+        long stamp = cerrojo.writeLock();
+        try {
+            propietarios.put(idTarea, idUsuario);
+        } finally {
+            cerrojo.unlockWrite(stamp);
+        }
+    }
+
+    // Recorre la tabla entera, sólo se usa al eliminar una cuenta
+    private void quitaUsuario(Long idUsuario) {
+        long stamp = cerrojo.writeLock();
+        try {
+            propietarios.removeValor(idUsuario);
+        } finally {
+            cerrojo.unlockWrite(stamp);
+        }
+    }
+
+    private void quita(Long idTarea) {
+        long stamp = cerrojo.writeLock();
+        try {
+            propietarios.remove(idTarea);
+        } finally {
+            cerrojo.unlockWrite(stamp);
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package madstodolist.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import madstodolist.repository.TareaRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalTime;
+
+// Elimina físicamente las tareas borradas. Al borrar una tarea sólo se
+// marca (Tarea.borrada) y deja de verse; las filas se quitan aquí, fuera de
+// las horas de más uso, con DELETE por lotes pequeños, cada uno en su
+// transacción, y una pausa entre lotes. Cada pasada borra como mucho un
+// número máximo de filas; lo que quede se borra en las siguientes.
+//
+// La franja horaria va de la hora de inicio (incluida) a la de fin
+// (excluida) y puede pasar de medianoche. Si ambas son iguales se purga a
+// cualquier hora.
+@Component
+public class PurgadorTareasBorradas {
+
+    Logger logger = LoggerFactory.getLogger(PurgadorTareasBorradas.class);
+
+    @Autowired
+    private TareaRepository tareaRepository;
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Value("${tareas.lote-purga:200}")
+    private int tamanoLote;
+
+    @Value("${tareas.pausa-purga-ms:100}")
+    private long pausaMs;
+
+    @Value("${tareas.max-purga-por-pasada:20000}")
+    private int maximoPorPasada;
+
+    @Value("${tareas.purga-hora-inicio:2}")
+    private int horaInicio;
+
+    @Value("${tareas.purga-hora-fin:6}")
+    private int horaFin;
+
+    private final Counter tareasPurgadas;
+
+    public PurgadorTareasBorradas(MeterRegistry registry) {
+        tareasPurgadas = Counter.builder("tareas.purga.filas")
+                .description("Tareas borradas eliminadas físicamente de la BD")
+                .register(registry);
+    }
+
+    @Scheduled(fixedDelayString = "${tareas.purga-ms:60000}", initialDelayString = "${tareas.purga-ms:60000}")
+    public void purgaPeriodicamente() {
+        if (enFranja(LocalTime.now())) {
+            purga(maximoPorPasada);
+        }
+    }
+
+    boolean enFranja(LocalTime hora) {
+        int h = hora.getHour();
+        if (horaInicio == horaFin) {
+            return true;
+        }
+        if (horaInicio < horaFin) {
+            return h >= horaInicio && h < horaFin;
+        }
+        return h >= horaInicio || h < horaFin;
+    }
+
+    // Devuelve el número de tareas eliminadas, como mucho "maximo"
+    public int purga(int maximo) {
+        int total = 0;
+        while (total < maximo) {
+            int lote = Math.min(tamanoLote, maximo - total);
+            int borradas = transactionTemplate.execute(estado -> tareaRepository.purgaLoteBorradas(lote));
+            total += borradas;
+            tareasPurgadas.increment(borradas);
+            if (borradas < lote || total == maximo) {
+                break;
+            }
+            try {
+                Thread.sleep(pausaMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        if (total > 0) {
+            logger.debug("Eliminadas " + total + " tareas borradas");
+        }
+        return total;
+    }
+}
@@ -0,0 +1,111 @@
+package madstodolist.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import madstodolist.eventos.TareaEvento;
+import madstodolist.repository.TareaBorradaRepository;
+import madstodolist.repository.TareaRepository;
+import madstodolist.repository.UsuarioRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.List;
+
+// Elimina en segundo plano las cuentas dadas de baja. Las tareas se borran
+// con DELETE por lotes de tamaño fijo, cada uno en su transacción, y entre
+// lote y lote se hace una pausa para no competir con las peticiones de los
+// usuarios por la BD. Al terminar se borran sus marcas de tareas borradas y
+// el propio usuario.
+//
+// El avance puede consultarse con UsuarioService.estadoBaja y con las
+// métricas usuarios.purga.tareas y usuarios.purga.usuarios.
+@Component
+public class PurgadorUsuarios {
+
+    Logger logger = LoggerFactory.getLogger(PurgadorUsuarios.class);
+
+    @Autowired
+    private UsuarioRepository usuarioRepository;
+    @Autowired
+    private TareaRepository tareaRepository;
+    @Autowired
+    private TareaBorradaRepository tareaBorradaRepository;
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+    @Autowired
+    private UsuarioService usuarioService;
+
+    @Value("${usuarios.lote-purga:500}")
+    private int tamanoLote;
+
+    @Value("${usuarios.pausa-purga-ms:50}")
+    private long pausaMs;
+
+    private final Counter tareasPurgadas;
+    private final Counter usuariosPurgados;
+
+    public PurgadorUsuarios(MeterRegistry registry) {
+        tareasPurgadas = Counter.builder("usuarios.purga.tareas")
+                .description("Tareas borradas de cuentas dadas de baja")
+                .register(registry);
+        usuariosPurgados = Counter.builder("usuarios.purga.usuarios")
+                .description("Cuentas dadas de baja eliminadas por completo")
+                .register(registry);
+    }
+
+    @Scheduled(fixedDelayString = "${usuarios.purga-ms:10000}", initialDelayString = "${usuarios.purga-ms:10000}")
+    public void purgaPeriodicamente() {
+        purga();
+    }
+
+    // Devuelve el número de usuarios eliminados
+    public int purga() {
+        int eliminados = 0;
+        List<Long> inactivos = usuarioRepository.findIdsInactivos();
+        usuarioService.registraBajas(inactivos);
+        for (Long idUsuario : inactivos) {
+            try {
+                purgaUsuario(idUsuario);
+                eliminados++;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (RuntimeException e) {
+                // Por ejemplo, si se ha llegado a crear una tarea mientras
+                // se desactivaba la cuenta; se reintenta en la siguiente pasada
+                logger.warn("No se ha podido eliminar el usuario " + idUsuario + ": " + e.getMessage());
+            }
+        }
+        return eliminados;
+    }
+
+    private void purgaUsuario(Long idUsuario) throws InterruptedException {
+        long total = 0;
+        int borradas;
+        do {
+            borradas = transactionTemplate.execute(estado -> tareaRepository.purgaLoteUsuario(idUsuario, tamanoLote));
+            total += borradas;
+            tareasPurgadas.increment(borradas);
+            if (borradas == tamanoLote) {
+                logger.debug("Borradas " + total + " tareas del usuario " + idUsuario + " dado de baja");
+                Thread.sleep(pausaMs);
+            }
+        } while (borradas == tamanoLote);
+
+        transactionTemplate.executeWithoutResult(estado -> {
+            tareaBorradaRepository.deleteByUsuarioId(idUsuario);
+            usuarioRepository.deleteInactivo(idUsuario);
+            eventPublisher.publishEvent(TareaEvento.purgadas(idUsuario));
+        });
+        usuariosPurgados.increment();
+        logger.info("Eliminado el usuario " + idUsuario + " dado de baja y sus " + total + " tareas");
+    }
+}
@@ -0,0 +1,10 @@
+package madstodolist.service;
+
+// Un registro de una importación supera la longitud máxima. El registro ya
+// se ha descartado de la entrada, así que se puede seguir con el siguiente.
+public class RegistroDemasiadoLargoException extends TareaServiceException {
+
+    public RegistroDemasiadoLargoException(String message) {
+        super(message);
+    }
+}
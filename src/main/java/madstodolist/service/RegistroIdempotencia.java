@@ -0,0 +1,122 @@
+package madstodolist.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.DigestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+// Recuerda el resultado de las operaciones hechas con una clave de
+// idempotencia (cabecera Idempotency-Key) durante un tiempo limitado. Si
+// el cliente repite la petición con la misma clave se devuelve el mismo
+// resultado sin volver a ejecutar la operación ni consultar la BD. Con
+// cada clave se guarda también un resumen (MD5) del cuerpo de la petición:
+// si la clave llega con otro cuerpo es un error del cliente y se rechaza en
+// lugar de devolver el resultado de una petición distinta.
+//
+// Todas las claves tienen la misma caducidad, así que el orden de
+// inserción es también el orden de caducidad: las claves se guardan en un
+// LinkedHashMap y se descartan por la cabeza, tanto las caducadas como la
+// más antigua cuando se supera el máximo. Quitar una clave del mapa la
+// quita también del orden. El cerrojo sólo protege el mapa; la operación
+// se ejecuta fuera de él.
+@Component
+public class RegistroIdempotencia {
+
+    private final Map<String, Entrada> entradas;
+    private final long ttlNanos;
+
+    public RegistroIdempotencia(@Value("${idempotencia.ttl-segundos:3600}") long ttlSegundos,
+                                @Value("${idempotencia.max-claves:10000}") int maxClaves) {
+        this.ttlNanos = TimeUnit.SECONDS.toNanos(ttlSegundos);
+        this.entradas = new LinkedHashMap<String, Entrada>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entrada> masAntigua) {
+                return size() > maxClaves;
+            }
+        };
+    }
+
+    // Ejecuta la operación una sola vez por usuario y clave. Si la clave es
+    // null se ejecuta siempre. Una petición repetida mientras la original
+    // sigue en curso espera a su resultado. Si la operación falla la clave
+    // se olvida para que el cliente pueda reintentar. Lanza
+    // ClaveIdempotenciaReutilizadaException si la clave ya se usó con otro
+    // cuerpo.
+    @SuppressWarnings("unchecked")
+    public <T> T ejecuta(Long usuarioId, String clave, String cuerpo, Supplier<T> operacion) {
+        if (clave == null || clave.isEmpty()) {
+            return operacion.get();
+        }
+        String id = usuarioId + ":" + clave;
+        long ahora = System.nanoTime();
+        Entrada nueva = new Entrada(ahora + ttlNanos, resumen(cuerpo));
+        Entrada existente;
+        synchronized (entradas) {
+            descartaCaducadas(ahora);
+            existente = entradas.putIfAbsent(id, nueva);
+        }
+        if (existente != null) {
+            if (!existente.resumenCuerpo.equals(nueva.resumenCuerpo)) {
+                throw new ClaveIdempotenciaReutilizadaException("La clave " + clave + " ya se ha usado con otra petición");
+            }
+            try {
+                return (T) existente.resultado.join();
+            } catch (CompletionException e) {
+                throw (RuntimeException) e.getCause();
+            }
+        }
+
+        try {
+            T resultado = operacion.get();
+            nueva.resultado.complete(resultado);
+            return resultado;
+        } catch (RuntimeException e) {
+            synchronized (entradas) {
+                entradas.remove(id, nueva);
+            }
+            nueva.resultado.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    public int numeroClaves() {
+        synchronized (entradas) {
+            return entradas.size();
+        }
+    }
+
+    private static String resumen(String cuerpo) {
+        return DigestUtils.md5DigestAsHex((cuerpo == null ? "" : cuerpo).getBytes(StandardCharsets.UTF_8));
+    }
+
+    // Se llama con el cerrojo de entradas
+    private void descartaCaducadas(long ahora) {
+        Iterator<Entrada> it = entradas.values().iterator();
+        while (it.hasNext() && it.next().caducada(ahora)) {
+            it.remove();
+        }
+    }
+
+    private static class Entrada {
+        private final long caducidad;
+        private final String resumenCuerpo;
+        private final CompletableFuture<Object> resultado = new CompletableFuture<>();
+
+        Entrada(long caducidad, String resumenCuerpo) {
+            this.caducidad = caducidad;
+            this.resumenCuerpo = resumenCuerpo;
+        }
+
+        boolean caducada(long ahora) {
+            return ahora - caducidad > 0;
+        }
+    }
+}
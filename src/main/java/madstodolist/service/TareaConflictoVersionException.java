@@ -0,0 +1,9 @@
+package madstodolist.service;
+
+// La tarea se ha modificado desde que el cliente la leyó
+public class TareaConflictoVersionException extends TareaServiceException {
+
+    public TareaConflictoVersionException(String message) {
+        super(message);
+    }
+}
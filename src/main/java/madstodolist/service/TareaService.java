@@ -1,19 +1,44 @@
 package madstodolist.service;
 
+import madstodolist.dto.CambiosTareasData;
+import madstodolist.model.EstadoTarea;
 import madstodolist.model.Tarea;
+import madstodolist.model.TareaBorrada;
+import madstodolist.repository.TareaBorradaRepository;
 import madstodolist.repository.TareaRepository;
 import madstodolist.model.Usuario;
 import madstodolist.repository.UsuarioRepository;
 import madstodolist.dto.TareaData;
+import madstodolist.eventos.TareaEvento;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.modelmapper.ModelMapper;
 
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
 
 import java.util.stream.Collectors;
 
@@ -23,38 +48,141 @@ public class TareaService {
 
     Logger logger = LoggerFactory.getLogger(TareaService.class);
 
+    // Máximo de tareas que se pueden modificar o borrar en una operación en lote
+    public static final int MAX_TAREAS_LOTE = 1000;
+
+    // Máximo de ids por consulta IN. Hibernate rellena la lista hasta la
+    // siguiente potencia de dos (hibernate.query.in_clause_parameter_padding),
+    // así que con bloques de este tamaño sólo hay 10 variantes de la consulta.
+    static final int MAX_IDS_CONSULTA = 512;
+
     @Autowired
     private UsuarioRepository usuarioRepository;
     @Autowired
     private TareaRepository tareaRepository;
     @Autowired
+    private TareaBorradaRepository tareaBorradaRepository;
+    @Autowired
     private ModelMapper modelMapper;
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+    @PersistenceContext
+    private EntityManager entityManager;
+    @Autowired
+    private LecturasAgrupadas lecturasAgrupadas;
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Value("${listado.tamano-bloque:200}")
+    private int tamanoBloqueListado;
 
     @Transactional
     public TareaData nuevaTareaUsuario(Long idUsuario, String tituloTarea) {
         logger.debug("Añadiendo tarea " + tituloTarea + " al usuario " + idUsuario);
         Usuario usuario = usuarioRepository.findById(idUsuario).orElse(null);
-        if (usuario == null) {
+        if (usuario == null || !usuario.isActivo()) {
             throw new TareaServiceException("Usuario " + idUsuario + " no existe al crear tarea " + tituloTarea);
         }
         Tarea tarea = new Tarea(usuario, tituloTarea);
+        tarea.setSecuencia(siguienteSecuencia(idUsuario));
         tareaRepository.save(tarea);
-        return modelMapper.map(tarea, TareaData.class);
+        TareaData tareaData = modelMapper.map(tarea, TareaData.class);
+        eventPublisher.publishEvent(TareaEvento.creada(tareaData));
+        return tareaData;
     }
 
-    @Transactional(readOnly = true)
+    // Los listados de tareas se leen a través de LecturasAgrupadas: las
+    // peticiones simultáneas del mismo listado (varias pestañas o
+    // dispositivos, refrescos seguidos) comparten una única consulta. La
+    // clave incluye la versión de las tareas del usuario, así que nadie
+    // recibe un listado anterior a sus propios cambios. La espera se hace
+    // fuera de cualquier transacción para no retener conexiones.
+    // Las listas devueltas son compartidas y no se pueden modificar.
     public List<TareaData> allTareasUsuario(Long idUsuario) {
-    logger.debug("Devolviendo todas las tareas del usuario " + idUsuario);
-    Usuario usuario = usuarioRepository.findByIdWithTareas(idUsuario);
-    if (usuario == null) {
-        throw new TareaServiceException("Usuario " + idUsuario + " no existe al listar tareas ");
-    }
-    List<TareaData> tareas = usuario.getTareas().stream()
-            .map(tarea -> modelMapper.map(tarea, TareaData.class))
-            .collect(Collectors.toList());
-    Collections.sort(tareas, (a, b) -> a.getId() < b.getId() ? -1 : a.getId() == b.getId() ? 0 : 1);
-    return tareas;
-}
+        Long version = usuarioRepository.findVersionTareasById(idUsuario);
+        if (version == null) {
+            throw new TareaServiceException("Usuario " + idUsuario + " no existe al listar tareas ");
+        }
+        return lecturasAgrupadas.ejecuta("tareas-usuario", Arrays.asList(idUsuario, version),
+                () -> enLectura(() -> cargaTareasUsuario(idUsuario)));
+    }
+
+    private List<TareaData> cargaTareasUsuario(Long idUsuario) {
+        logger.debug("Devolviendo todas las tareas del usuario " + idUsuario);
+        Usuario usuario = usuarioRepository.findByIdWithTareas(idUsuario);
+        if (usuario == null) {
+            throw new TareaServiceException("Usuario " + idUsuario + " no existe al listar tareas ");
+        }
+        List<TareaData> tareas = usuario.getTareas().stream()
+                .map(tarea -> modelMapper.map(tarea, TareaData.class))
+                .collect(Collectors.toList());
+        Collections.sort(tareas, (a, b) -> a.getId() < b.getId() ? -1 : a.getId() == b.getId() ? 0 : 1);
+        return Collections.unmodifiableList(tareas);
+    }
+
+    // Tareas del usuario en el estado indicado (todas si es null) y en el
+    // orden indicado, filtradas y ordenadas por la BD
+    public List<TareaData> tareasUsuario(Long idUsuario, EstadoTarea estado, Sort orden) {
+        Long version = usuarioRepository.findVersionTareasById(idUsuario);
+        return lecturasAgrupadas.ejecuta("tareas-usuario-filtro", Arrays.asList(idUsuario, version, estado, orden),
+                () -> enLectura(() -> {
+                    logger.debug("Devolviendo las tareas " + (estado == null ? "" : estado + " ")
+                            + "del usuario " + idUsuario);
+                    List<Tarea> tareas = estado == null
+                            ? tareaRepository.findByUsuarioId(idUsuario, orden)
+                            : tareaRepository.findByUsuarioIdAndEstado(idUsuario, estado, orden);
+                    return Collections.unmodifiableList(tareas.stream()
+                            .map(tarea -> modelMapper.map(tarea, TareaData.class))
+                            .collect(Collectors.toList()));
+                }));
+    }
+
+    // Tareas del usuario en el estado indicado (todas si es null), por orden
+    // de id ascendente o descendente, cargadas por bloques según se recorren.
+    // Cada bloque se lee en su propia transacción corta, así que recorrerlo
+    // (por ejemplo, mientras se genera la página) no retiene ninguna conexión.
+    public ListadoPorBloques tareasUsuarioPorBloques(Long idUsuario, EstadoTarea estado, boolean recientes,
+                                                     Runnable antesDeCadaBloque) {
+        PageRequest bloque = PageRequest.of(0, tamanoBloqueListado);
+        return new ListadoPorBloques(ultimoId -> enLectura(() -> {
+            logger.debug("Cargando bloque de tareas del usuario " + idUsuario + " tras la tarea " + ultimoId);
+            List<Tarea> tareas;
+            if (recientes) {
+                long hastaId = ultimoId == null ? Long.MAX_VALUE : ultimoId;
+                tareas = estado == null
+                        ? tareaRepository.findBloqueDescendente(idUsuario, hastaId, bloque)
+                        : tareaRepository.findBloqueDescendente(idUsuario, EnumSet.of(estado), hastaId, bloque);
+            } else {
+                long desdeId = ultimoId == null ? 0L : ultimoId;
+                tareas = estado == null
+                        ? tareaRepository.findBloqueAscendente(idUsuario, desdeId, bloque)
+                        : tareaRepository.findBloqueAscendente(idUsuario, EnumSet.of(estado), desdeId, bloque);
+            }
+            return tareas.stream()
+                    .map(tarea -> modelMapper.map(tarea, TareaData.class))
+                    .collect(Collectors.toList());
+        }), antesDeCadaBloque);
+    }
+
+    private <T> T enLectura(Supplier<T> lectura) {
+        TransactionTemplate transaccion = new TransactionTemplate(transactionManager);
+        transaccion.setReadOnly(true);
+        return transaccion.execute(estado -> lectura.get());
+    }
+
+    // Recorre las tareas del usuario en orden de id sin cargarlas todas en
+    // memoria. Cada tarea se separa del contexto de persistencia después de
+    // entregarla, así que el consumo de memoria no depende del número de tareas.
+    @Transactional(readOnly = true)
+    public void recorreTareasUsuario(Long idUsuario, Consumer<TareaData> consumidor) {
+        logger.debug("Recorriendo las tareas del usuario " + idUsuario);
+        try (Stream<Tarea> tareas = tareaRepository.streamByUsuarioId(idUsuario)) {
+            tareas.forEach(tarea -> {
+                consumidor.accept(modelMapper.map(tarea, TareaData.class));
+                entityManager.detach(tarea);
+            });
+        }
+    }
 
     @Transactional(readOnly = true)
     public TareaData findById(Long tareaId) {
@@ -64,6 +192,31 @@ public class TareaService {
         else return modelMapper.map(tarea, TareaData.class);
     }
 
+    // Tareas del usuario con los ids indicados, en el mismo orden. Los ids
+    // que no existen o son de otro usuario se omiten. Las consultas se hacen
+    // en bloques de MAX_IDS_CONSULTA ids.
+    @Transactional(readOnly = true)
+    public List<TareaData> tareasUsuarioPorIds(Long idUsuario, Collection<Long> idsTareas) {
+        List<Long> ids = new ArrayList<>(new LinkedHashSet<>(idsTareas));
+        logger.debug("Buscando " + ids.size() + " tareas del usuario " + idUsuario);
+        Map<Long, TareaData> encontradas = new HashMap<>();
+        for (int inicio = 0; inicio < ids.size(); inicio += MAX_IDS_CONSULTA) {
+            List<Long> bloque = ids.subList(inicio, Math.min(inicio + MAX_IDS_CONSULTA, ids.size()));
+            for (Tarea tarea : tareaRepository.findByIdInAndUsuarioId(bloque, idUsuario)) {
+                encontradas.put(tarea.getId(), modelMapper.map(tarea, TareaData.class));
+                entityManager.detach(tarea);
+            }
+        }
+        List<TareaData> tareas = new ArrayList<>(encontradas.size());
+        for (Long id : ids) {
+            TareaData tarea = encontradas.get(id);
+            if (tarea != null) {
+                tareas.add(tarea);
+            }
+        }
+        return tareas;
+    }
+
     @Transactional
     public TareaData modificaTarea(Long idTarea, String nuevoTitulo) {
         logger.debug("Modificando tarea " + idTarea + " - " + nuevoTitulo);
@@ -72,8 +225,48 @@ public class TareaService {
             throw new TareaServiceException("No existe tarea con id " + idTarea);
         }
         tarea.setTitulo(nuevoTitulo);
+        tarea.setSecuencia(siguienteSecuencia(tarea.getUsuario().getId()));
         tarea = tareaRepository.save(tarea);
-        return modelMapper.map(tarea, TareaData.class);
+        entityManager.flush();
+        TareaData tareaData = modelMapper.map(tarea, TareaData.class);
+        eventPublisher.publishEvent(TareaEvento.modificada(tareaData));
+        return tareaData;
+    }
+
+    // Modificación con control de versión en una única sentencia UPDATE, sin
+    // leer antes la tarea ni bloquearla. Lanza TareaConflictoVersionException
+    // si la tarea ha cambiado desde la versión indicada.
+    @Transactional
+    public TareaData modificaTarea(Long idUsuario, Long idTarea, String nuevoTitulo, long version) {
+        logger.debug("Modificando tarea " + idTarea + " versión " + version + " - " + nuevoTitulo);
+        long secuencia = siguienteSecuencia(idUsuario);
+        if (tareaRepository.updateTituloByIdAndVersion(idTarea, idUsuario, version, nuevoTitulo, secuencia) == 0) {
+            if (tareaRepository.existsByIdAndUsuarioId(idTarea, idUsuario)) {
+                throw new TareaConflictoVersionException("La tarea " + idTarea + " ya no está en la versión " + version);
+            }
+            throw new TareaServiceException("No existe tarea con id " + idTarea);
+        }
+        // Se vuelve a leer la fila para devolver el estado y las fechas; la
+        // tarea no estaba cargada, así que no hay una copia desactualizada
+        TareaData tareaData = modelMapper.map(tareaRepository.findById(idTarea).get(), TareaData.class);
+        eventPublisher.publishEvent(TareaEvento.modificada(tareaData));
+        return tareaData;
+    }
+
+    @Transactional
+    public TareaData modificaEstadoTarea(Long idTarea, EstadoTarea estado) {
+        logger.debug("Cambiando el estado de la tarea " + idTarea + " a " + estado);
+        Tarea tarea = tareaRepository.findById(idTarea).orElse(null);
+        if (tarea == null) {
+            throw new TareaServiceException("No existe tarea con id " + idTarea);
+        }
+        tarea.setEstado(estado);
+        tarea.setSecuencia(siguienteSecuencia(tarea.getUsuario().getId()));
+        // flush para que la versión y la fecha de modificación estén actualizadas
+        entityManager.flush();
+        TareaData tareaData = modelMapper.map(tarea, TareaData.class);
+        eventPublisher.publishEvent(TareaEvento.modificada(tareaData));
+        return tareaData;
     }
 
     @Transactional
@@ -83,7 +276,105 @@ public class TareaService {
         if (tarea == null) {
             throw new TareaServiceException("No existe tarea con id " + idTarea);
         }
-        tareaRepository.delete(tarea);
+        // Sólo se marca; PurgadorTareasBorradas borra la fila más tarde
+        tarea.setBorrada(true);
+        long secuencia = siguienteSecuencia(tarea.getUsuario().getId());
+        entityManager.persist(new TareaBorrada(idTarea, tarea.getUsuario().getId(), secuencia));
+        eventPublisher.publishEvent(TareaEvento.borrada(tarea.getUsuario().getId(), idTarea));
+    }
+
+    // Borra de una vez varias tareas del usuario. Si alguna no existe o no
+    // es suya no se borra ninguna.
+    @Transactional
+    public int borraTareas(Long idUsuario, Collection<Long> idsTareas) {
+        Set<Long> ids = compruebaLote(idUsuario, idsTareas);
+        logger.debug("Borrando " + ids.size() + " tareas del usuario " + idUsuario);
+        int borradas = tareaRepository.marcaBorradasByIdInAndUsuarioId(ids, idUsuario);
+        long secuencia = siguienteSecuencia(idUsuario);
+        for (Long id : ids) {
+            // persist en lugar de save: el id ya está asignado y save haría un SELECT por cada marca
+            entityManager.persist(new TareaBorrada(id, idUsuario, secuencia));
+            eventPublisher.publishEvent(TareaEvento.borrada(idUsuario, id));
+        }
+        return borradas;
+    }
+
+    // Cambia de una vez el título de varias tareas del usuario. Si alguna no
+    // existe o no es suya no se modifica ninguna.
+    @Transactional
+    public List<TareaData> modificaTituloTareas(Long idUsuario, Collection<Long> idsTareas, String nuevoTitulo) {
+        Set<Long> ids = compruebaLote(idUsuario, idsTareas);
+        logger.debug("Modificando " + ids.size() + " tareas del usuario " + idUsuario + " - " + nuevoTitulo);
+        tareaRepository.updateTituloByIdInAndUsuarioId(ids, idUsuario, nuevoTitulo, siguienteSecuencia(idUsuario));
+        // Se leen después del UPDATE (no estaban cargadas) para devolver y
+        // publicar las versiones nuevas en un único evento
+        List<TareaData> modificadas = new ArrayList<>(ids.size());
+        for (Tarea tarea : tareaRepository.findAllById(ids)) {
+            modificadas.add(modelMapper.map(tarea, TareaData.class));
+        }
+        modificadas.sort(Comparator.comparing(TareaData::getId));
+        eventPublisher.publishEvent(TareaEvento.modificadas(idUsuario, modificadas));
+        return modificadas;
+    }
+
+    // La propiedad de todas las tareas se comprueba con una sola consulta
+    private Set<Long> compruebaLote(Long idUsuario, Collection<Long> idsTareas) {
+        if (idsTareas == null || idsTareas.isEmpty()) {
+            throw new TareaServiceException("No se ha indicado ninguna tarea");
+        }
+        Set<Long> ids = new LinkedHashSet<>(idsTareas);
+        if (ids.size() > MAX_TAREAS_LOTE) {
+            throw new TareaServiceException("No se pueden modificar más de " + MAX_TAREAS_LOTE + " tareas a la vez");
+        }
+        if (tareaRepository.countByIdInAndUsuarioId(ids, idUsuario) != ids.size()) {
+            throw new TareaServiceException("Alguna de las tareas no existe o no es del usuario " + idUsuario);
+        }
+        return ids;
+    }
+
+    // Avanza la secuencia de cambios del usuario (la versión de su lista de
+    // tareas) y devuelve el nuevo valor. La fila del usuario queda bloqueada
+    // hasta el final de la transacción, así que los valores se confirman en
+    // orden y un cliente nunca se salta un cambio al sincronizar.
+    private long siguienteSecuencia(Long idUsuario) {
+        usuarioRepository.incrementaVersionTareas(idUsuario);
+        return usuarioRepository.findVersionTareasById(idUsuario);
+    }
+
+    // Cambios en las tareas del usuario posteriores a la secuencia "desde":
+    // tareas creadas o modificadas e ids de tareas borradas. Si las marcas de
+    // borrado de ese periodo ya se han compactado se devuelven todas las
+    // tareas y el cliente debe sustituir su copia local.
+    @Transactional(readOnly = true)
+    public CambiosTareasData cambiosTareasUsuario(Long idUsuario, long desde) {
+        // La secuencia se lee antes que los cambios: si se confirma alguno
+        // entretanto, el cliente lo recibirá otra vez en la próxima sincronización
+        Long secuencia = usuarioRepository.findVersionTareasById(idUsuario);
+        if (secuencia == null) {
+            throw new TareaServiceException("Usuario " + idUsuario + " no existe al sincronizar tareas");
+        }
+        CambiosTareasData cambios = new CambiosTareasData();
+        cambios.setSecuencia(secuencia);
+        if (desde < usuarioRepository.findSecuenciaCompactadaById(idUsuario)) {
+            logger.debug("Sincronización completa de las tareas del usuario " + idUsuario);
+            cambios.setCompleto(true);
+            cambios.setTareas(cargaTareasUsuario(idUsuario));
+            cambios.setBorradas(Collections.<Long>emptyList());
+            return cambios;
+        }
+        logger.debug("Cambios en las tareas del usuario " + idUsuario + " desde " + desde);
+        cambios.setTareas(tareaRepository.findByUsuarioIdAndSecuenciaGreaterThan(idUsuario, desde).stream()
+                .map(tarea -> modelMapper.map(tarea, TareaData.class))
+                .collect(Collectors.toList()));
+        cambios.setBorradas(tareaBorradaRepository.findIdsByUsuarioIdAndSecuenciaGreaterThan(idUsuario, desde));
+        return cambios;
+    }
+
+    // Versión actual de la lista de tareas del usuario o null si no existe.
+    // Cambia siempre que se crea, modifica o borra alguna de sus tareas.
+    @Transactional(readOnly = true)
+    public Long versionTareasUsuario(Long idUsuario) {
+        return usuarioRepository.findVersionTareasById(idUsuario);
     }
 
     @Transactional
@@ -1,6 +1,10 @@
 package madstodolist.service;
 
+import madstodolist.auditoria.Auditoria;
+import madstodolist.auditoria.TipoRegistroAuditoria;
+import madstodolist.dto.BajaUsuarioData;
 import madstodolist.dto.UsuarioData;
+import madstodolist.repository.TareaRepository;
 import madstodolist.model.Usuario;
 import madstodolist.repository.UsuarioRepository;
 import org.modelmapper.ModelMapper;
@@ -10,7 +14,11 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import javax.annotation.PostConstruct;
+import java.util.Collection;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 @Service
 public class UsuarioService {
@@ -19,19 +27,39 @@ public class UsuarioService {
 
     public enum LoginStatus {LOGIN_OK, USER_NOT_FOUND, ERROR_PASSWORD}
 
+    // Ids de las cuentas dadas de baja, para cortar el acceso de las
+    // sesiones que sigan abiertas. Se mantienen también después de que
+    // PurgadorUsuarios elimine la cuenta.
+    private final Set<Long> usuariosDeBaja = ConcurrentHashMap.newKeySet();
+
     @Autowired
     private UsuarioRepository usuarioRepository;
     @Autowired
     private ModelMapper modelMapper;
+    @Autowired
+    private LecturasAgrupadas lecturasAgrupadas;
+    @Autowired
+    private TareaRepository tareaRepository;
+    @Autowired
+    private Auditoria auditoria;
+
+    @PostConstruct
+    void cargaBajas() {
+        usuariosDeBaja.addAll(usuarioRepository.findIdsInactivos());
+    }
 
     @Transactional(readOnly = true)
     public LoginStatus login(String eMail, String password) {
         Optional<Usuario> usuario = usuarioRepository.findByEmail(eMail);
-        if (!usuario.isPresent()) {
+        if (!usuario.isPresent() || !usuario.get().isActivo()) {
+            auditoria.registraLogin(TipoRegistroAuditoria.LOGIN_USUARIO_NO_ENCONTRADO,
+                    usuario.map(Usuario::getId).orElse(null));
             return LoginStatus.USER_NOT_FOUND;
         } else if (!usuario.get().getPassword().equals(password)) {
+            auditoria.registraLogin(TipoRegistroAuditoria.LOGIN_ERROR_PASSWORD, usuario.get().getId());
             return LoginStatus.ERROR_PASSWORD;
         } else {
+            auditoria.registraLogin(TipoRegistroAuditoria.LOGIN_OK, usuario.get().getId());
             return LoginStatus.LOGIN_OK;
         }
     }
@@ -55,6 +83,44 @@ public class UsuarioService {
         }
     }
 
+    // Baja de la cuenta: el usuario queda desactivado al momento (no puede
+    // entrar ni crear tareas) y PurgadorUsuarios borra después sus tareas
+    // y el propio usuario
+    @Transactional
+    public void darDeBaja(Long idUsuario) {
+        logger.debug("Dando de baja al usuario " + idUsuario);
+        if (usuarioRepository.desactiva(idUsuario) == 0) {
+            throw new UsuarioServiceException("El usuario " + idUsuario + " no existe");
+        }
+        usuariosDeBaja.add(idUsuario);
+    }
+
+    // Se consulta en cada petición, sin ir a la BD
+    public boolean estaDadoDeBaja(Long idUsuario) {
+        return usuariosDeBaja.contains(idUsuario);
+    }
+
+    // Las bajas hechas desde otra instancia las apunta PurgadorUsuarios
+    public void registraBajas(Collection<Long> idsUsuarios) {
+        usuariosDeBaja.addAll(idsUsuarios);
+    }
+
+    @Transactional(readOnly = true)
+    public BajaUsuarioData estadoBaja(Long idUsuario) {
+        BajaUsuarioData baja = new BajaUsuarioData();
+        Boolean activo = usuarioRepository.findActivoById(idUsuario);
+        if (activo == null) {
+            // Ya se ha eliminado
+            baja.setTerminada(true);
+            return baja;
+        }
+        baja.setActivo(activo);
+        if (!activo) {
+            baja.setTareasPendientes(tareaRepository.countByUsuarioId(idUsuario));
+        }
+        return baja;
+    }
+
     @Transactional(readOnly = true)
     public UsuarioData findByEmail(String email) {
         Usuario usuario = usuarioRepository.findByEmail(email).orElse(null);
@@ -64,12 +130,16 @@ public class UsuarioService {
         }
     }
 
-    @Transactional(readOnly = true)
+    // Se pide en casi todas las páginas, así que las peticiones simultáneas
+    // del mismo usuario comparten la consulta (ver LecturasAgrupadas). Los
+    // datos del usuario no cambian después de registrarlo.
     public UsuarioData findById(Long usuarioId) {
-        Usuario usuario = usuarioRepository.findById(usuarioId).orElse(null);
-        if (usuario == null) return null;
-        else {
-            return modelMapper.map(usuario, UsuarioData.class);
-        }
+        return lecturasAgrupadas.ejecuta("usuario", usuarioId, () -> {
+            Usuario usuario = usuarioRepository.findById(usuarioId).orElse(null);
+            if (usuario == null) return null;
+            else {
+                return modelMapper.map(usuario, UsuarioData.class);
+            }
+        });
     }
 }
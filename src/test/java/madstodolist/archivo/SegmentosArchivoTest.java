@@ -0,0 +1,69 @@
+package madstodolist.archivo;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class SegmentosArchivoTest {
+
+    @TempDir
+    Path directorio;
+
+    @Test
+    public void alPasarDelTamanoMaximoSeEmpiezaOtroSegmento() {
+        // GIVEN
+        // Segmentos de un byte como máximo
+        SegmentosArchivo segmentos = new SegmentosArchivo(directorio.toString(), 1, false);
+
+        // WHEN
+        // se añaden tres miembros,
+        SegmentosArchivo.Posicion primero = segmentos.anade(1L, Arrays.asList("a", "b"));
+        SegmentosArchivo.Posicion segundo = segmentos.anade(1L, Collections.singletonList("c"));
+        SegmentosArchivo.Posicion tercero = segmentos.anade(1L, Collections.singletonList("d"));
+
+        // THEN
+        // cada uno va a su segmento, al principio,
+        assertThat(Files.exists(directorio.resolve("1").resolve("000003.seg"))).isTrue();
+        assertThat(primero).isEqualTo(new SegmentosArchivo.Posicion(1, 0));
+        assertThat(segundo).isEqualTo(new SegmentosArchivo.Posicion(2, 0));
+        assertThat(tercero).isEqualTo(new SegmentosArchivo.Posicion(3, 0));
+
+        // se leen todas las líneas en orden y cada miembro por su posición.
+        assertThat(segmentos.lee(1L)).containsExactly("a", "b", "c", "d");
+        assertThat(segmentos.leeMiembro(1L, segundo)).containsExactly("c");
+    }
+
+    @Test
+    public void unMiembroCortadoSeIgnoraYSeEscribeEncima() throws IOException {
+        // GIVEN
+        // Un segmento con un miembro completo y, detrás, otro cortado a
+        // medias: su longitud dice 1000 bytes pero sólo hay 3
+        SegmentosArchivo segmentos = new SegmentosArchivo(directorio.toString(), 1 << 20, false);
+        segmentos.anade(1L, Collections.singletonList("a"));
+        Path segmento = directorio.resolve("1").resolve("000001.seg");
+        long tamanoCompleto = Files.size(segmento);
+        try (FileChannel canal = FileChannel.open(segmento, StandardOpenOption.APPEND)) {
+            canal.write(ByteBuffer.wrap(new byte[]{0, 0, 3, (byte) 0xe8, 1, 2, 3}));
+        }
+
+        // WHEN, THEN
+        // al leer sólo aparece el miembro completo
+        assertThat(segmentos.lee(1L)).containsExactly("a");
+
+        // y el siguiente miembro se escribe donde empezaba el cortado.
+        SegmentosArchivo.Posicion posicion = segmentos.anade(1L, Collections.singletonList("b"));
+        assertThat(posicion.getDesplazamiento()).isEqualTo(tamanoCompleto);
+        assertThat(segmentos.lee(1L)).containsExactly("a", "b");
+        assertThat(segmentos.leeMiembro(1L, posicion)).containsExactly("b");
+    }
+}
@@ -0,0 +1,61 @@
+package madstodolist.auditoria;
+
+import madstodolist.dto.TareaData;
+import madstodolist.dto.UsuarioData;
+import madstodolist.service.TareaService;
+import madstodolist.service.UsuarioService;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.jdbc.Sql;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest
+@Sql(scripts = "/clean-db.sql")
+public class AuditoriaTest {
+
+    @Autowired
+    UsuarioService usuarioService;
+
+    @Autowired
+    TareaService tareaService;
+
+    @Autowired
+    Auditoria auditoria;
+
+    @Test
+    public void loginsYCambiosDeTareasQuedanEnElLog() throws IOException {
+        // GIVEN
+        // Un usuario registrado
+        long inicio = System.currentTimeMillis();
+        UsuarioData usuario = new UsuarioData();
+        usuario.setEmail("user@ua");
+        usuario.setPassword("123");
+        Long usuarioId = usuarioService.registrar(usuario).getId();
+
+        // WHEN
+        // hace login con una contraseña errónea y con la correcta, crea una
+        // tarea y la borra,
+        usuarioService.login("user@ua", "000");
+        usuarioService.login("user@ua", "123");
+        TareaData tarea = tareaService.nuevaTareaUsuario(usuarioId, "Lavar coche");
+        tareaService.borraTarea(tarea.getId());
+
+        // THEN
+        // el lector encuentra esos registros al filtrar por el usuario.
+        assertThat(auditoria.esperaEscritura(5000)).isTrue();
+        List<RegistroAuditoria> registros = new ArrayList<>();
+        new LectorAuditoria(usuarioId, inicio, Long.MAX_VALUE).recorre(auditoria.getDirectorio(), registros::add);
+        assertThat(registros).extracting(RegistroAuditoria::getTipo).containsExactly(
+                TipoRegistroAuditoria.LOGIN_ERROR_PASSWORD,
+                TipoRegistroAuditoria.LOGIN_OK,
+                TipoRegistroAuditoria.TAREA_CREADA,
+                TipoRegistroAuditoria.TAREA_BORRADA);
+        assertThat(registros.get(3).getTareaId()).isEqualTo(tarea.getId());
+    }
+}
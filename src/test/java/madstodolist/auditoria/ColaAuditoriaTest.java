@@ -0,0 +1,71 @@
+package madstodolist.auditoria;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ColaAuditoriaTest {
+
+    @Test
+    public void variosProductoresEntreganCadaRegistroUnaVezYEnOrden() throws InterruptedException {
+        // GIVEN
+        // Una cola pequeña y cuatro productores que encolan a la vez
+        ColaAuditoria cola = new ColaAuditoria(64);
+        int productores = 4;
+        int porProductor = 50_000;
+        List<Thread> hilos = new ArrayList<>();
+        for (int p = 0; p < productores; p++) {
+            long productor = p;
+            hilos.add(new Thread(() -> {
+                for (long i = 0; i < porProductor; i++) {
+                    // Si está llena se reintenta para no perder registros en el test
+                    while (!cola.encola(i + 1, 1, productor, i)) {
+                        Thread.yield();
+                    }
+                }
+            }));
+        }
+
+        // WHEN
+        // un único consumidor los va sacando,
+        hilos.forEach(Thread::start);
+        long[] siguiente = new long[productores];
+        long[] registro = new long[ColaAuditoria.CAMPOS];
+        int recibidos = 0;
+        while (recibidos < productores * porProductor) {
+            if (cola.extrae(registro)) {
+                // THEN
+                // cada productor llega completo y en el orden en que encoló
+                int productor = (int) registro[2];
+                assertThat(registro[3]).isEqualTo(siguiente[productor]);
+                assertThat(registro[0]).isEqualTo(siguiente[productor] + 1);
+                siguiente[productor]++;
+                recibidos++;
+            }
+        }
+        for (Thread hilo : hilos) {
+            hilo.join();
+        }
+        assertThat(cola.vacia()).isTrue();
+        assertThat(siguiente).containsOnly(porProductor);
+    }
+
+    @Test
+    public void colaLlenaRechazaSinBloquear() {
+        // GIVEN
+        // Una cola llena
+        ColaAuditoria cola = new ColaAuditoria(8);
+        for (int i = 0; i < cola.getCapacidad(); i++) {
+            assertThat(cola.encola(1, 1, 1, i)).isTrue();
+        }
+
+        // WHEN, THEN
+        // no admite más registros hasta que el consumidor saca alguno
+        assertThat(cola.encola(1, 1, 1, 99)).isFalse();
+        assertThat(cola.extrae(new long[ColaAuditoria.CAMPOS])).isTrue();
+        assertThat(cola.encola(1, 1, 1, 99)).isTrue();
+    }
+}
@@ -0,0 +1,52 @@
+package madstodolist.busqueda;
+
+import madstodolist.dto.TareaData;
+import madstodolist.dto.UsuarioData;
+import madstodolist.service.TareaService;
+import madstodolist.service.UsuarioService;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.jdbc.Sql;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest
+@Sql(scripts = "/clean-db.sql")
+public class AutocompletadoTitulosTest {
+
+    @Autowired
+    UsuarioService usuarioService;
+
+    @Autowired
+    TareaService tareaService;
+
+    @Autowired
+    AutocompletadoTitulos autocompletadoTitulos;
+
+    @Test
+    public void sugiereLosTitulosMasUsadosConElPrefijo() {
+        // GIVEN
+        // Un usuario que ha repetido varias veces un título
+        UsuarioData usuario = new UsuarioData();
+        usuario.setEmail("user@ua");
+        usuario.setPassword("123");
+        Long usuarioId = usuarioService.registrar(usuario).getId();
+        tareaService.nuevaTareaUsuario(usuarioId, "Comprar leche");
+        tareaService.nuevaTareaUsuario(usuarioId, "Comprar pan");
+        tareaService.nuevaTareaUsuario(usuarioId, "Comprar pan");
+        tareaService.nuevaTareaUsuario(usuarioId, "Renovar DNI");
+
+        // WHEN, THEN
+        // al escribir el principio del título se sugiere primero el más usado
+        assertThat(autocompletadoTitulos.sugiere(usuarioId, "comp", 5))
+                .containsExactly("Comprar pan", "Comprar leche");
+
+        // y las sugerencias se actualizan al modificar y borrar tareas.
+        TareaData nueva = tareaService.nuevaTareaUsuario(usuarioId, "Cómputo de horas");
+        assertThat(autocompletadoTitulos.sugiere(usuarioId, "comp", 5)).contains("Cómputo de horas");
+        tareaService.borraTarea(nueva.getId());
+        assertThat(autocompletadoTitulos.sugiere(usuarioId, "comp", 5))
+                .containsExactly("Comprar pan", "Comprar leche");
+    }
+}
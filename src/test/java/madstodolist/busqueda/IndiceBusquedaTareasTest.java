@@ -0,0 +1,81 @@
+package madstodolist.busqueda;
+
+import madstodolist.dto.CoincidenciaTareaData;
+import madstodolist.dto.TareaData;
+import madstodolist.dto.UsuarioData;
+import madstodolist.service.TareaService;
+import madstodolist.service.UsuarioService;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.jdbc.Sql;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest
+@Sql(scripts = "/clean-db.sql")
+public class IndiceBusquedaTareasTest {
+
+    @Autowired
+    UsuarioService usuarioService;
+
+    @Autowired
+    TareaService tareaService;
+
+    @Autowired
+    IndiceBusquedaTareas indiceBusquedaTareas;
+
+    Long addUsuarioBD(String email) {
+        UsuarioData usuario = new UsuarioData();
+        usuario.setEmail(email);
+        usuario.setPassword("123");
+        return usuarioService.registrar(usuario).getId();
+    }
+
+    @Test
+    public void buscaPorTerminosNormalizadosYPrefijo() {
+        // GIVEN
+        // Un usuario con varias tareas
+        Long usuarioId = addUsuarioBD("user@ua");
+        tareaService.nuevaTareaUsuario(usuarioId, "Llevar el camión al taller");
+        tareaService.nuevaTareaUsuario(usuarioId, "Lavar el coche");
+        tareaService.nuevaTareaUsuario(usuarioId, "Renovar DNI");
+
+        // WHEN
+        // se busca sin tildes y con la última palabra incompleta,
+        List<CoincidenciaTareaData> resultado = indiceBusquedaTareas.busca(usuarioId, "camion tall", 10);
+
+        // THEN
+        // se encuentra la tarea correspondiente.
+        assertThat(resultado).extracting(CoincidenciaTareaData::getTitulo)
+                .containsExactly("Llevar el camión al taller");
+    }
+
+    @Test
+    public void elIndiceSeMantieneConLasModificacionesYNoMezclaUsuarios() {
+        // GIVEN
+        // Dos usuarios con una tarea con la misma palabra
+        Long usuarioId = addUsuarioBD("user@ua");
+        Long otroId = addUsuarioBD("otro@ua");
+        TareaData tarea = tareaService.nuevaTareaUsuario(usuarioId, "Comprar pan");
+        tareaService.nuevaTareaUsuario(otroId, "Comprar leche");
+
+        // WHEN
+        // se modifica la tarea del primero y se crea otra,
+        tareaService.modificaTarea(tarea.getId(), "Comprar fruta");
+        TareaData nueva = tareaService.nuevaTareaUsuario(usuarioId, "Pan de molde");
+
+        // THEN
+        // las búsquedas reflejan los cambios y sólo devuelven sus tareas
+        assertThat(indiceBusquedaTareas.busca(usuarioId, "comprar", 10))
+                .extracting(CoincidenciaTareaData::getTitulo).containsExactly("Comprar fruta");
+        assertThat(indiceBusquedaTareas.busca(usuarioId, "pan", 10))
+                .extracting(CoincidenciaTareaData::getId).containsExactly(nueva.getId());
+
+        // y al borrar una tarea desaparece del índice.
+        tareaService.borraTarea(nueva.getId());
+        assertThat(indiceBusquedaTareas.busca(usuarioId, "pan", 10)).isEmpty();
+    }
+}
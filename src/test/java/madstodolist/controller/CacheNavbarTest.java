@@ -0,0 +1,66 @@
+package madstodolist.controller;
+
+import madstodolist.authentication.ManagerUserSession;
+import madstodolist.dto.UsuarioData;
+import madstodolist.service.UsuarioService;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.test.web.servlet.MockMvc;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+@SpringBootTest(properties = "vista.cache-fragmentos=true")
+@AutoConfigureMockMvc
+public class CacheNavbarTest {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private CacheNavbar cacheNavbar;
+
+    @MockBean
+    private ManagerUserSession managerUserSession;
+
+    @MockBean
+    private UsuarioService usuarioService;
+
+    @Test
+    public void laBarraDelUsuarioSeReutilizaHastaInvalidarla() throws Exception {
+        // GIVEN
+        // Un usuario logeado
+        UsuarioData usuario = new UsuarioData();
+        usuario.setId(7L);
+        usuario.setNombre("Santos");
+        when(managerUserSession.usuarioLogeado()).thenReturn(7L);
+        when(usuarioService.findById(7L)).thenReturn(usuario);
+
+        // WHEN
+        // pide dos páginas seguidas,
+        for (int i = 0; i < 2; i++) {
+            mockMvc.perform(get("/about"))
+                    .andExpect(status().isOk())
+                    .andExpect(content().string(containsString("Santos")));
+        }
+
+        // THEN
+        // sus datos sólo se cargan una vez
+        verify(usuarioService, times(1)).findById(7L);
+
+        // y después de invalidar la entrada se vuelven a cargar.
+        usuario.setNombre("Santos Pérez");
+        cacheNavbar.invalida(7L);
+        mockMvc.perform(get("/about"))
+                .andExpect(content().string(containsString("Santos Pérez")));
+        verify(usuarioService, times(2)).findById(7L);
+    }
+}
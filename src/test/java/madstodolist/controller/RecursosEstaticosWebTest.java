@@ -0,0 +1,42 @@
+package madstodolist.controller;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.util.DigestUtils;
+import org.springframework.util.StreamUtils;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.not;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+@SpringBootTest
+@AutoConfigureMockMvc
+public class RecursosEstaticosWebTest {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Test
+    public void recursoConHashSeGuardaComoInmutable() throws Exception {
+        // GIVEN
+        // El hash MD5 del contenido de la hoja de estilos
+        byte[] css = StreamUtils.copyToByteArray(new ClassPathResource("static/css/bootstrap.min.css").getInputStream());
+        String hash = DigestUtils.md5DigestAsHex(css);
+
+        // WHEN, THEN
+        // la URL con el hash se sirve con caché inmutable
+        this.mockMvc.perform(get("/css/bootstrap.min-" + hash + ".css"))
+                .andExpect(status().isOk())
+                .andExpect(header().string("Cache-Control", containsString("immutable")));
+
+        // y la URL sin hash no.
+        this.mockMvc.perform(get("/css/bootstrap.min.css"))
+                .andExpect(status().isOk())
+                .andExpect(header().string("Cache-Control", not(containsString("immutable"))));
+    }
+}
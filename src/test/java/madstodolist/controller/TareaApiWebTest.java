@@ -0,0 +1,434 @@
+package madstodolist.controller;
+
+import madstodolist.authentication.ManagerUserSession;
+import madstodolist.dto.TareaData;
+import madstodolist.dto.UsuarioData;
+import madstodolist.service.TareaService;
+import madstodolist.service.UsuarioService;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.jdbc.Sql;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.hamcrest.Matchers.*;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+@SpringBootTest
+@AutoConfigureMockMvc
+@Sql(scripts = "/clean-db.sql")
+public class TareaApiWebTest {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private TareaService tareaService;
+
+    @Autowired
+    private UsuarioService usuarioService;
+
+    @MockBean
+    private ManagerUserSession managerUserSession;
+
+    Map<String, Long> addUsuarioTareasBD() {
+        UsuarioData usuario = new UsuarioData();
+        usuario.setEmail("user@ua");
+        usuario.setPassword("123");
+        usuario = usuarioService.registrar(usuario);
+
+        TareaData tarea1 = tareaService.nuevaTareaUsuario(usuario.getId(), "Lavar coche");
+        tareaService.nuevaTareaUsuario(usuario.getId(), "Renovar DNI");
+
+        Map<String, Long> ids = new HashMap<>();
+        ids.put("usuarioId", usuario.getId());
+        ids.put("tareaId", tarea1.getId());
+        return ids;
+    }
+
+    @Test
+    public void getTareasDevuelveJsonConLasTareasDelUsuario() throws Exception {
+        // GIVEN
+        // Un usuario logeado con dos tareas en la BD
+        Long usuarioId = addUsuarioTareasBD().get("usuarioId");
+        when(managerUserSession.usuarioLogeado()).thenReturn(usuarioId);
+
+        // WHEN
+        // se pide el listado de tareas a la API, la petición pasa a modo asíncrono
+        MvcResult resultado = this.mockMvc.perform(get("/api/usuarios/" + usuarioId + "/tareas"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        // THEN
+        // y al terminar devuelve un JSON con las dos tareas ordenadas por id.
+        this.mockMvc.perform(asyncDispatch(resultado))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$", hasSize(2)))
+                .andExpect(jsonPath("$[0].titulo", is("Lavar coche")))
+                .andExpect(jsonPath("$[1].titulo", is("Renovar DNI")));
+    }
+
+    @Test
+    public void getTareaDevuelveJsonDeLaTarea() throws Exception {
+        // GIVEN
+        // Un usuario logeado con dos tareas en la BD
+        Map<String, Long> ids = addUsuarioTareasBD();
+        Long usuarioId = ids.get("usuarioId");
+        when(managerUserSession.usuarioLogeado()).thenReturn(usuarioId);
+
+        // WHEN, THEN
+        // se pide una tarea concreta y se devuelven sus datos.
+        MvcResult resultado = this.mockMvc.perform(get("/api/usuarios/" + usuarioId + "/tareas/" + ids.get("tareaId")))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        this.mockMvc.perform(asyncDispatch(resultado))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.titulo", is("Lavar coche")))
+                .andExpect(jsonPath("$.usuarioId", is(usuarioId.intValue())));
+    }
+
+    @Test
+    public void getTareasDeOtroUsuarioDevuelveNoAutorizado() throws Exception {
+        // GIVEN
+        // Un usuario con tareas y otro usuario distinto logeado
+        Long usuarioId = addUsuarioTareasBD().get("usuarioId");
+        when(managerUserSession.usuarioLogeado()).thenReturn(usuarioId + 1);
+
+        // WHEN, THEN
+        // la petición se rechaza sin llegar a consultar la BD.
+        this.mockMvc.perform(get("/api/usuarios/" + usuarioId + "/tareas"))
+                .andExpect(status().isUnauthorized());
+    }
+
+    @Test
+    public void getTareasConEtagActualDevuelveNotModified() throws Exception {
+        // GIVEN
+        // Un usuario logeado con dos tareas en la BD y el ETag de su listado
+        Long usuarioId = addUsuarioTareasBD().get("usuarioId");
+        when(managerUserSession.usuarioLogeado()).thenReturn(usuarioId);
+
+        String url = "/api/usuarios/" + usuarioId + "/tareas";
+        MvcResult resultado = this.mockMvc.perform(get(url)).andReturn();
+        String etag = resultado.getResponse().getHeader("ETag");
+
+        // WHEN, THEN
+        // si se vuelve a pedir el listado con ese ETag se devuelve 304
+        // sin iniciar la consulta asíncrona de las tareas.
+        this.mockMvc.perform(get(url).header("If-None-Match", etag))
+                .andExpect(status().isNotModified())
+                .andExpect(request().asyncNotStarted());
+    }
+
+    @Test
+    public void crearTareaCambiaElEtagDelListado() throws Exception {
+        // GIVEN
+        // Un usuario logeado con dos tareas en la BD y el ETag de su listado
+        Long usuarioId = addUsuarioTareasBD().get("usuarioId");
+        when(managerUserSession.usuarioLogeado()).thenReturn(usuarioId);
+
+        String url = "/api/usuarios/" + usuarioId + "/tareas";
+        String etag = this.mockMvc.perform(get(url)).andReturn().getResponse().getHeader("ETag");
+
+        // WHEN
+        // se crea una tarea a través de la API,
+        this.mockMvc.perform(post(url)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"titulo\": \"Estudiar examen MADS\"}"))
+                .andExpect(status().isCreated())
+                .andExpect(jsonPath("$.titulo", is("Estudiar examen MADS")));
+
+        // THEN
+        // el ETag anterior ya no es válido y se devuelve el listado completo.
+        MvcResult resultado = this.mockMvc.perform(get(url).header("If-None-Match", etag))
+                .andExpect(request().asyncStarted())
+                .andExpect(header().string("ETag", not(etag)))
+                .andReturn();
+
+        this.mockMvc.perform(asyncDispatch(resultado))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$", hasSize(3)));
+    }
+
+    @Test
+    public void borrarTareaDevuelveNoContent() throws Exception {
+        // GIVEN
+        // Un usuario logeado con dos tareas en la BD
+        Map<String, Long> ids = addUsuarioTareasBD();
+        Long usuarioId = ids.get("usuarioId");
+        when(managerUserSession.usuarioLogeado()).thenReturn(usuarioId);
+
+        // WHEN, THEN
+        // se borra una tarea a través de la API, se devuelve 204
+        this.mockMvc.perform(delete("/api/usuarios/" + usuarioId + "/tareas/" + ids.get("tareaId")))
+                .andExpect(status().isNoContent());
+
+        // y la tarea ya no se encuentra.
+        MvcResult resultado = this.mockMvc.perform(get("/api/usuarios/" + usuarioId + "/tareas/" + ids.get("tareaId")))
+                .andReturn();
+        this.mockMvc.perform(asyncDispatch(resultado))
+                .andExpect(status().isNotFound());
+    }
+
+    @Test
+    public void exportarTareasEnCsvDevuelveUnaFilaPorTarea() throws Exception {
+        // GIVEN
+        // Un usuario logeado con dos tareas en la BD
+        Map<String, Long> ids = addUsuarioTareasBD();
+        Long usuarioId = ids.get("usuarioId");
+        when(managerUserSession.usuarioLogeado()).thenReturn(usuarioId);
+
+        // WHEN
+        // se exportan sus tareas en formato CSV,
+        MvcResult resultado = this.mockMvc.perform(get("/api/usuarios/" + usuarioId + "/tareas/exportar")
+                        .param("formato", "csv"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        // THEN
+        // la descarga no usa el timeout asíncrono por defecto,
+        assertThat(resultado.getRequest().getAsyncContext().getTimeout()).isEqualTo(3600000L);
+
+        // y se devuelve la cabecera y una línea por cada tarea en orden de id.
+        this.mockMvc.perform(asyncDispatch(resultado))
+                .andExpect(status().isOk())
+                .andExpect(header().string("Content-Disposition", containsString("tareas-" + usuarioId + ".csv")))
+                .andExpect(content().string("id,titulo\n"
+                        + ids.get("tareaId") + ",Lavar coche\n"
+                        + (ids.get("tareaId") + 1) + ",Renovar DNI\n"));
+    }
+
+    @Test
+    public void exportarTareasEnFormatoDesconocidoDevuelveBadRequest() throws Exception {
+        // GIVEN
+        // Un usuario logeado con tareas
+        Long usuarioId = addUsuarioTareasBD().get("usuarioId");
+        when(managerUserSession.usuarioLogeado()).thenReturn(usuarioId);
+
+        // WHEN, THEN
+        // se pide la exportación en un formato que no existe y se rechaza.
+        this.mockMvc.perform(get("/api/usuarios/" + usuarioId + "/tareas/exportar").param("formato", "xml"))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    public void importarTareasGuardaLasValidasEInformaDeLosErrores() throws Exception {
+        // GIVEN
+        // Un usuario logeado con dos tareas en la BD
+        Long usuarioId = addUsuarioTareasBD().get("usuarioId");
+        when(managerUserSession.usuarioLogeado()).thenReturn(usuarioId);
+
+        // WHEN
+        // se importa un fichero NDJSON con dos tareas válidas y una sin título,
+        String fichero = "{\"titulo\": \"Comprar pan\"}\n"
+                + "{\"otro\": 1}\n"
+                + "{\"titulo\": \"Llamar al banco\"}\n";
+
+        // THEN
+        // se informa del registro erróneo y de los totales
+        this.mockMvc.perform(post("/api/usuarios/" + usuarioId + "/tareas/importar")
+                        .content(fichero))
+                .andExpect(status().isOk())
+                .andExpect(content().string(containsString("\"tipo\":\"error\",\"registro\":2")))
+                .andExpect(content().string(containsString(
+                        "{\"tipo\":\"progreso\",\"procesados\":3,\"importados\":2,\"errores\":1}")));
+
+        // y el usuario tiene ahora cuatro tareas.
+        assertThat(tareaService.allTareasUsuario(usuarioId)).hasSize(4);
+    }
+
+    @Test
+    public void importarTareasDescartaElRegistroDemasiadoLargoYSigue() throws Exception {
+        // GIVEN
+        // Un usuario logeado con dos tareas en la BD
+        Long usuarioId = addUsuarioTareasBD().get("usuarioId");
+        when(managerUserSession.usuarioLogeado()).thenReturn(usuarioId);
+
+        // WHEN
+        // se importa un CSV cuyo primer registro abre una comilla que no se
+        // cierra y supera la longitud máxima,
+        StringBuilder largo = new StringBuilder("\"");
+        for (int i = 0; i < 10000; i++) {
+            largo.append('x');
+        }
+        String fichero = "titulo\n" + largo + "\nComprar pan\nLlamar al banco\n";
+
+        // THEN
+        // sólo ese registro se informa como error
+        this.mockMvc.perform(post("/api/usuarios/" + usuarioId + "/tareas/importar")
+                        .param("formato", "csv")
+                        .content(fichero))
+                .andExpect(status().isOk())
+                .andExpect(content().string(containsString("\"tipo\":\"error\",\"registro\":1")))
+                .andExpect(content().string(containsString(
+                        "{\"tipo\":\"progreso\",\"procesados\":3,\"importados\":2,\"errores\":1}")));
+
+        // y se importan los dos siguientes.
+        assertThat(tareaService.allTareasUsuario(usuarioId)).hasSize(4);
+    }
+
+    @Test
+    public void importarTareasCsvSinColumnaTituloDevuelveBadRequest() throws Exception {
+        // GIVEN
+        // Un usuario logeado
+        Long usuarioId = addUsuarioTareasBD().get("usuarioId");
+        when(managerUserSession.usuarioLogeado()).thenReturn(usuarioId);
+
+        // WHEN, THEN
+        // se importa un CSV cuya cabecera no tiene la columna titulo y se rechaza.
+        this.mockMvc.perform(post("/api/usuarios/" + usuarioId + "/tareas/importar")
+                        .param("formato", "csv")
+                        .content("id,nombre\n1,Comprar pan\n"))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    public void crearTareaRepetidaConLaMismaClaveNoDuplicaLaTarea() throws Exception {
+        // GIVEN
+        // Un usuario logeado con dos tareas en la BD
+        Long usuarioId = addUsuarioTareasBD().get("usuarioId");
+        when(managerUserSession.usuarioLogeado()).thenReturn(usuarioId);
+        String url = "/api/usuarios/" + usuarioId + "/tareas";
+
+        // WHEN
+        // se envía dos veces la misma petición de creación con la misma clave,
+        String primera = this.mockMvc.perform(post(url)
+                        .header("Idempotency-Key", "clave-1")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"titulo\": \"Estudiar examen MADS\"}"))
+                .andExpect(status().isCreated())
+                .andReturn().getResponse().getContentAsString();
+
+        // THEN
+        // la segunda devuelve la misma tarea
+        this.mockMvc.perform(post(url)
+                        .header("Idempotency-Key", "clave-1")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"titulo\": \"Estudiar examen MADS\"}"))
+                .andExpect(status().isCreated())
+                .andExpect(content().json(primera));
+
+        // y sólo se ha creado una tarea.
+        assertThat(tareaService.allTareasUsuario(usuarioId)).hasSize(3);
+    }
+
+    @Test
+    public void crearTareaConUnaClaveYaUsadaConOtroTituloDevuelveUnprocessableEntity() throws Exception {
+        // GIVEN
+        // Un usuario logeado que ya ha creado una tarea con la clave "clave-2"
+        Long usuarioId = addUsuarioTareasBD().get("usuarioId");
+        when(managerUserSession.usuarioLogeado()).thenReturn(usuarioId);
+        String url = "/api/usuarios/" + usuarioId + "/tareas";
+        this.mockMvc.perform(post(url)
+                        .header("Idempotency-Key", "clave-2")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"titulo\": \"Estudiar examen MADS\"}"))
+                .andExpect(status().isCreated());
+
+        // WHEN, THEN
+        // se rechaza otra creación con la misma clave y distinto título
+        this.mockMvc.perform(post(url)
+                        .header("Idempotency-Key", "clave-2")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"titulo\": \"Comprar pan\"}"))
+                .andExpect(status().isUnprocessableEntity());
+
+        // y no se crea la segunda tarea.
+        assertThat(tareaService.allTareasUsuario(usuarioId)).extracting(TareaData::getTitulo)
+                .doesNotContain("Comprar pan");
+    }
+
+    @Test
+    public void getVariasTareasPorIdDevuelveLasDelUsuarioEnElOrdenPedido() throws Exception {
+        // GIVEN
+        // Un usuario logeado con dos tareas en la BD
+        Map<String, Long> ids = addUsuarioTareasBD();
+        Long usuarioId = ids.get("usuarioId");
+        Long primera = ids.get("tareaId");
+        when(managerUserSession.usuarioLogeado()).thenReturn(usuarioId);
+
+        // WHEN
+        // se piden sus dos tareas en orden inverso junto con un id que no existe,
+        MvcResult resultado = this.mockMvc.perform(get("/api/usuarios/" + usuarioId + "/tareas")
+                        .param("ids", (primera + 1) + ",9999," + primera))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        // THEN
+        // se devuelven sólo las dos tareas, en el orden en que se han pedido.
+        this.mockMvc.perform(asyncDispatch(resultado))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$", hasSize(2)))
+                .andExpect(jsonPath("$[0].titulo", is("Renovar DNI")))
+                .andExpect(jsonPath("$[1].titulo", is("Lavar coche")));
+    }
+
+    @Test
+    public void modificarTareaConVersionAntiguaDevuelveConflicto() throws Exception {
+        // GIVEN
+        // Un usuario logeado con dos tareas en la BD
+        Map<String, Long> ids = addUsuarioTareasBD();
+        Long usuarioId = ids.get("usuarioId");
+        when(managerUserSession.usuarioLogeado()).thenReturn(usuarioId);
+        String url = "/api/usuarios/" + usuarioId + "/tareas/" + ids.get("tareaId");
+
+        // WHEN
+        // un cliente modifica la tarea a partir de la versión 0,
+        this.mockMvc.perform(put(url)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"titulo\": \"Lavar moto\", \"version\": 0}"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.version", is(1)));
+
+        // THEN
+        // otro cliente que también partía de la versión 0 recibe un conflicto
+        this.mockMvc.perform(put(url)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"titulo\": \"Lavar bici\", \"version\": 0}"))
+                .andExpect(status().isConflict());
+
+        // y la tarea conserva la primera modificación.
+        assertThat(tareaService.findById(ids.get("tareaId")).getTitulo()).isEqualTo("Lavar moto");
+    }
+
+    @Test
+    public void trasDarDeBajaLaCuentaLaSesionPierdeElAcceso() throws Exception {
+        // GIVEN
+        // Un usuario logeado con tareas
+        Map<String, Long> ids = addUsuarioTareasBD();
+        Long usuarioId = ids.get("usuarioId");
+        when(managerUserSession.usuarioLogeado()).thenReturn(usuarioId);
+
+        // WHEN
+        // da de baja su cuenta desde la API,
+        this.mockMvc.perform(delete("/api/usuarios/" + usuarioId))
+                .andExpect(status().isAccepted());
+
+        // THEN
+        // con la misma sesión ya no puede leer ni crear tareas, pero sí
+        // consultar el avance de la baja.
+        this.mockMvc.perform(get("/api/usuarios/" + usuarioId + "/tareas"))
+                .andExpect(status().isUnauthorized());
+        this.mockMvc.perform(get("/api/usuarios/" + usuarioId + "/tareas/" + ids.get("tareaId")))
+                .andExpect(status().isUnauthorized());
+        this.mockMvc.perform(post("/api/usuarios/" + usuarioId + "/tareas")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"titulo\": \"Otra\"}"))
+                .andExpect(status().isUnauthorized());
+        this.mockMvc.perform(get("/usuarios/" + usuarioId + "/tareas"))
+                .andExpect(status().isUnauthorized());
+        this.mockMvc.perform(get("/api/usuarios/" + usuarioId + "/baja"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.activo", is(false)));
+    }
+}
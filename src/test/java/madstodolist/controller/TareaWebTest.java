@@ -3,6 +3,7 @@ package madstodolist.controller;
 import madstodolist.authentication.ManagerUserSession;
 import madstodolist.dto.TareaData;
 import madstodolist.dto.UsuarioData;
+import madstodolist.model.EstadoTarea;
 import madstodolist.service.TareaService;
 import madstodolist.service.UsuarioService;
 import org.junit.jupiter.api.Test;
@@ -10,6 +11,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.http.MediaType;
 import org.springframework.test.context.jdbc.Sql;
 import org.springframework.test.web.servlet.MockMvc;
 
@@ -200,4 +202,276 @@ public class TareaWebTest {
         this.mockMvc.perform(get(urlListado))
                 .andExpect(content().string(containsString("Limpiar cristales coche")));
     }
+
+    @Test
+    public void postNuevaTareaDesdeListadoDevuelveSoloLaFila() throws Exception {
+        // GIVEN
+        // Un usuario con dos tareas en la BD
+        Long usuarioId = addUsuarioTareasBD().get("usuarioId");
+
+        // Ver el comentario en el primer test
+        when(managerUserSession.usuarioLogeado()).thenReturn(usuarioId);
+
+        // WHEN, THEN
+        // realizamos la petición POST desde la página de listado (con la
+        // cabecera X-Requested-With), se devuelve sólo la fila de la nueva
+        // tarea y no la página completa.
+
+        String urlPost = "/usuarios/" + usuarioId.toString() + "/tareas/nueva";
+
+        this.mockMvc.perform(post(urlPost)
+                        .header("X-Requested-With", "XMLHttpRequest")
+                        .param("titulo", "Estudiar examen MADS"))
+                .andExpect(status().isOk())
+                .andExpect(content().string(allOf(
+                        containsString("<tr"),
+                        containsString("Estudiar examen MADS"),
+                        not(containsString("Lavar coche")),
+                        not(containsString("<html")))));
+    }
+
+    @Test
+    public void editarTareaDesdeListadoDevuelveSoloLaFila() throws Exception {
+        // GIVEN
+        // Un usuario con dos tareas en la BD
+        Map<String, Long> ids = addUsuarioTareasBD();
+        Long usuarioId = ids.get("usuarioId");
+        Long tareaLavarCocheId = ids.get("tareaId");
+
+        // Ver el comentario en el primer test
+        when(managerUserSession.usuarioLogeado()).thenReturn(usuarioId);
+
+        // WHEN, THEN
+        // realizamos la petición POST de edición desde la página de listado,
+        // se devuelve la fila con el título modificado.
+
+        String urlEditar = "/tareas/" + tareaLavarCocheId + "/editar";
+
+        this.mockMvc.perform(post(urlEditar)
+                        .header("X-Requested-With", "XMLHttpRequest")
+                        .param("titulo", "Limpiar cristales coche"))
+                .andExpect(status().isOk())
+                .andExpect(content().string(allOf(
+                        containsString("<tr"),
+                        containsString("data-id=\"" + tareaLavarCocheId + "\""),
+                        containsString("Limpiar cristales coche"),
+                        not(containsString("Renovar DNI")))));
+    }
+
+    @Test
+    public void editarTareaPendienteConVersionDesdeListadoMantieneElEstado() throws Exception {
+        // GIVEN
+        // Un usuario con dos tareas pendientes en la BD
+        Map<String, Long> ids = addUsuarioTareasBD();
+        Long usuarioId = ids.get("usuarioId");
+        Long tareaId = ids.get("tareaId");
+        TareaData tarea = tareaService.findById(tareaId);
+
+        // Ver el comentario en el primer test
+        when(managerUserSession.usuarioLogeado()).thenReturn(usuarioId);
+
+        // WHEN, THEN
+        // la edición en línea envía el título y la versión leída; la fila
+        // devuelta sigue marcada como pendiente para que el listado por
+        // defecto (sólo pendientes) no la quite.
+        this.mockMvc.perform(post("/tareas/" + tareaId + "/editar")
+                        .header("X-Requested-With", "XMLHttpRequest")
+                        .param("titulo", "Limpiar cristales coche")
+                        .param("version", String.valueOf(tarea.getVersion())))
+                .andExpect(status().isOk())
+                .andExpect(content().string(allOf(
+                        containsString("data-estado=\"PENDIENTE\""),
+                        containsString("data-version=\"" + (tarea.getVersion() + 1) + "\""),
+                        containsString("Limpiar cristales coche"),
+                        containsString("completar"))));
+    }
+
+    @Test
+    public void editarTareaCompletadaConVersionDesdeListadoMantieneElEstado() throws Exception {
+        // GIVEN
+        // Un usuario con una tarea completada
+        Map<String, Long> ids = addUsuarioTareasBD();
+        Long usuarioId = ids.get("usuarioId");
+        Long tareaId = ids.get("tareaId");
+        TareaData tarea = tareaService.modificaEstadoTarea(tareaId, EstadoTarea.COMPLETADA);
+
+        // Ver el comentario en el primer test
+        when(managerUserSession.usuarioLogeado()).thenReturn(usuarioId);
+
+        // WHEN, THEN
+        // al renombrarla con versión la fila sigue completada, tachada y
+        // con el botón de reabrir.
+        this.mockMvc.perform(post("/tareas/" + tareaId + "/editar")
+                        .header("X-Requested-With", "XMLHttpRequest")
+                        .param("titulo", "Limpiar cristales coche")
+                        .param("version", String.valueOf(tarea.getVersion())))
+                .andExpect(status().isOk())
+                .andExpect(content().string(allOf(
+                        containsString("data-estado=\"COMPLETADA\""),
+                        containsString("line-through"),
+                        containsString("reabrir"))));
+    }
+
+    @Test
+    public void getEventosTareasAbreFlujoSse() throws Exception {
+        // GIVEN
+        // Un usuario con dos tareas en la BD
+        Long usuarioId = addUsuarioTareasBD().get("usuarioId");
+
+        // Ver el comentario en el primer test
+        when(managerUserSession.usuarioLogeado()).thenReturn(usuarioId);
+
+        // WHEN, THEN
+        // al pedir el flujo de eventos de sus tareas se abre una
+        // respuesta asíncrona que queda a la espera de eventos.
+
+        String urlEventos = "/usuarios/" + usuarioId + "/tareas/eventos";
+
+        this.mockMvc.perform(get(urlEventos).accept(MediaType.TEXT_EVENT_STREAM))
+                .andExpect(status().isOk())
+                .andExpect(request().asyncStarted());
+    }
+
+    @Test
+    public void postLoteBorrarDevuelveRedirectYBorraLasTareas() throws Exception {
+        // GIVEN
+        // Un usuario con dos tareas en la BD
+        Map<String, Long> ids = addUsuarioTareasBD();
+        Long usuarioId = ids.get("usuarioId");
+        Long tareaLavarCocheId = ids.get("tareaId");
+
+        // Ver el comentario en el primer test
+        when(managerUserSession.usuarioLogeado()).thenReturn(usuarioId);
+
+        // WHEN, THEN
+        // realizamos la petición POST para borrar en lote las dos tareas,
+        // se redirige al listado
+
+        String urlLote = "/usuarios/" + usuarioId + "/tareas/lote";
+
+        this.mockMvc.perform(post(urlLote)
+                        .param("operacion", "borrar")
+                        .param("ids", tareaLavarCocheId.toString(), String.valueOf(tareaLavarCocheId + 1)))
+                .andExpect(status().is3xxRedirection())
+                .andExpect(redirectedUrl("/usuarios/" + usuarioId + "/tareas"));
+
+        // y el listado ya no contiene ninguna de ellas.
+
+        this.mockMvc.perform(get("/usuarios/" + usuarioId + "/tareas"))
+                .andExpect(content().string(allOf(
+                        not(containsString("Lavar coche")),
+                        not(containsString("Renovar DNI")))));
+    }
+
+    @Test
+    public void renombrarLoteDesdeElListadoDevuelveLasVersionesNuevas() throws Exception {
+        // GIVEN
+        // Un usuario con dos tareas en la BD
+        Map<String, Long> ids = addUsuarioTareasBD();
+        Long usuarioId = ids.get("usuarioId");
+        Long tareaLavarCocheId = ids.get("tareaId");
+        Long tareaRenovarDniId = tareaLavarCocheId + 1;
+        long versionAntes = tareaService.findById(tareaLavarCocheId).getVersion();
+
+        // Ver el comentario en el primer test
+        when(managerUserSession.usuarioLogeado()).thenReturn(usuarioId);
+
+        // WHEN, THEN
+        // se renombran las dos desde el listado, la respuesta trae las dos
+        // tareas con el título y la versión nuevos para actualizar las filas
+
+        this.mockMvc.perform(post("/usuarios/" + usuarioId + "/tareas/lote")
+                        .header("X-Requested-With", "XMLHttpRequest")
+                        .param("operacion", "renombrar")
+                        .param("titulo", "Nuevo título")
+                        .param("ids", tareaRenovarDniId.toString(), tareaLavarCocheId.toString()))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$", hasSize(2)))
+                .andExpect(jsonPath("$[0].id", is(tareaLavarCocheId.intValue())))
+                .andExpect(jsonPath("$[0].titulo", is("Nuevo título")))
+                .andExpect(jsonPath("$[0].version", is((int) versionAntes + 1)))
+                .andExpect(jsonPath("$[1].id", is(tareaRenovarDniId.intValue())));
+
+        // y la versión devuelta es la que acepta la siguiente edición.
+
+        this.mockMvc.perform(post("/tareas/" + tareaLavarCocheId + "/editar")
+                        .header("X-Requested-With", "XMLHttpRequest")
+                        .param("titulo", "Otro título")
+                        .param("version", String.valueOf(versionAntes + 1)))
+                .andExpect(status().isOk());
+    }
+
+    @Test
+    public void elFormularioDeLoteLlevaLaOperacionEnUnCampoOculto() throws Exception {
+        // GIVEN
+        // Un usuario con dos tareas en la BD
+        Long usuarioId = addUsuarioTareasBD().get("usuarioId");
+
+        // Ver el comentario en el primer test
+        when(managerUserSession.usuarioLogeado()).thenReturn(usuarioId);
+
+        // WHEN, THEN
+        // la operación no depende del botón con el que se envía el formulario
+
+        this.mockMvc.perform(get("/usuarios/" + usuarioId + "/tareas"))
+                .andExpect(content().string(containsString(
+                        "<input name=\"operacion\" type=\"hidden\" value=\"\" />")));
+    }
+
+    @Test
+    public void postLoteConTareaInexistenteDevuelveNotFound() throws Exception {
+        // GIVEN
+        // Un usuario con dos tareas en la BD
+        Map<String, Long> ids = addUsuarioTareasBD();
+        Long usuarioId = ids.get("usuarioId");
+
+        // Ver el comentario en el primer test
+        when(managerUserSession.usuarioLogeado()).thenReturn(usuarioId);
+
+        // WHEN, THEN
+        // si alguna de las tareas del lote no existe se devuelve 404.
+
+        this.mockMvc.perform(post("/usuarios/" + usuarioId + "/tareas/lote")
+                        .header("X-Requested-With", "XMLHttpRequest")
+                        .param("operacion", "renombrar")
+                        .param("titulo", "Nuevo título")
+                        .param("ids", ids.get("tareaId").toString(), "9999"))
+                .andExpect(status().isNotFound());
+    }
+
+    @Test
+    public void tareaCompletadaSoloApareceEnElListadoDeCompletadas() throws Exception {
+        // GIVEN
+        // Un usuario con dos tareas en la BD
+        Map<String, Long> ids = addUsuarioTareasBD();
+        Long usuarioId = ids.get("usuarioId");
+        Long tareaLavarCocheId = ids.get("tareaId");
+
+        // Ver el comentario en el primer test
+        when(managerUserSession.usuarioLogeado()).thenReturn(usuarioId);
+
+        // WHEN
+        // se marca como completada una de ellas,
+
+        this.mockMvc.perform(post("/tareas/" + tareaLavarCocheId + "/estado")
+                        .param("estado", "COMPLETADA"))
+                .andExpect(status().is3xxRedirection());
+
+        // THEN
+        // el listado por defecto sólo muestra la pendiente
+
+        String urlListado = "/usuarios/" + usuarioId + "/tareas";
+
+        this.mockMvc.perform(get(urlListado))
+                .andExpect(content().string(allOf(
+                        containsString("Renovar DNI"),
+                        not(containsString("Lavar coche")))));
+
+        // y el de completadas sólo la completada.
+
+        this.mockMvc.perform(get(urlListado).param("estado", "completadas"))
+                .andExpect(content().string(allOf(
+                        containsString("Lavar coche"),
+                        not(containsString("Renovar DNI")))));
+    }
 }
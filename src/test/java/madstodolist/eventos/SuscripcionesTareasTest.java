@@ -0,0 +1,234 @@
+package madstodolist.eventos;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class SuscripcionesTareasTest {
+
+    // Emitter que guarda lo enviado en lugar de escribirlo en una respuesta.
+    // Si se le pasa un cerrojo, cada envío se queda bloqueado hasta que se
+    // abre, como ocurre con un cliente que ha dejado de leer.
+    static class EmitterDePrueba extends SseEmitter {
+        final List<String> enviados = new CopyOnWriteArrayList<>();
+        final CountDownLatch bloqueo;
+        volatile boolean cerrado;
+
+        EmitterDePrueba(CountDownLatch bloqueo) {
+            this.bloqueo = bloqueo;
+        }
+
+        @Override
+        public void send(SseEventBuilder evento) throws IOException {
+            if (bloqueo != null) {
+                try {
+                    bloqueo.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            StringBuilder texto = new StringBuilder();
+            evento.build().forEach(parte -> texto.append(parte.getData()));
+            enviados.add(texto.toString());
+        }
+
+        @Override
+        public void completeWithError(Throwable ex) {
+            cerrado = true;
+        }
+
+        @Override
+        public void complete() {
+            cerrado = true;
+        }
+    }
+
+    private final List<EmitterDePrueba> siguientes = new CopyOnWriteArrayList<>();
+    private SuscripcionesTareas suscripciones;
+
+    private SuscripcionesTareas suscripciones(int hilos, int maxHilos, int capacidadCola, long maxEnvioMs) {
+        suscripciones = new SuscripcionesTareas(hilos, maxHilos, capacidadCola, 60000, maxEnvioMs) {
+            @Override
+            SseEmitter creaEmitter(long timeoutMs) {
+                return siguientes.remove(0);
+            }
+        };
+        return suscripciones;
+    }
+
+    private EmitterDePrueba suscribe(Long usuarioId, CountDownLatch bloqueo) {
+        EmitterDePrueba emitter = new EmitterDePrueba(bloqueo);
+        siguientes.add(emitter);
+        suscripciones.suscribe(usuarioId);
+        return emitter;
+    }
+
+    private static void espera(BooleanSupplier condicion) throws InterruptedException {
+        long limite = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condicion.getAsBoolean()) {
+            assertThat(System.nanoTime() - limite).as("tiempo de espera agotado").isNegative();
+            Thread.sleep(10);
+        }
+    }
+
+    @AfterEach
+    public void cierra() {
+        if (suscripciones != null) {
+            suscripciones.cierra();
+        }
+    }
+
+    @Test
+    public void cadaUsuarioRecibeSoloSusEventos() throws InterruptedException {
+        // GIVEN
+        // Dos conexiones del usuario 1 y una del usuario 2
+        suscripciones(2, 4, 16, 5000);
+        EmitterDePrueba primera = suscribe(1L, null);
+        EmitterDePrueba segunda = suscribe(1L, null);
+        EmitterDePrueba otroUsuario = suscribe(2L, null);
+
+        // WHEN
+        // se borra una tarea del usuario 1,
+        suscripciones.publica(TareaEvento.borrada(1L, 7L));
+
+        // THEN
+        // el evento llega a sus dos conexiones y no a la del usuario 2.
+        espera(() -> primera.enviados.size() == 1 && segunda.enviados.size() == 1);
+        assertThat(primera.enviados.get(0)).contains("event:BORRADA");
+        assertThat(otroUsuario.enviados).isEmpty();
+    }
+
+    @Test
+    public void losLatidosLleganATodasLasConexiones() throws InterruptedException {
+        // GIVEN
+        // Conexiones de dos usuarios
+        suscripciones(2, 4, 16, 5000);
+        EmitterDePrueba primera = suscribe(1L, null);
+        EmitterDePrueba segunda = suscribe(2L, null);
+
+        // WHEN
+        // se envían los latidos,
+        suscripciones.enviaLatidos();
+
+        // THEN
+        // cada conexión recibe un comentario.
+        espera(() -> primera.enviados.size() == 1 && segunda.enviados.size() == 1);
+        assertThat(primera.enviados.get(0)).startsWith(":latido");
+        assertThat(segunda.enviados.get(0)).startsWith(":latido");
+    }
+
+    @Test
+    public void unClienteAtascadoNoRetrasaALosDemasYSeCierra() throws InterruptedException {
+        // GIVEN
+        // Un único hilo de envío fijo y un cliente que ha dejado de leer
+        // con un envío bloqueado
+        CountDownLatch bloqueo = new CountDownLatch(1);
+        suscripciones(1, 4, 16, 200);
+        EmitterDePrueba atascado = suscribe(1L, bloqueo);
+        EmitterDePrueba sano = suscribe(2L, null);
+        suscripciones.enviaLatidos();
+
+        // WHEN
+        // llega un evento para el otro usuario,
+        suscripciones.publica(TareaEvento.borrada(2L, 7L));
+
+        // THEN
+        // se le entrega sin esperar al envío bloqueado
+        espera(() -> sano.enviados.size() == 2);
+        assertThat(atascado.enviados).isEmpty();
+
+        // y con el siguiente latido después de max-envio-ms se cierra sólo
+        // la conexión atascada.
+        Thread.sleep(300);
+        suscripciones.enviaLatidos();
+        espera(() -> atascado.cerrado);
+        assertThat(sano.cerrado).isFalse();
+        assertThat(suscripciones.numeroSuscriptores()).isEqualTo(1);
+        espera(() -> sano.enviados.size() == 3);
+        bloqueo.countDown();
+    }
+
+    @Test
+    public void seCierraLaConexionQueLlenaSuCola() throws InterruptedException {
+        // GIVEN
+        // Un cliente atascado con una cola de 2 eventos
+        CountDownLatch bloqueo = new CountDownLatch(1);
+        suscripciones(1, 4, 2, 60000);
+        EmitterDePrueba atascado = suscribe(1L, bloqueo);
+        suscripciones.publica(TareaEvento.borrada(1L, 1L));
+
+        // WHEN
+        // le siguen llegando eventos,
+        for (long i = 2; i <= 4; i++) {
+            suscripciones.publica(TareaEvento.borrada(1L, i));
+        }
+
+        // THEN
+        // se cierra su conexión.
+        espera(() -> atascado.cerrado);
+        assertThat(suscripciones.numeroSuscriptores()).isZero();
+        bloqueo.countDown();
+    }
+
+    @Test
+    public void cerrarUnaConexionAtascadaNoBloqueaAQuienPublica() throws Exception {
+        // GIVEN
+        // Un SseEmitter de verdad cuya escritura en la respuesta se ha
+        // quedado bloqueada: mientras tanto tiene cogido su cerrojo
+        CountDownLatch bloqueo = new CountDownLatch(1);
+        CountDownLatch escribiendo = new CountDownLatch(1);
+        SseEmitter emitter = new SseEmitter(60000L);
+        inicializa(emitter, (proxy, metodo, args) -> {
+            if (metodo.getName().equals("send")) {
+                escribiendo.countDown();
+                bloqueo.await();
+            }
+            return null;
+        });
+        suscripciones = new SuscripcionesTareas(1, 4, 16, 60000, 100) {
+            @Override
+            SseEmitter creaEmitter(long timeoutMs) {
+                return emitter;
+            }
+        };
+        suscripciones.suscribe(1L);
+        suscripciones.enviaLatidos();
+        assertThat(escribiendo.await(5, TimeUnit.SECONDS)).isTrue();
+        Thread.sleep(200);
+
+        // WHEN
+        // se publica un evento después de max-envio-ms,
+        Thread publicador = new Thread(() -> suscripciones.publica(TareaEvento.borrada(1L, 7L)));
+        publicador.start();
+        publicador.join(2000);
+
+        // THEN
+        // la publicación vuelve enseguida y la conexión deja de estar suscrita.
+        assertThat(publicador.isAlive()).isFalse();
+        assertThat(suscripciones.numeroSuscriptores()).isZero();
+        bloqueo.countDown();
+    }
+
+    // SseEmitter sólo se puede inicializar desde Spring MVC: se hace por
+    // reflexión con un Handler que sustituye a la respuesta HTTP
+    private static void inicializa(SseEmitter emitter, InvocationHandler handler) throws Exception {
+        Class<?> tipoHandler = Class.forName(ResponseBodyEmitter.class.getName() + "$Handler");
+        Object proxy = Proxy.newProxyInstance(tipoHandler.getClassLoader(), new Class<?>[]{tipoHandler}, handler);
+        Method initialize = ResponseBodyEmitter.class.getDeclaredMethod("initialize", tipoHandler);
+        initialize.setAccessible(true);
+        initialize.invoke(emitter, proxy);
+    }
+}
@@ -0,0 +1,142 @@
+package madstodolist.filter;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class LimitadorConcurrenciaTest {
+
+    @Test
+    public void seDescartanPeticionesPorEncimaDelLimite() {
+        // GIVEN
+        // Un limitador con límite 2 en el que las lecturas pueden usar todo el límite
+
+        LimitadorConcurrencia limitador = new LimitadorConcurrencia(2, 1, 10, 1.0);
+
+        // WHEN
+        // entran tres peticiones a la vez,
+
+        int primera = limitador.intentaAdquirir(false);
+        int segunda = limitador.intentaAdquirir(false);
+        int tercera = limitador.intentaAdquirir(false);
+
+        // THEN
+        // la tercera se descarta.
+
+        assertThat(primera).isEqualTo(1);
+        assertThat(segunda).isEqualTo(2);
+        assertThat(tercera).isEqualTo(-1);
+        assertThat(limitador.getEnVuelo()).isEqualTo(2);
+    }
+
+    @Test
+    public void lasLecturasSeDescartanAntesQueLasModificaciones() {
+        // GIVEN
+        // Un limitador con límite 4 en el que las lecturas sólo pueden usar la mitad
+
+        LimitadorConcurrencia limitador = new LimitadorConcurrencia(4, 1, 10, 0.5);
+        limitador.intentaAdquirir(true);
+        limitador.intentaAdquirir(true);
+
+        // WHEN, THEN
+        // con dos lecturas en vuelo se rechaza una tercera lectura,
+        // pero se sigue admitiendo una modificación.
+
+        assertThat(limitador.intentaAdquirir(true)).isEqualTo(-1);
+        assertThat(limitador.intentaAdquirir(false)).isEqualTo(3);
+    }
+
+    @Test
+    public void elLimiteBajaCuandoAumentaLaLatencia() {
+        // GIVEN
+        // Un limitador saturado con latencias estables de 10ms
+
+        LimitadorConcurrencia limitador = new LimitadorConcurrencia(10, 1, 100, 1.0);
+        for (int i = 0; i < 50; i++) {
+            int enVuelo = limitador.intentaAdquirir(false);
+            limitador.libera(10, TimeUnit.MILLISECONDS.toNanos(10), false);
+            assertThat(enVuelo).isPositive();
+        }
+        int limiteEstable = limitador.getLimite();
+
+        // WHEN
+        // las peticiones pasan a tardar diez veces más,
+
+        for (int i = 0; i < 20; i++) {
+            limitador.intentaAdquirir(false);
+            limitador.libera(limiteEstable, TimeUnit.MILLISECONDS.toNanos(100), false);
+        }
+
+        // THEN
+        // el límite se reduce.
+
+        assertThat(limitador.getLimite()).isLessThan(limiteEstable);
+    }
+
+    @Test
+    public void soloSeLibraDelLimiteElGetDeEventos() throws Exception {
+        // GIVEN
+        // Un filtro con el límite agotado
+
+        LimitadorConcurrencia limitador = new LimitadorConcurrencia(1, 1, 1, 1.0);
+        LimitadorConcurrenciaFilter filtro = new LimitadorConcurrenciaFilter(limitador, 1);
+        limitador.intentaAdquirir(true);
+
+        // WHEN
+        // llegan el GET de eventos y un POST que pide text/event-stream,
+
+        MockHttpServletRequest eventos = new MockHttpServletRequest("GET", "/usuarios/1/tareas/eventos");
+        MockHttpServletResponse respuestaEventos = new MockHttpServletResponse();
+        filtro.doFilter(eventos, respuestaEventos, new MockFilterChain());
+
+        MockHttpServletRequest post = new MockHttpServletRequest("POST", "/usuarios/1/tareas/nueva");
+        post.addHeader(HttpHeaders.ACCEPT, MediaType.TEXT_EVENT_STREAM_VALUE);
+        MockHttpServletResponse respuestaPost = new MockHttpServletResponse();
+        filtro.doFilter(post, respuestaPost, new MockFilterChain());
+
+        // THEN
+        // sólo el primero pasa sin contar para el límite.
+
+        assertThat(respuestaEventos.getStatus()).isEqualTo(200);
+        assertThat(respuestaPost.getStatus()).isEqualTo(503);
+    }
+
+    @Test
+    public void laExportacionCuentaParaElLimitePeroNoAjustaLaLatencia() throws Exception {
+        // GIVEN
+        // Un filtro con un limitador que anota las muestras que descarta
+
+        List<Boolean> descartadas = new ArrayList<>();
+        LimitadorConcurrencia limitador = new LimitadorConcurrencia(2, 1, 2, 1.0) {
+            @Override
+            public void libera(int enVueloAlEntrar, long rttNanos, boolean descartarMuestra) {
+                descartadas.add(descartarMuestra);
+                super.libera(enVueloAlEntrar, rttNanos, descartarMuestra);
+            }
+        };
+        LimitadorConcurrenciaFilter filtro = new LimitadorConcurrenciaFilter(limitador, 1);
+
+        // WHEN
+        // pasan por él una exportación y una lectura normal,
+
+        filtro.doFilter(new MockHttpServletRequest("GET", "/api/usuarios/1/tareas/exportar"),
+                new MockHttpServletResponse(), new MockFilterChain());
+        filtro.doFilter(new MockHttpServletRequest("GET", "/api/usuarios/1/tareas"),
+                new MockHttpServletResponse(), new MockFilterChain());
+
+        // THEN
+        // las dos ocupan y liberan un hueco, pero sólo se usa la latencia de la segunda.
+
+        assertThat(descartadas).containsExactly(true, false);
+        assertThat(limitador.getEnVuelo()).isEqualTo(0);
+    }
+}
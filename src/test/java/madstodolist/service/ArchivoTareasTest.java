@@ -0,0 +1,145 @@
+package madstodolist.service;
+
+import madstodolist.dto.TareaData;
+import madstodolist.dto.UsuarioData;
+import madstodolist.model.EstadoTarea;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.jdbc.Sql;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.Date;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+@SpringBootTest
+@Sql(scripts = "/clean-db.sql")
+public class ArchivoTareasTest {
+
+    @Autowired
+    UsuarioService usuarioService;
+
+    @Autowired
+    TareaService tareaService;
+
+    @Autowired
+    ArchivoTareas archivoTareas;
+
+    @Autowired
+    PlatformTransactionManager transactionManager;
+
+    @Test
+    public void unaModificacionConcurrenteNoSePierdeAlArchivar() throws Exception {
+        // GIVEN
+        // Un usuario con una tarea completada que se está modificando en otra
+        // transacción todavía sin confirmar
+        UsuarioData usuario = new UsuarioData();
+        usuario.setEmail("user@ua");
+        usuario.setPassword("123");
+        Long usuarioId = usuarioService.registrar(usuario).getId();
+        TareaData completada = tareaService.nuevaTareaUsuario(usuarioId, "Lavar coche");
+        tareaService.modificaEstadoTarea(completada.getId(), EstadoTarea.COMPLETADA);
+
+        CountDownLatch modificada = new CountDownLatch(1);
+        CountDownLatch confirmar = new CountDownLatch(1);
+        TransactionTemplate transaccion = new TransactionTemplate(transactionManager);
+        CompletableFuture<Void> modificacion = CompletableFuture.runAsync(() ->
+                transaccion.executeWithoutResult(estado -> {
+                    tareaService.modificaTarea(completada.getId(), "Lavar coche y moto");
+                    modificada.countDown();
+                    try {
+                        confirmar.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }));
+        assertThat(modificada.await(5, TimeUnit.SECONDS)).isTrue();
+
+        // WHEN
+        // se archiva mientras tanto y la modificación se confirma después,
+        CompletableFuture<Integer> archivado = CompletableFuture.supplyAsync(() ->
+                archivoTareas.archiva(new Date(System.currentTimeMillis() + 1000)));
+        Thread.sleep(200);
+        confirmar.countDown();
+        modificacion.get(5, TimeUnit.SECONDS);
+
+        // THEN
+        // el archivo guarda la tarea ya modificada.
+        assertThat(archivado.get(5, TimeUnit.SECONDS)).isEqualTo(1);
+        assertThat(archivoTareas.tareasArchivadas(usuarioId, 0, 10)).extracting(TareaData::getTitulo)
+                .containsExactly("Lavar coche y moto");
+    }
+
+    @Test
+    public void archivarYRestaurarTareaCompletada() {
+        // GIVEN
+        // Un usuario con una tarea pendiente y otra completada
+        UsuarioData usuario = new UsuarioData();
+        usuario.setEmail("user@ua");
+        usuario.setPassword("123");
+        Long usuarioId = usuarioService.registrar(usuario).getId();
+        tareaService.nuevaTareaUsuario(usuarioId, "Renovar DNI");
+        TareaData completada = tareaService.nuevaTareaUsuario(usuarioId, "Lavar coche");
+        tareaService.modificaEstadoTarea(completada.getId(), EstadoTarea.COMPLETADA);
+
+        // WHEN
+        // se archivan las tareas completadas antes de ahora,
+        int archivadas = archivoTareas.archiva(new Date(System.currentTimeMillis() + 1000));
+
+        // THEN
+        // la completada sale de la lista de tareas y está en el archivo,
+        assertThat(archivadas).isEqualTo(1);
+        assertThat(tareaService.allTareasUsuario(usuarioId)).extracting(TareaData::getTitulo)
+                .containsExactly("Renovar DNI");
+        assertThat(archivoTareas.tareasArchivadas(usuarioId, 0, 10)).extracting(TareaData::getId)
+                .containsExactly(completada.getId());
+        assertThat(tareaService.cambiosTareasUsuario(usuarioId, 0).getTareas()).hasSize(1);
+
+        // y al restaurarla vuelve con el mismo id y desaparece del archivo.
+        TareaData restaurada = archivoTareas.restaura(usuarioId, completada.getId());
+        assertThat(restaurada.getTitulo()).isEqualTo("Lavar coche");
+        assertThat(restaurada.isCompletada()).isTrue();
+        assertThat(tareaService.findById(completada.getId())).isNotNull();
+        assertThat(archivoTareas.tareasArchivadas(usuarioId, 0, 10)).isEmpty();
+        assertThatThrownBy(() -> archivoTareas.restaura(usuarioId, completada.getId()))
+                .isInstanceOf(TareaServiceException.class);
+    }
+
+    @Test
+    public void lasTareasArchivadasSeListanPorPaginas() {
+        // GIVEN
+        // Un usuario con tres tareas completadas archivadas en tres pasadas
+        UsuarioData usuario = new UsuarioData();
+        usuario.setEmail("user@ua");
+        usuario.setPassword("123");
+        Long usuarioId = usuarioService.registrar(usuario).getId();
+        Long[] ids = new Long[3];
+        for (int i = 0; i < 3; i++) {
+            TareaData tarea = tareaService.nuevaTareaUsuario(usuarioId, "Tarea " + i);
+            tareaService.modificaEstadoTarea(tarea.getId(), EstadoTarea.COMPLETADA);
+            archivoTareas.archiva(new Date(System.currentTimeMillis() + 1000));
+            ids[i] = tarea.getId();
+        }
+
+        // WHEN
+        // se piden páginas de dos tareas,
+        // THEN
+        // salen las últimas archivadas primero
+        assertThat(archivoTareas.tareasArchivadas(usuarioId, 0, 2)).extracting(TareaData::getId)
+                .containsExactly(ids[2], ids[1]);
+        assertThat(archivoTareas.tareasArchivadas(usuarioId, 1, 2)).extracting(TareaData::getId)
+                .containsExactly(ids[0]);
+        assertThat(archivoTareas.tareasArchivadas(usuarioId, 2, 2)).isEmpty();
+
+        // y al restaurar la del medio la siguiente página se desplaza.
+        archivoTareas.restaura(usuarioId, ids[1]);
+        assertThat(archivoTareas.tareasArchivadas(usuarioId, 0, 2)).extracting(TareaData::getId)
+                .containsExactly(ids[2], ids[0]);
+    }
+}
@@ -0,0 +1,101 @@
+package madstodolist.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class LecturasAgrupadasTest {
+
+    @Test
+    public void lecturasSimultaneasCompartenLaCarga() throws Exception {
+        // GIVEN
+        // Una carga que no termina hasta que se lo indicamos
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        LecturasAgrupadas lecturas = new LecturasAgrupadas(registry);
+        AtomicInteger cargas = new AtomicInteger();
+        CountDownLatch empezada = new CountDownLatch(1);
+        CountDownLatch terminar = new CountDownLatch(1);
+
+        CompletableFuture<String> primera = CompletableFuture.supplyAsync(() ->
+                lecturas.ejecuta("prueba", 1L, () -> {
+                    cargas.incrementAndGet();
+                    empezada.countDown();
+                    try {
+                        terminar.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    return "resultado";
+                }));
+        assertThat(empezada.await(5, TimeUnit.SECONDS)).isTrue();
+
+        // WHEN
+        // llega otra lectura con la misma clave mientras la primera está en curso
+        CompletableFuture<String> segunda = CompletableFuture.supplyAsync(() ->
+                lecturas.ejecuta("prueba", 1L, () -> {
+                    cargas.incrementAndGet();
+                    return "otro";
+                }));
+        while (registry.find("lecturas.agrupadas").counter() == null) {
+            Thread.sleep(5);
+        }
+        terminar.countDown();
+
+        // THEN
+        // las dos reciben el resultado de una única carga
+        assertThat(primera.get(5, TimeUnit.SECONDS)).isEqualTo("resultado");
+        assertThat(segunda.get(5, TimeUnit.SECONDS)).isEqualTo("resultado");
+        assertThat(cargas.get()).isEqualTo(1);
+        assertThat(registry.get("lecturas.agrupadas").tag("lectura", "prueba").counter().count()).isEqualTo(1);
+
+        // y una lectura posterior vuelve a cargar los datos
+        assertThat(lecturas.ejecuta("prueba", 1L, () -> "nuevo")).isEqualTo("nuevo");
+    }
+
+    @Test
+    public void unErrorEnLaCargaLlegaATodasLasLecturasAgrupadas() throws Exception {
+        // GIVEN
+        // Una carga que falla con un Error cuando se lo indicamos
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        LecturasAgrupadas lecturas = new LecturasAgrupadas(registry);
+        CountDownLatch empezada = new CountDownLatch(1);
+        CountDownLatch fallar = new CountDownLatch(1);
+
+        CompletableFuture<String> primera = CompletableFuture.supplyAsync(() ->
+                lecturas.ejecuta("prueba", 1L, () -> {
+                    empezada.countDown();
+                    try {
+                        fallar.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    throw new StackOverflowError("carga");
+                }));
+        assertThat(empezada.await(5, TimeUnit.SECONDS)).isTrue();
+
+        // WHEN
+        // otra lectura con la misma clave espera a la primera y ésta falla
+        CompletableFuture<String> segunda = CompletableFuture.supplyAsync(() ->
+                lecturas.ejecuta("prueba", 1L, () -> "otro"));
+        while (registry.find("lecturas.agrupadas").counter() == null) {
+            Thread.sleep(5);
+        }
+        fallar.countDown();
+
+        // THEN
+        // las dos terminan con el mismo error en lugar de quedarse esperando
+        assertThatThrownBy(() -> primera.get(5, TimeUnit.SECONDS)).hasCauseInstanceOf(StackOverflowError.class);
+        assertThatThrownBy(() -> segunda.get(5, TimeUnit.SECONDS)).hasCauseInstanceOf(StackOverflowError.class);
+
+        // y la siguiente lectura vuelve a cargar los datos
+        assertThat(lecturas.ejecuta("prueba", 1L, () -> "nuevo")).isEqualTo("nuevo");
+        assertThat(registry.get("lecturas.agrupadas.en-curso").gauge().value()).isEqualTo(0);
+    }
+}
@@ -0,0 +1,50 @@
+package madstodolist.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class MapaLongLongTest {
+
+    @Test
+    public void secuenciaDeAltasYBajasIgualQueUnHashMap() {
+        // GIVEN
+        // Un mapa pequeño que tendrá que redimensionarse varias veces
+        MapaLongLong mapa = new MapaLongLong(4);
+        Map<Long, Long> esperado = new HashMap<>();
+        Random random = new Random(42);
+
+        // WHEN
+        // se hacen muchas altas y bajas sobre un rango reducido de ids,
+        // para que haya colisiones y desplazamientos al borrar
+        for (int i = 0; i < 100_000; i++) {
+            long clave = 1 + random.nextInt(5_000);
+            if (random.nextInt(3) == 0) {
+                mapa.remove(clave);
+                esperado.remove(clave);
+            } else {
+                mapa.put(clave, i);
+                esperado.put(clave, (long) i);
+            }
+        }
+
+        // THEN
+        // el contenido coincide con el de un HashMap
+        assertThat(mapa.size()).isEqualTo(esperado.size());
+        for (long clave = 1; clave <= 5_000; clave++) {
+            assertThat(mapa.get(clave)).isEqualTo(esperado.getOrDefault(clave, 0L));
+        }
+    }
+
+    @Test
+    public void laClaveCeroNoSeGuarda() {
+        MapaLongLong mapa = new MapaLongLong(16);
+        assertThat(mapa.get(0)).isEqualTo(0);
+        mapa.remove(0);
+        assertThat(mapa.size()).isEqualTo(0);
+    }
+}
@@ -0,0 +1,104 @@
+package madstodolist.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class RegistroIdempotenciaTest {
+
+    @Test
+    public void laMismaClaveDevuelveElResultadoOriginal() {
+        // GIVEN
+        // Un registro vacío
+        RegistroIdempotencia registro = new RegistroIdempotencia(3600, 100);
+        AtomicInteger ejecuciones = new AtomicInteger();
+
+        // WHEN
+        // se ejecuta dos veces una operación con la misma clave,
+        Integer primero = registro.ejecuta(1L, "a", "titulo", ejecuciones::incrementAndGet);
+        Integer segundo = registro.ejecuta(1L, "a", "titulo", ejecuciones::incrementAndGet);
+
+        // THEN
+        // la operación sólo se ejecuta una vez, salvo con otro usuario o sin clave.
+        assertThat(primero).isEqualTo(1);
+        assertThat(segundo).isEqualTo(1);
+        assertThat(registro.ejecuta(2L, "a", "titulo", ejecuciones::incrementAndGet)).isEqualTo(2);
+        assertThat(registro.ejecuta(1L, null, "titulo", ejecuciones::incrementAndGet)).isEqualTo(3);
+    }
+
+    @Test
+    public void unaOperacionFallidaSePuedeReintentar() {
+        // GIVEN
+        // Un registro en el que una operación con clave ha fallado
+        RegistroIdempotencia registro = new RegistroIdempotencia(3600, 100);
+        assertThatThrownBy(() -> registro.ejecuta(1L, "a", "titulo", () -> {
+            throw new TareaServiceException("Error");
+        })).isInstanceOf(TareaServiceException.class);
+
+        // WHEN, THEN
+        // un reintento con la misma clave vuelve a ejecutar la operación.
+        assertThat(registro.ejecuta(1L, "a", "titulo", () -> "ok")).isEqualTo("ok");
+    }
+
+    @Test
+    public void lasClavesFallidasNoOcupanSitioNiDesplazanALasDemas() {
+        // GIVEN
+        // Un registro con un máximo de 2 claves y una operación ya hecha
+        RegistroIdempotencia registro = new RegistroIdempotencia(3600, 2);
+        registro.ejecuta(1L, "a", "titulo", () -> "ok");
+
+        // WHEN
+        // fallan operaciones con muchas claves distintas y después se hace otra,
+        for (int i = 0; i < 50; i++) {
+            assertThatThrownBy(() -> registro.ejecuta(1L, "fallida-" + System.nanoTime(), "titulo", () -> {
+                throw new TareaServiceException("Error");
+            })).isInstanceOf(TareaServiceException.class);
+        }
+        registro.ejecuta(1L, "b", "titulo", () -> "ok");
+
+        // THEN
+        // sólo se recuerdan las dos que terminaron bien.
+        assertThat(registro.numeroClaves()).isEqualTo(2);
+        assertThat(registro.ejecuta(1L, "a", "titulo", () -> "otra")).isEqualTo("ok");
+        assertThat(registro.ejecuta(1L, "b", "titulo", () -> "otra")).isEqualTo("ok");
+    }
+
+    @Test
+    public void elRegistroNoSuperaElMaximoDeClaves() {
+        // GIVEN
+        // Un registro con un máximo de 10 claves
+        RegistroIdempotencia registro = new RegistroIdempotencia(3600, 10);
+
+        // WHEN
+        // se ejecutan operaciones con 50 claves distintas,
+        for (int i = 0; i < 50; i++) {
+            registro.ejecuta(1L, "clave-" + i, "titulo", () -> "ok");
+        }
+
+        // THEN
+        // sólo se recuerdan las 10 más recientes.
+        assertThat(registro.numeroClaves()).isEqualTo(10);
+        assertThat(registro.ejecuta(1L, "clave-49", "titulo", () -> "otra")).isEqualTo("ok");
+        assertThat(registro.ejecuta(1L, "clave-0", "titulo", () -> "otra")).isEqualTo("otra");
+    }
+
+    @Test
+    public void laMismaClaveConOtroCuerpoSeRechaza() {
+        // GIVEN
+        // Un registro con una operación ya hecha con la clave "a"
+        RegistroIdempotencia registro = new RegistroIdempotencia(3600, 100);
+        AtomicInteger ejecuciones = new AtomicInteger();
+        registro.ejecuta(1L, "a", "Lavar coche", ejecuciones::incrementAndGet);
+
+        // WHEN, THEN
+        // repetirla con otro cuerpo no devuelve el resultado anterior ni
+        // vuelve a ejecutar la operación.
+        assertThatThrownBy(() -> registro.ejecuta(1L, "a", "Renovar DNI", ejecuciones::incrementAndGet))
+                .isInstanceOf(ClaveIdempotenciaReutilizadaException.class);
+        assertThat(ejecuciones.get()).isEqualTo(1);
+        assertThat(registro.ejecuta(1L, "a", "Lavar coche", ejecuciones::incrementAndGet)).isEqualTo(1);
+    }
+}
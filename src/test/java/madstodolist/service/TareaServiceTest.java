@@ -1,17 +1,23 @@
 package madstodolist.service;
 
+import madstodolist.dto.CambiosTareasData;
 import madstodolist.dto.TareaData;
 import madstodolist.dto.UsuarioData;
+import madstodolist.model.EstadoTarea;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.Sort;
 import org.springframework.test.context.jdbc.Sql;
 
+import java.util.Arrays;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 
 // Hemos eliminado todos los @Transactional de los tests
 // y usado un script para limpiar la BD de test después de
@@ -28,6 +34,12 @@ public class TareaServiceTest {
     @Autowired
     TareaService tareaService;
 
+    @Autowired
+    CompactadorTareasBorradas compactadorTareasBorradas;
+
+    @Autowired
+    PurgadorTareasBorradas purgadorTareasBorradas;
+
     // Método para inicializar los datos de prueba en la BD
     // Devuelve un mapa con los identificadores del usuario y de la primera tarea añadida
     Map<String, Long> addUsuarioTareasBD() {
@@ -147,4 +159,162 @@ public class TareaServiceTest {
         assertThat(tareaService.usuarioContieneTarea(usuarioId,tareaId)).isTrue();
     }
 
+
+    @Test
+    public void borrarVariasTareasEnLote() {
+        // GIVEN
+        // Un usuario con tres tareas en la BD
+        Map<String, Long> ids = addUsuarioTareasBD();
+        Long usuarioId = ids.get("usuarioId");
+        TareaData tercera = tareaService.nuevaTareaUsuario(usuarioId, "Práctica 1 de MADS");
+
+        // WHEN
+        // borramos en lote la primera y la tercera,
+        int borradas = tareaService.borraTareas(usuarioId, Arrays.asList(ids.get("tareaId"), tercera.getId()));
+
+        // THEN
+        // sólo queda la segunda.
+        assertThat(borradas).isEqualTo(2);
+        List<TareaData> tareas = tareaService.allTareasUsuario(usuarioId);
+        assertThat(tareas).hasSize(1);
+        assertThat(tareas.get(0).getTitulo()).isEqualTo("Renovar DNI");
+    }
+
+    @Test
+    public void loteConTareasDeOtroUsuarioNoModificaNinguna() {
+        // GIVEN
+        // Dos usuarios con tareas en la BD
+        Map<String, Long> ids = addUsuarioTareasBD();
+        Long usuarioId = ids.get("usuarioId");
+        UsuarioData otro = new UsuarioData();
+        otro.setEmail("otro@ua");
+        otro.setPassword("123");
+        otro = usuarioService.registrar(otro);
+        TareaData ajena = tareaService.nuevaTareaUsuario(otro.getId(), "Tarea ajena");
+
+        // WHEN, THEN
+        // intentar renombrar en lote una tarea propia y otra ajena falla
+        assertThatThrownBy(() -> tareaService.modificaTituloTareas(usuarioId,
+                Arrays.asList(ids.get("tareaId"), ajena.getId()), "Nuevo título"))
+                .isInstanceOf(TareaServiceException.class);
+
+        // y no se ha modificado ninguna de las dos.
+        assertThat(tareaService.findById(ids.get("tareaId")).getTitulo()).isEqualTo("Lavar coche");
+        assertThat(tareaService.findById(ajena.getId()).getTitulo()).isEqualTo("Tarea ajena");
+    }
+
+    @Test
+    public void cambiosTareasDevuelveSoloLoModificadoDesdeElCursor() {
+        // GIVEN
+        // Un usuario con dos tareas y un cliente sincronizado en ese momento
+        Map<String, Long> ids = addUsuarioTareasBD();
+        Long usuarioId = ids.get("usuarioId");
+        long cursor = tareaService.cambiosTareasUsuario(usuarioId, 0).getSecuencia();
+
+        // WHEN
+        // se crea una tarea, se modifica otra y se borra la tercera,
+        TareaData nueva = tareaService.nuevaTareaUsuario(usuarioId, "Práctica 1 de MADS");
+        tareaService.modificaTarea(ids.get("tareaId"), "Lavar moto");
+        tareaService.borraTarea(ids.get("tareaId") + 1);
+
+        // THEN
+        // los cambios desde el cursor son sólo esos tres.
+        CambiosTareasData cambios = tareaService.cambiosTareasUsuario(usuarioId, cursor);
+        assertThat(cambios.isCompleto()).isFalse();
+        assertThat(cambios.getSecuencia()).isEqualTo(cursor + 3);
+        assertThat(cambios.getTareas()).extracting(TareaData::getId).containsExactly(nueva.getId(), ids.get("tareaId"));
+        assertThat(cambios.getBorradas()).containsExactly(ids.get("tareaId") + 1);
+        assertThat(tareaService.cambiosTareasUsuario(usuarioId, cambios.getSecuencia()).getTareas()).isEmpty();
+    }
+
+    @Test
+    public void cambiosTareasTrasCompactarDevuelveLaListaCompleta() {
+        // GIVEN
+        // Un usuario con una tarea borrada cuya marca se ha compactado
+        Map<String, Long> ids = addUsuarioTareasBD();
+        Long usuarioId = ids.get("usuarioId");
+        tareaService.borraTarea(ids.get("tareaId"));
+        assertThat(compactadorTareasBorradas.compacta(new Date(System.currentTimeMillis() + 60000))).isEqualTo(1);
+
+        // WHEN
+        // un cliente sincronizado antes del borrado pide los cambios,
+        CambiosTareasData cambios = tareaService.cambiosTareasUsuario(usuarioId, 0);
+
+        // THEN
+        // recibe la lista completa de tareas.
+        assertThat(cambios.isCompleto()).isTrue();
+        assertThat(cambios.getTareas()).extracting(TareaData::getTitulo).containsExactly("Renovar DNI");
+    }
+
+    @Test
+    public void tareasUsuarioFiltraPorEstadoYOrdena() {
+        // GIVEN
+        // Un usuario con tres tareas, una de ellas completada
+        Map<String, Long> ids = addUsuarioTareasBD();
+        Long usuarioId = ids.get("usuarioId");
+        tareaService.nuevaTareaUsuario(usuarioId, "Comprar pan");
+        TareaData completada = tareaService.modificaEstadoTarea(ids.get("tareaId"), EstadoTarea.COMPLETADA);
+
+        // WHEN
+        // pedimos las pendientes ordenadas por título y todas por id descendente,
+        List<TareaData> pendientes = tareaService.tareasUsuario(usuarioId, EstadoTarea.PENDIENTE, Sort.by("titulo"));
+        List<TareaData> todas = tareaService.tareasUsuario(usuarioId, null, Sort.by(Sort.Direction.DESC, "id"));
+
+        // THEN
+        // se devuelven en el orden pedido y la completada tiene fecha de finalización.
+        assertThat(pendientes).extracting(TareaData::getTitulo).containsExactly("Comprar pan", "Renovar DNI");
+        assertThat(todas).extracting(TareaData::getTitulo).containsExactly("Comprar pan", "Renovar DNI", "Lavar coche");
+        assertThat(completada.isCompletada()).isTrue();
+        assertThat(completada.getFechaCompletada()).isNotNull();
+    }
+
+    @Test
+    public void tareasUsuarioPorBloquesRecorreLasTareasEnOrdenDeId() {
+        // GIVEN
+        // Un usuario con tres tareas, una de ellas completada
+        Map<String, Long> ids = addUsuarioTareasBD();
+        Long usuarioId = ids.get("usuarioId");
+        tareaService.nuevaTareaUsuario(usuarioId, "Comprar pan");
+        tareaService.modificaEstadoTarea(ids.get("tareaId"), EstadoTarea.COMPLETADA);
+        int[] bloques = {0};
+
+        // WHEN
+        // recorremos las pendientes por id y todas por id descendente,
+        Iterable<TareaData> pendientes = tareaService.tareasUsuarioPorBloques(usuarioId, EstadoTarea.PENDIENTE,
+                false, () -> bloques[0]++);
+        Iterable<TareaData> todas = tareaService.tareasUsuarioPorBloques(usuarioId, null, true, () -> { });
+
+        // THEN
+        // se obtienen en ese orden y las tareas se leen al recorrer el listado.
+        assertThat(bloques[0]).isEqualTo(0);
+        assertThat(pendientes).extracting(TareaData::getTitulo).containsExactly("Renovar DNI", "Comprar pan");
+        assertThat(bloques[0]).isEqualTo(2);
+        assertThat(todas).extracting(TareaData::getTitulo).containsExactly("Comprar pan", "Renovar DNI", "Lavar coche");
+    }
+
+    @Test
+    public void tareaBorradaDejaDeVerseYSePurgaDespues() {
+        // GIVEN
+        // Un usuario con dos tareas
+        Map<String, Long> ids = addUsuarioTareasBD();
+        Long usuarioId = ids.get("usuarioId");
+        Long tareaId = ids.get("tareaId");
+
+        // WHEN
+        // borramos una de ellas,
+        tareaService.borraTarea(tareaId);
+
+        // THEN
+        // deja de verse aunque la fila siga en la BD hasta la purga,
+        assertThat(tareaService.findById(tareaId)).isNull();
+        assertThat(tareaService.allTareasUsuario(usuarioId)).extracting(TareaData::getTitulo)
+                .containsExactly("Renovar DNI");
+        assertThatThrownBy(() -> tareaService.modificaTarea(usuarioId, tareaId, "Lavar moto", 0))
+                .isExactlyInstanceOf(TareaServiceException.class);
+
+        // y la purga la elimina una sola vez sin tocar la otra tarea.
+        assertThat(purgadorTareasBorradas.purga(100)).isEqualTo(1);
+        assertThat(purgadorTareasBorradas.purga(100)).isEqualTo(0);
+        assertThat(tareaService.allTareasUsuario(usuarioId)).hasSize(1);
+    }
 }
@@ -16,6 +16,12 @@ public class UsuarioServiceTest {
     @Autowired
     private UsuarioService usuarioService;
 
+    @Autowired
+    private TareaService tareaService;
+
+    @Autowired
+    private PurgadorUsuarios purgadorUsuarios;
+
     // Método para inicializar los datos de prueba en la BD
     // Devuelve el identificador del usuario de la BD
     Long addUsuarioBD() {
@@ -153,4 +159,28 @@ public class UsuarioServiceTest {
         assertThat(usuario.getEmail()).isEqualTo("user@ua");
         assertThat(usuario.getNombre()).isEqualTo("Usuario Ejemplo");
     }
-}
\ No newline at end of file
+
+    @Test
+    public void bajaDeUsuarioLoDesactivaYLaPurgaBorraSusTareas() {
+        // GIVEN
+        // Un usuario con dos tareas
+        Long usuarioId = addUsuarioBD();
+        tareaService.nuevaTareaUsuario(usuarioId, "Lavar coche");
+        tareaService.nuevaTareaUsuario(usuarioId, "Renovar DNI");
+
+        // WHEN
+        // se da de baja,
+        usuarioService.darDeBaja(usuarioId);
+
+        // THEN
+        // ya no puede entrar y sus tareas están pendientes de borrar
+        assertThat(usuarioService.login("user@ua", "123")).isEqualTo(UsuarioService.LoginStatus.USER_NOT_FOUND);
+        assertThat(usuarioService.estadoBaja(usuarioId).isActivo()).isFalse();
+        assertThat(usuarioService.estadoBaja(usuarioId).getTareasPendientes()).isEqualTo(2);
+
+        // y tras la purga el usuario y sus tareas han desaparecido.
+        purgadorUsuarios.purga();
+        assertThat(usuarioService.estadoBaja(usuarioId).isTerminada()).isTrue();
+        assertThat(usuarioService.findById(usuarioId)).isNull();
+    }
+}
@@ -1,2 +1,3 @@
+DELETE FROM tareas_borradas;
 DELETE FROM tareas;
 DELETE FROM usuarios;